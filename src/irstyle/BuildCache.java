@@ -1,19 +1,47 @@
 package irstyle;
 
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.FSDirectory;
 
 import database.DatabaseConnection;
+import database.DatabaseType;
 import irstyle.api.IRStyleExperiment;
 import irstyle.api.Indexer;
 
 public class BuildCache {
+
+	// rows read, inserted and indexed at a time by the streaming mode
+	private static final int BATCH_SIZE = 1000;
+
+	// rows inserted by one multi-row INSERT, fewer if they have more than
+	// MAX_PARAMETERS values, which MySQL does not allow in one statement
+	private static final int ROWS_PER_INSERT = 100;
+	private static final int MAX_PARAMETERS = 65535;
+
+	// usage: BuildCache -inexp|-inexr|-msn|-stack [-stream [indexing threads]]
 	public static void main(String[] args) throws Exception {
 		IRStyleExperiment experiment;
 		if (args[0].equals("-inexp")) {
@@ -27,10 +55,18 @@ public class BuildCache {
 		} else {
 			throw new Exception();
 		}
+		boolean streaming = args.length > 1 && args[1].equals("-stream");
+		int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
 		try (DatabaseConnection dc = new DatabaseConnection(experiment.databaseType)) {
 			// building the cache
 			for (int i = 0; i < experiment.tableNames.length; i++) {
 				System.out.println("Indexing table " + experiment.tableNames[i]);
+				if (streaming) {
+					buildCacheStreaming(dc, experiment.databaseType, experiment.tableNames[i],
+							experiment.textAttribs[i], experiment.popularity, experiment.cacheNames[i],
+							experiment.limits[i], experiment.dataDir, numThreads);
+					continue;
+				}
 				buildCacheTable(dc, experiment.tableNames[i], experiment.textAttribs[i], experiment.popularity,
 						experiment.cacheNames[i], experiment.limits[i]);
 				buildCacheIndex(dc, experiment.tableNames[i], experiment.textAttribs[i], experiment.popularity,
@@ -50,6 +86,10 @@ public class BuildCache {
 			stmt.execute("drop table if exists " + cacheName);
 			stmt.execute(createStatement);
 		}
+		createIdIndex(dc, cacheName);
+	}
+
+	private static void createIdIndex(DatabaseConnection dc, String cacheName) throws SQLException {
 		System.out.println("Creating id index..");
 		String createIndex = "CREATE INDEX id ON " + cacheName + "(id);";
 		System.out.println("sql: " + createIndex);
@@ -66,4 +106,153 @@ public class BuildCache {
 			Indexer.indexTable(dc, dataDir + cacheName, tableName, textAttribs, limit, popularity, false, config);
 		}
 	}
+
+	/**
+	 * Builds the cache table and index from one pass over the most popular rows.
+	 * Each batch of rows is inserted into the cache table by a writer thread on a
+	 * second connection, since the streamed result set holds the first one, with
+	 * multi-row INSERTs. With one indexing thread, the reading thread indexes the
+	 * batches in row order, so the documents get the same ids as with
+	 * buildCacheIndex. With more, batches are indexed concurrently and their
+	 * order, and thus which of two documents with equal BM25 scores ranks first,
+	 * may differ from buildCacheIndex.
+	 */
+	private static void buildCacheStreaming(DatabaseConnection dc, DatabaseType databaseType, String tableName,
+			String[] textAttribs, String popularity, String cacheName, int limit, String dataDir, int numThreads)
+			throws Exception {
+		System.out.println("Creating table..");
+		try (Statement stmt = dc.getConnection().createStatement()) {
+			stmt.execute("drop table if exists " + cacheName);
+			stmt.execute("CREATE TABLE " + cacheName + " AS SELECT * FROM " + tableName + " LIMIT 0;");
+		}
+		String selectStatement = "SELECT * FROM " + tableName + " ORDER BY " + popularity + "  desc LIMIT " + limit;
+		System.out.println("sql: " + selectStatement);
+		// indexing falls back to the reading thread when the indexers are behind
+		ExecutorService indexers = numThreads <= 1 ? null
+				: new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS,
+						new ArrayBlockingQueue<Runnable>(2 * numThreads), new ThreadPoolExecutor.CallerRunsPolicy());
+		ExecutorService tableWriter = Executors.newSingleThreadExecutor();
+		BlockingQueue<List<Object[]>> rowBatches = new ArrayBlockingQueue<List<Object[]>>(16);
+		List<Future<?>> indexed = new ArrayList<Future<?>>();
+		int numRows = 0;
+		try (DatabaseConnection writerConnection = new DatabaseConnection(databaseType);
+				Analyzer analyzer = new StandardAnalyzer()) {
+			IndexWriterConfig config = Indexer.getIndexWriterConfig(analyzer);
+			config.setOpenMode(OpenMode.CREATE);
+			try (IndexWriter iwriter = new IndexWriter(FSDirectory.open(Paths.get(dataDir + cacheName)), config)) {
+				Future<Integer> inserted = tableWriter
+						.submit(() -> insertRows(writerConnection.getConnection(), cacheName, rowBatches));
+				try (Statement stmt = dc.getConnection().createStatement()) {
+					stmt.setFetchSize(Integer.MIN_VALUE);
+					ResultSet rs = stmt.executeQuery(selectStatement);
+					int numColumns = rs.getMetaData().getColumnCount();
+					List<Object[]> rows = new ArrayList<Object[]>();
+					List<Document> docs = new ArrayList<Document>();
+					while (true) {
+						boolean hasNext = rs.next();
+						if (hasNext) {
+							Object[] row = new Object[numColumns];
+							for (int c = 0; c < numColumns; c++)
+								row[c] = rs.getObject(c + 1);
+							rows.add(row);
+							docs.add(Indexer.getDocument("id", textAttribs, rs, popularity));
+						}
+						if (rows.size() == BATCH_SIZE || (!hasNext && !rows.isEmpty())) {
+							List<Document> batch = docs;
+							if (indexers == null)
+								iwriter.addDocuments(batch);
+							else
+								indexed.add(indexers.submit(() -> {
+									iwriter.addDocuments(batch);
+									return null;
+								}));
+							put(rowBatches, rows, inserted);
+							numRows += rows.size();
+							rows = new ArrayList<Object[]>();
+							docs = new ArrayList<Document>();
+						}
+						if (!hasNext)
+							break;
+					}
+				} finally {
+					// an empty batch ends the insertion
+					rowBatches.offer(Collections.<Object[]> emptyList(), 1, TimeUnit.MINUTES);
+				}
+				System.out.println("Inserted " + inserted.get() + " rows");
+				if (indexers != null) {
+					indexers.shutdown();
+					indexers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				}
+				for (Future<?> future : indexed)
+					future.get();
+			}
+		} finally {
+			if (indexers != null)
+				indexers.shutdownNow();
+			tableWriter.shutdownNow();
+		}
+		System.out.println("Indexed " + numRows + " rows");
+		createIdIndex(dc, cacheName);
+	}
+
+	// waits for room in rowBatches, failing if the table writer failed
+	private static void put(BlockingQueue<List<Object[]>> rowBatches, List<Object[]> rows, Future<Integer> inserted)
+			throws Exception {
+		while (!rowBatches.offer(rows, 1, TimeUnit.SECONDS))
+			if (inserted.isDone()) {
+				inserted.get();
+				throw new SQLException("cache table writer stopped");
+			}
+	}
+
+	// inserts the batches of rowBatches with INSERTs of rowsPerInsert rows, and
+	// one of fewer rows for the rest of a batch
+	private static int insertRows(Connection conn, String cacheName, BlockingQueue<List<Object[]>> rowBatches)
+			throws Exception {
+		int numRows = 0;
+		PreparedStatement insert = null;
+		int rowsPerInsert = 0;
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			List<Object[]> rows;
+			while (!(rows = rowBatches.take()).isEmpty()) {
+				int numColumns = rows.get(0).length;
+				if (insert == null) {
+					rowsPerInsert = Math.max(Math.min(ROWS_PER_INSERT, MAX_PARAMETERS / numColumns), 1);
+					insert = conn.prepareStatement(getInsertStatement(cacheName, numColumns, rowsPerInsert));
+				}
+				int from = 0;
+				for (; from + rowsPerInsert <= rows.size(); from += rowsPerInsert)
+					insert(insert, rows, from, rowsPerInsert);
+				if (from < rows.size()) {
+					try (PreparedStatement rest = conn
+							.prepareStatement(getInsertStatement(cacheName, numColumns, rows.size() - from))) {
+						insert(rest, rows, from, rows.size() - from);
+					}
+				}
+				conn.commit();
+				numRows += rows.size();
+			}
+		} finally {
+			if (insert != null)
+				insert.close();
+			conn.setAutoCommit(autoCommit);
+		}
+		return numRows;
+	}
+
+	private static String getInsertStatement(String cacheName, int numColumns, int numRows) {
+		String row = "(" + String.join(",", Collections.nCopies(numColumns, "?")) + ")";
+		return "insert into " + cacheName + " values " + String.join(",", Collections.nCopies(numRows, row)) + ";";
+	}
+
+	private static void insert(PreparedStatement insert, List<Object[]> rows, int from, int numRows)
+			throws SQLException {
+		int p = 1;
+		for (int r = from; r < from + numRows; r++)
+			for (Object value : rows.get(r))
+				insert.setObject(p++, value);
+		insert.executeUpdate();
+	}
 }
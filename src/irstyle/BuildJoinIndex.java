@@ -0,0 +1,67 @@
+package irstyle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Vector;
+
+import irstyle.api.IRStyleExperiment;
+import irstyle.api.IRStyleExperimentHelper;
+import irstyle.core.CSRAdjacencyIndex;
+import irstyle.core.MappedAdjacencyIndex;
+import irstyle.core.Relation;
+
+/**
+ * Exports the join attributes of the relation tables of an experiment, full
+ * and cache, to join index files that RunCacheSearch -j maps instead of
+ * reading the tables from the database. Usage: BuildJoinIndex wiki|stack
+ * [output dir], the output dir being dataDir/join_index by default.
+ */
+public class BuildJoinIndex {
+
+	public static void main(String[] args) throws IOException, SQLException {
+		IRStyleExperiment experiment;
+		IRStyleExperimentHelper experimentHelper;
+		if (args[0].equals("wiki")) {
+			experiment = IRStyleExperiment.createWikiMsnExperiment();
+			experimentHelper = new Wiki_ExperimentHelper();
+		} else if (args[0].equals("stack")) {
+			experiment = IRStyleExperiment.createStackExperiment();
+			experimentHelper = new Stack_ExperimentHelper();
+		} else {
+			throw new IllegalArgumentException("unknown experiment: " + args[0]);
+		}
+		Path indexDir = Paths.get(args.length > 1 ? args[1] : experiment.dataDir + "join_index");
+		Files.createDirectories(indexDir);
+		String[] tables = experiment.tableNames;
+		String[] relationTables = experiment.relationTableNames;
+		export(experimentHelper, experimentHelper.createRelations(tables[0], tables[1], tables[2], relationTables[0],
+				relationTables[1]), relationTables, indexDir);
+		tables = experiment.cacheNames;
+		relationTables = experiment.relationCacheNames;
+		export(experimentHelper, experimentHelper.createRelations(tables[0], tables[1], tables[2], relationTables[0],
+				relationTables[1]), relationTables, indexDir);
+	}
+
+	private static void export(IRStyleExperimentHelper experimentHelper, Vector<Relation> relations,
+			String[] relationTables, Path indexDir) throws IOException {
+		for (Relation rel : relations) {
+			boolean isRelationTable = false;
+			for (String name : relationTables)
+				isRelationTable |= name.equals(rel.getName());
+			if (!isRelationTable)
+				continue;
+			long start = System.currentTimeMillis();
+			CSRAdjacencyIndex table = CSRAdjacencyIndex.load(experimentHelper.getJdbcAccess(), rel);
+			if (table == null)
+				throw new IOException("could not read " + rel.getName());
+			Path file = indexDir.resolve(rel.getName() + ".adj");
+			MappedAdjacencyIndex.write(table, file);
+			System.out.println("wrote " + table.getNumRows() + " rows of " + rel.getName() + " to " + file + " in "
+					+ (System.currentTimeMillis() - start) + " (ms)");
+		}
+	}
+
+}
@@ -0,0 +1,145 @@
+package irstyle;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.TermToBytesRefAttribute;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Decides between the cache and the rest of a table like
+ * CacheSelectionQL.useCache, from term statistics read once from their indexes.
+ * The total term frequencies of the cache, rest and global indexes are kept
+ * in open addressing maps from 64 bit term hashes to frequencies, so a
+ * decision costs a tokenization and a few array lookups instead of term
+ * dictionary seeks. The statistics are only read after construction, so
+ * useCache may be called by many threads. The readers are not needed after
+ * construction and are closed by their owner.
+ */
+public class CacheRouter {
+
+	// total term frequencies by term hash
+	static class TermFreqs {
+		private long[] keys; // 0 marks an empty slot
+		private long[] freqs;
+		private int size = 0;
+		final long sum; // sum of the total term frequencies of the field
+
+		TermFreqs(IndexReader reader, String field) throws IOException {
+			keys = new long[1024];
+			freqs = new long[keys.length];
+			Terms terms = MultiFields.getTerms(reader, field);
+			if (terms != null) {
+				TermsEnum termsEnum = terms.iterator();
+				BytesRef term;
+				while ((term = termsEnum.next()) != null)
+					put(hash(term), termsEnum.totalTermFreq());
+			}
+			sum = Math.max(reader.getSumTotalTermFreq(field), 0);
+		}
+
+		private void put(long key, long freq) {
+			if (2 * (size + 1) > keys.length)
+				resize();
+			int slot = (int) key & (keys.length - 1);
+			while (keys[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & (keys.length - 1);
+			if (keys[slot] == 0)
+				size++;
+			keys[slot] = key;
+			freqs[slot] += freq;
+		}
+
+		private void resize() {
+			long[] oldKeys = keys;
+			long[] oldFreqs = freqs;
+			keys = new long[2 * oldKeys.length];
+			freqs = new long[keys.length];
+			size = 0;
+			for (int i = 0; i < oldKeys.length; i++)
+				if (oldKeys[i] != 0)
+					put(oldKeys[i], oldFreqs[i]);
+		}
+
+		long get(long key) {
+			int slot = (int) key & (keys.length - 1);
+			while (keys[slot] != 0) {
+				if (keys[slot] == key)
+					return freqs[slot];
+				slot = (slot + 1) & (keys.length - 1);
+			}
+			return 0;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	// FNV-1a hash of the UTF-8 bytes of a term, never 0
+	static long hash(BytesRef term) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = term.offset; i < term.offset + term.length; i++) {
+			h ^= term.bytes[i] & 0xff;
+			h *= 0x100000001b3L;
+		}
+		return h == 0 ? 1 : h;
+	}
+
+	private final String field;
+	private final TermFreqs cache;
+	private final TermFreqs rest;
+	private final TermFreqs global;
+	private final Analyzer analyzer = new StandardAnalyzer();
+
+	/**
+	 * @param globalReader
+	 *            the index of the whole table, which smooths the likelihoods of
+	 *            both cache and rest
+	 */
+	public CacheRouter(IndexReader cacheReader, IndexReader globalReader, IndexReader restReader, String field)
+			throws IOException {
+		this.field = field;
+		cache = new TermFreqs(cacheReader, field);
+		rest = new TermFreqs(restReader, field);
+		global = new TermFreqs(globalReader, field);
+	}
+
+	/**
+	 * @return true if the query likelihood of the cache is at least that of the
+	 *         rest
+	 */
+	public boolean useCache(String query) throws IOException {
+		double ql_cache = 1.0;
+		double ql_rest = 1.0;
+		try (TokenStream tokenStream = analyzer.tokenStream(field, new StringReader(query.replaceAll("'", "`")))) {
+			TermToBytesRefAttribute termAtt = tokenStream.addAttribute(TermToBytesRefAttribute.class);
+			tokenStream.reset();
+			while (tokenStream.incrementToken()) {
+				long term = hash(termAtt.getBytesRef());
+				double probabilityOfTermGivenDatabase = (double) global.get(term) / global.sum;
+				// the same operations as FeatureExtraction.queryLikelihood, so ties
+				// are decided the same way
+				double probabilityOfTermGivenCache = (double) cache.get(term) / cache.sum;
+				double probabilityOfTermGivenRest = (double) rest.get(term) / rest.sum;
+				ql_cache *= 0.9 * probabilityOfTermGivenCache + 0.1 * probabilityOfTermGivenDatabase;
+				ql_rest *= 0.9 * probabilityOfTermGivenRest + 0.1 * probabilityOfTermGivenDatabase;
+			}
+			tokenStream.end();
+		}
+		return ql_cache >= ql_rest;
+	}
+
+	public String getStats() {
+		return "cache router: " + cache.size() + " cache terms, " + rest.size() + " rest terms, " + global.size()
+				+ " global terms";
+	}
+
+}
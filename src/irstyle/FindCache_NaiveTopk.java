@@ -1,5 +1,6 @@
 package irstyle;
 
+import java.io.IOException;
 import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -9,9 +10,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Vector;
 
 import org.apache.commons.cli.CommandLine;
@@ -19,9 +22,13 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
@@ -29,7 +36,11 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.flexible.standard.parser.ParseException;
+import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.store.FSDirectory;
 
@@ -41,6 +52,7 @@ import irstyle.api.Indexer;
 import irstyle.api.Params;
 import irstyle.core.Relation;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
 import query.ExperimentQuery;
 import query.QueryServices;
 import stackoverflow.QuestionDAO;
@@ -54,6 +66,7 @@ public class FindCache_NaiveTopk {
 		Options options = new Options();
 		options.addOption(Option.builder("e").hasArg().desc("The experiment inexp/inexr/mrr").build());
 		options.addOption(Option.builder("d").desc("Output debug info").build());
+		options.addOption(Option.builder("a").desc("Search the tuple sets of all tables in every iteration").build());
 		CommandLineParser clp = new DefaultParser();
 		CommandLine cl = clp.parse(options, args);
 		List<ExperimentQuery> queries;
@@ -165,12 +178,32 @@ public class FindCache_NaiveTopk {
 					}
 					Document doc = new Document();
 					doc.add(new StoredField("id", id));
+					doc.add(new NumericDocValuesField("id", id));
 					doc.add(new TextField("text", text, Store.NO));
 					docs.add(doc);
 					lastPopularity[i] = rs.getInt(experiment.popularity);
 				}
 				docsList.add(docs);
 			}
+			// near real time readers of the writers, reopened after each page
+			StandardAnalyzer analyzer = new StandardAnalyzer();
+			DirectoryReader[] readers = new DirectoryReader[tableNames.length];
+			IndexSearcher[] searchers = new IndexSearcher[tableNames.length];
+			for (int i = 0; i < tableNames.length; i++) {
+				readers[i] = DirectoryReader.open(indexWriters[i]);
+				searchers[i] = newSearcher(readers[i]);
+			}
+			// the last tuple sets of each query by table, searched again only if the
+			// page added to the table has a term of the query. The reused ones keep
+			// the scores of the collection statistics they were searched with. The
+			// IR-style query is always run again, since the free tuple sets of the
+			// cache tables in its CNs grow with every page.
+			List<List<Term>> queryTerms = new ArrayList<List<Term>>();
+			for (ExperimentQuery query : queries)
+				queryTerms.add(getTerms(analyzer, query.getText()));
+			ScoredIds[][] lastIds = new ScoredIds[queries.size()][tableNames.length];
+			IRStyleQueryResult[] lastResults = new IRStyleQueryResult[queries.size()];
+			boolean searchAll = cl.hasOption('a');
 			while (true) {
 				System.out.println("Iteration " + loop++);
 				System.out.println("  current offsets: " + Arrays.toString(offset));
@@ -198,36 +231,40 @@ public class FindCache_NaiveTopk {
 				insertSt[m].executeBatch();
 				System.out.println("  updating cache index..");
 				indexWriters[m].addDocuments(docs);
-				indexWriters[m].flush();
-				indexWriters[m].commit();
+				List<LeafReader> newSegments = new ArrayList<LeafReader>();
+				DirectoryReader newReader = DirectoryReader.openIfChanged(readers[m], indexWriters[m]);
+				if (newReader != null) {
+					newSegments = getNewSegments(readers[m], newReader);
+					readers[m].close();
+					readers[m] = newReader;
+					searchers[m] = newSearcher(newReader);
+				}
 				// test partition!
 				System.out.println("  testing new cache..");
-				List<IRStyleQueryResult> queryResults = new ArrayList<IRStyleQueryResult>();
-				try (IndexReader articleReader = DirectoryReader.open(fsDir[0]);
-						IndexReader imageReader = DirectoryReader.open(fsDir[1]);
-						IndexReader linkReader = DirectoryReader.open(fsDir[2])) {
-					System.out.println("  index sizes: " + articleReader.numDocs() + "," + imageReader.numDocs() + ","
-							+ linkReader.numDocs());
-					for (ExperimentQuery query : queries) {
-						Schema sch = new Schema(schemaDescription);
-						List<String> articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader,
-								query.getText(), Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-						List<String> imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
-								Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-						List<String> linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
-								Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-						Map<String, List<String>> relnamesValues = new HashMap<String, List<String>>();
-						relnamesValues.put(articleTable, articleIds);
-						relnamesValues.put(imageTable, imageIds);
-						relnamesValues.put(linkTable, linkIds);
-						IRStyleQueryResult result = IRStyleKeywordSearch.executeIRStyleQuery(
-								experimentHelper.getJdbcAccess(), sch, relations, query, relnamesValues);
-						queryResults.add(result);
+				System.out.println("  index sizes: " + readers[0].numDocs() + "," + readers[1].numDocs() + ","
+						+ readers[2].numDocs());
+				int numSearched = 0;
+				for (int q = 0; q < queries.size(); q++) {
+					ExperimentQuery query = queries.get(q);
+					boolean hasNewTerms = containsAny(newSegments, queryTerms.get(q));
+					for (int i = 0; i < tableNames.length; i++) {
+						if (lastIds[q][i] != null && !searchAll && (i != m || !hasNewTerms))
+							continue;
+						lastIds[q][i] = IRStyleKeywordSearch.executeLuceneQuery(searchers[i], analyzer,
+								query.getText(), Indexer.TEXT_FIELD, Indexer.ID_FIELD, null);
+						numSearched++;
 					}
-					acc = effectiveness(queryResults, effectivenessMetric, null);
-					System.out.println("  new accuracy = " + acc);
-
+					Schema sch = new Schema(schemaDescription);
+					Map<String, ScoredIds> relnamesValues = new HashMap<String, ScoredIds>();
+					relnamesValues.put(articleTable, lastIds[q][0]);
+					relnamesValues.put(imageTable, lastIds[q][1]);
+					relnamesValues.put(linkTable, lastIds[q][2]);
+					lastResults[q] = IRStyleKeywordSearch.executeIRStyleQuery(experimentHelper.getJdbcAccess(), sch,
+							relations, query, relnamesValues);
 				}
+				System.out.println("  searched tuple sets: " + numSearched + "/" + queries.size() * tableNames.length);
+				acc = effectiveness(Arrays.asList(lastResults), effectivenessMetric, null);
+				System.out.println("  new accuracy = " + acc);
 				offset[m] += pageSize[m];
 				System.out.println("  current offsets: " + Arrays.toString(offset));
 				if (acc > bestAcc) {
@@ -256,6 +293,7 @@ public class FindCache_NaiveTopk {
 					}
 					Document doc = new Document();
 					doc.add(new StoredField("id", id));
+					doc.add(new NumericDocValuesField("id", id));
 					doc.add(new TextField("text", text, Store.NO));
 					docs.add(doc);
 					lastPopularity[m] = rs.getInt(experiment.popularity);
@@ -270,13 +308,55 @@ public class FindCache_NaiveTopk {
 			}
 			System.out.println("Best found sizes = " + Arrays.toString(percent));
 			for (int i = 0; i < tableNames.length; i++) {
+				readers[i].close();
 				indexWriters[i].close();
 				selectSt[i].close();
 				insertSt[i].close();
 			}
+			analyzer.close();
 		}
 	}
 
+	private static IndexSearcher newSearcher(IndexReader reader) {
+		IndexSearcher searcher = new IndexSearcher(reader);
+		searcher.setSimilarity(new BM25Similarity());
+		return searcher;
+	}
+
+	// the terms of the text field a query text is analyzed to
+	static List<Term> getTerms(Analyzer analyzer, String queryText) throws IOException {
+		List<Term> terms = new ArrayList<Term>();
+		try (TokenStream tokenStream = analyzer.tokenStream(Indexer.TEXT_FIELD, queryText)) {
+			CharTermAttribute termAtt = tokenStream.addAttribute(CharTermAttribute.class);
+			tokenStream.reset();
+			while (tokenStream.incrementToken())
+				terms.add(new Term(Indexer.TEXT_FIELD, termAtt.toString()));
+			tokenStream.end();
+		}
+		return terms;
+	}
+
+	// the segments of newReader that are not in oldReader, including those merged
+	// from old segments
+	static List<LeafReader> getNewSegments(IndexReader oldReader, IndexReader newReader) {
+		Set<Object> oldSegments = new HashSet<Object>();
+		for (LeafReaderContext leaf : oldReader.leaves())
+			oldSegments.add(leaf.reader().getCoreCacheKey());
+		List<LeafReader> newSegments = new ArrayList<LeafReader>();
+		for (LeafReaderContext leaf : newReader.leaves())
+			if (!oldSegments.contains(leaf.reader().getCoreCacheKey()))
+				newSegments.add(leaf.reader());
+		return newSegments;
+	}
+
+	static boolean containsAny(List<LeafReader> segments, List<Term> terms) throws IOException {
+		for (LeafReader segment : segments)
+			for (Term term : terms)
+				if (segment.docFreq(term) > 0)
+					return true;
+		return false;
+	}
+
 	public static double effectiveness(List<IRStyleQueryResult> queryResults, int mode,
 			Map<ExperimentQuery, Integer> queryRelCountMap) {
 		double acc = 0;
@@ -12,6 +12,8 @@ public class IRStyleQueryResult {
 	ExperimentQuery query;
 	public long execTime = 0;
 	public long tuplesetTime = 0;
+	// the stage the query was in when its deadline expired, null if it completed
+	public String expiredStage = null;
 	List<String> resultIDs = new ArrayList<String>();
 
 	public IRStyleQueryResult(ExperimentQuery query, long execTime) {
@@ -23,6 +25,11 @@ public class IRStyleQueryResult {
 		return query;
 	}
 
+	// false if the results are the partial top-N found before the deadline
+	public boolean isComplete() {
+		return expiredStage == null;
+	}
+
 	public void addIRStyleResults(ArrayList<Result> results) {
 		for (Result result : results) {
 			String resultText = result.getStr();
@@ -0,0 +1,129 @@
+package irstyle;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import irstyle.api.Params;
+import irstyle.core.TupleCachePolicy;
+import query.ExperimentQuery;
+
+/**
+ * Results of complete keyword searches, so repeats of a query are answered
+ * from memory. A result is keyed by the keywords of its query, lowercased and
+ * sorted, by the tables it was computed on and by the parameters that change
+ * results, see getResultParameters. Parameters that only change how fast a
+ * result is computed, e.g. the number of threads, are not part of the key, so
+ * results are shared across them. Which keys
+ * are kept is decided by a TupleCachePolicy on the hashes of the keys, so a
+ * query is only cached if it is repeated more often than the one it replaces.
+ * Thread safe.
+ */
+public class QueryResultCache {
+
+	private static class Entry {
+		final String key;
+		final String[] tableNames;
+		final IRStyleQueryResult result;
+
+		Entry(String key, String[] tableNames, IRStyleQueryResult result) {
+			this.key = key;
+			this.tableNames = tableNames;
+			this.result = result;
+		}
+	}
+
+	private final TupleCachePolicy policy;
+	private final Map<Integer, Entry> entries = new HashMap<Integer, Entry>();
+	private long hits = 0;
+	private long misses = 0;
+	private long invalidations = 0;
+
+	public QueryResultCache(int capacity) {
+		policy = new TupleCachePolicy(capacity);
+	}
+
+	/**
+	 * @return the keywords of queryText, lowercased and sorted. Repeated keywords
+	 *         are kept since they weigh more in retrieval.
+	 */
+	public static String normalize(String queryText) {
+		String[] keywords = queryText.trim().toLowerCase().split("\\s+");
+		Arrays.sort(keywords);
+		return String.join(" ", keywords);
+	}
+
+	/**
+	 * @return the current parameters that change the results of a query: the
+	 *         number of results, the tuple set sizes and thresholding, the CN size
+	 *         and whether results must have all keywords
+	 */
+	public static String getResultParameters() {
+		return "N=" + Params.N + " MAX_TS_SIZE=" + Params.MAX_TS_SIZE + " tupleSetSizes="
+				+ Arrays.toString(Params.tupleSetSizes) + " maxCNsize=" + Params.maxCNsize + " useScoreThresholding="
+				+ Params.useScoreThresholding + " allKeywInResults=" + Params.allKeywInResults;
+	}
+
+	// the key of queryText on tableNames with the current parameters
+	static String getKey(String queryText, String[] tableNames) {
+		return String.join(" ", tableNames) + "\n" + getResultParameters() + "\n" + normalize(queryText);
+	}
+
+	/**
+	 * @return the cached result of the query on tableNames as a result of query,
+	 *         or null
+	 */
+	public synchronized IRStyleQueryResult get(ExperimentQuery query, String[] tableNames) {
+		String key = getKey(query.getText(), tableNames);
+		int hash = key.hashCode();
+		policy.access(hash);
+		policy.drainAdmitted();
+		for (int evicted : policy.drainEvicted())
+			entries.remove(evicted);
+		Entry entry = entries.get(hash);
+		if (entry == null || !entry.key.equals(key)) {
+			misses++;
+			return null;
+		}
+		hits++;
+		IRStyleQueryResult result = new IRStyleQueryResult(query, 0);
+		result.resultIDs.addAll(entry.result.resultIDs);
+		return result;
+	}
+
+	/**
+	 * Caches result if it is complete and its query was admitted by its last get.
+	 */
+	public synchronized void put(IRStyleQueryResult result, String[] tableNames) {
+		if (!result.isComplete())
+			return;
+		String key = getKey(result.getQuery().getText(), tableNames);
+		int hash = key.hashCode();
+		if (policy.contains(hash))
+			entries.put(hash, new Entry(key, tableNames.clone(), result));
+	}
+
+	/**
+	 * Drops the results computed on tableName, e.g. once its cache table is
+	 * rebuilt or updated.
+	 */
+	public synchronized void invalidate(String tableName) {
+		entries.values().removeIf(entry -> Arrays.asList(entry.tableNames).contains(tableName));
+		invalidations++;
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+		invalidations++;
+	}
+
+	public synchronized double getHitRate() {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+
+	public synchronized String getStats() {
+		return "result cache: " + hits + " hits, " + misses + " misses, hit rate = " + getHitRate() + ", "
+				+ entries.size() + " results, " + invalidations + " invalidations";
+	}
+
+}
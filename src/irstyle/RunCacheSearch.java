@@ -8,7 +8,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -20,14 +26,21 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.queryparser.flexible.standard.parser.ParseException;
 import org.apache.lucene.store.FSDirectory;
 
+import database.DatabaseConnection;
 import irstyle.api.IRStyleExperimentHelper;
 import irstyle.api.IRStyleExperiment;
 import irstyle.api.IRStyleKeywordSearch;
 import irstyle.api.Indexer;
 import irstyle.api.Params;
+import irstyle.api.SearcherRegistry;
 import irstyle.core.ExecPrepared;
+import irstyle.core.InMemoryJoinEngine;
+import irstyle.core.JDBCaccess;
+import irstyle.core.JDBCaccessPool;
+import irstyle.core.QueryDeadline;
 import irstyle.core.Relation;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
 import query.ExperimentQuery;
 import query.QueryServices;
 import stackoverflow.QuestionDAO;
@@ -41,10 +54,23 @@ public class RunCacheSearch {
 		options.addOption(Option.builder("c").desc("Use cache").build());
 		options.addOption(Option.builder("f").desc("Efficiency experiment").hasArg().build());
 		options.addOption(Option.builder("k").desc("The k in tok-k").hasArg().build());
-		options.addOption(Option.builder("t").desc("TS size threshold").hasArg().build());
+		options.addOption(Option.builder("t").desc("TS size threshold, or one per table separated by commas").hasArg()
+				.build());
 		options.addOption(Option.builder("s").desc("Score thresholding").build());
 		options.addOption(Option.builder("d").desc("Output debug info").build());
 		options.addOption(Option.builder("o").desc("write result to file").build());
+		options.addOption(Option.builder("b").desc("Verify this many tuple id combinations per probe").hasArg().build());
+		options.addOption(Option.builder("m").desc("Verify joins in memory").build());
+		options.addOption(Option.builder("w").desc("Number of worker threads").hasArg().build());
+		options.addOption(Option.builder("p").desc("Tuple set page size").hasArg().build());
+		options.addOption(Option.builder("r").desc("Prefetch tuple set pages").build());
+		options.addOption(Option.builder("q").desc("Number of concurrent queries").hasArg().build());
+		options.addOption(Option.builder("l").desc("Time budget of a query (ms), none by default").hasArg().build());
+		options.addOption(Option.builder("j").desc("Join index dir of BuildJoinIndex").hasArg().build());
+		options.addOption(Option.builder("a")
+				.desc("Adapt the cache to the results of the queries on the full tables, updating it every n queries")
+				.hasArg().build());
+		options.addOption(Option.builder("n").desc("Number of query results to cache").hasArg().build());
 		CommandLineParser clp = new DefaultParser();
 		CommandLine cl = clp.parse(options, args);
 		String cacheNameSuffix;
@@ -110,13 +136,35 @@ public class RunCacheSearch {
 			Params.DEBUG = true;
 		}
 		outputFileName += ".csv";
-		Params.MAX_TS_SIZE = Integer.parseInt(cl.getOptionValue("t", Integer.toString(Params.MAX_TS_SIZE)));
+		String[] tupleSetSizes = cl.getOptionValue("t", Integer.toString(Params.MAX_TS_SIZE)).split(",");
+		Params.MAX_TS_SIZE = Integer.parseInt(tupleSetSizes[0]);
+		if (tupleSetSizes.length > 1)
+			Params.tupleSetSizes = Arrays.stream(tupleSetSizes).mapToInt(Integer::parseInt).toArray();
 		Params.N = Integer.parseInt(cl.getOptionValue("k", Integer.toString(Params.N)));
 		Params.useScoreThresholding = cl.hasOption("s");
+		Params.probeBatchSize = Integer.parseInt(cl.getOptionValue("b", Integer.toString(Params.probeBatchSize)));
+		Params.useInMemoryJoins = cl.hasOption("m");
+		// the in-memory relations of the cache tables are loaded once, and would
+		// not see the updates of the cache
+		if (Params.useInMemoryJoins && cl.hasOption('c') && cl.hasOption('a'))
+			throw new IllegalArgumentException("-m cannot be used with -c and -a");
+		Params.numThreads = Integer.parseInt(cl.getOptionValue("w", Integer.toString(Params.numThreads)));
+		Params.tupleSetPageSize = Integer.parseInt(cl.getOptionValue("p", Integer.toString(Params.tupleSetPageSize)));
+		Params.prefetchTupleSets = cl.hasOption("r");
+		Params.numConcurrentQueries = Integer
+				.parseInt(cl.getOptionValue("q", Integer.toString(Params.numConcurrentQueries)));
+		Params.queryTimeBudget = Integer.parseInt(cl.getOptionValue("l", Integer.toString(Params.queryTimeBudget)));
 		System.out.println("setting: \n" + Params.getDescriptor());
 		System.out.println("output file: " + outputFileName);
 		System.out.println("queries size: " + queries.size());
 		IRStyleKeywordSearch.dropAllTuplesets(experimentHelper.getJdbcAccess());
+		InMemoryJoinEngine engine = null;
+		if (Params.useInMemoryJoins) {
+			engine = InMemoryJoinEngine.load(experimentHelper.getJdbcAccess(),
+					experimentHelper.createRelations(tableNames[0], tableNames[1], tableNames[2],
+							relationTableNames[0], relationTableNames[1]),
+					cl.hasOption('j') ? Paths.get(cl.getOptionValue('j')) : null);
+		}
 		List<IRStyleQueryResult> queryResults = new ArrayList<IRStyleQueryResult>();
 		try (IndexReader articleReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath[0])));
 				IndexReader imageReader = DirectoryReader.open(FSDirectory.open(Paths.get(indexPath[1])));
@@ -133,74 +181,118 @@ public class RunCacheSearch {
 			double mrr = 0;
 			double nonzeroRrank = 0;
 			double nonzeroP20 = 0;
-			for (int exec = 0; exec < Params.numExecutions; exec++) {
-				int loop = 1;
-				for (ExperimentQuery query : queries) {
-					System.out.println("processing query " + loop++ + "/" + queries.size() + ": " + query.getText());
-					Vector<String> allkeyw = new Vector<String>();
-					// escaping single quotes
-					allkeyw.addAll(Arrays.asList(query.getText().replace("'", "\\'").split(" ")));
-					String schemaDescription = "5 " + tableNames[0] + " " + relationTableNames[0] + " " + tableNames[1]
-							+ " " + relationTableNames[1] + " " + tableNames[2] + " " + tableNames[0] + " "
-							+ relationTableNames[0] + " " + relationTableNames[0] + " " + tableNames[1] + " "
-							+ tableNames[0] + " " + relationTableNames[1] + " " + relationTableNames[1] + " "
-							+ tableNames[2];
-					Schema sch = new Schema(schemaDescription);
-					if (Params.DEBUG) {
-						System.out.println(" Using tables: " + tableNames[0] + " " + relationTableNames[0] + " "
-								+ tableNames[1] + " " + relationTableNames[1] + " " + tableNames[2]);
-						System.out.println(" Using indices: " + indexPath[0] + " " + indexPath[1] + " " + indexPath[2]);
+			Map<String, Integer> incompleteByStage = new TreeMap<String, Integer>();
+			IndexReader[] readers = { articleReader, imageReader, linkReader };
+			SearcherRegistry searchers = new SearcherRegistry(readers, Params.numConcurrentQueries);
+			// with more than one concurrent query, the queries run on queryPool, each
+			// with a connection and tuple sets of its own
+			String[] tables = tableNames;
+			String[] relationTables = relationTableNames;
+			List<ExperimentQuery> queryList = queries;
+			InMemoryJoinEngine joinEngine = engine;
+			ExecutorService queryPool = Params.numConcurrentQueries > 1
+					? Executors.newFixedThreadPool(Params.numConcurrentQueries)
+					: null;
+			JDBCaccessPool connections = Params.numConcurrentQueries > 1
+					? IRStyleKeywordSearch.connectionPool(experimentHelper.getJdbcAccess().getDatabaseName())
+					: null;
+			int updateInterval = Integer.parseInt(cl.getOptionValue('a', "0"));
+			DatabaseConnection cacheConnection = null;
+			TupleCacheManager cacheManager = null;
+			// with -c, each query also runs on the full tables, whose results are
+			// recorded, since its results on the cache tables are all cached
+			String[] fullIndexPath = new String[experiment.tableNames.length];
+			IndexReader[] fullReaders = new IndexReader[experiment.tableNames.length];
+			SearcherRegistry fullTableSearchers = null;
+			if (updateInterval > 0) {
+				cacheConnection = new DatabaseConnection(experiment.databaseType);
+				cacheManager = new TupleCacheManager(cacheConnection, experiment);
+				if (cl.hasOption('c')) {
+					for (int i = 0; i < fullReaders.length; i++) {
+						fullIndexPath[i] = experiment.dataDir + experiment.tableNames[i] + "_full";
+						fullReaders[i] = DirectoryReader.open(FSDirectory.open(Paths.get(fullIndexPath[i])));
 					}
-					Vector<Relation> relations;
-					relations = experimentHelper.createRelations(tableNames[0], tableNames[1], tableNames[2],
-							relationTableNames[0], relationTableNames[1]);
-					long start = System.currentTimeMillis();
-					List<String> articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader, query.getText(),
-							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
-							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
-							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					luceneTime += (System.currentTimeMillis() - start);
-					if (Params.DEBUG) {
-						List<Integer> sizeList = new ArrayList<Integer>();
-						sizeList.add(10);
-						sizeList.add(articleIds.size());
-						sizeList.add(linkIds.size());
-						sizeList.add(imageIds.size());
-						for (int i = 0; i < Collections.min(sizeList); i++) {
-							System.out
-									.println("\t" + articleIds.get(i) + "\t" + imageIds.get(i) + "\t" + linkIds.get(i));
+					fullTableSearchers = new SearcherRegistry(fullReaders, Params.numConcurrentQueries);
+				}
+			}
+			TupleCacheManager tupleCache = cacheManager;
+			SearcherRegistry fullSearchers = fullTableSearchers;
+			QueryResultCache resultCache = cl.hasOption('n')
+					? new QueryResultCache(Integer.parseInt(cl.getOptionValue('n')))
+					: null;
+			if (tupleCache != null && resultCache != null)
+				tupleCache.addInvalidationListener(resultCache::invalidate);
+			try {
+				// with a tuple cache the queries run in waves of updateInterval, and the
+				// cache is updated between two waves, when no query reads its tables
+				int waveSize = tupleCache != null ? updateInterval : Math.max(queryList.size(), 1);
+				for (int exec = 0; exec < Params.numExecutions; exec++) {
+					int loop = 1;
+					for (int from = 0; from < queryList.size(); from += waveSize) {
+						List<Future<QueryRun>> runs = new ArrayList<Future<QueryRun>>();
+						for (ExperimentQuery query : queryList.subList(from,
+								Math.min(from + waveSize, queryList.size()))) {
+							int queryNumber = loop++;
+							Callable<QueryRun> run = () -> {
+								System.out.println("processing query " + queryNumber + "/" + queryList.size() + ": "
+										+ query.getText());
+								if (connections == null)
+									return runAndRecord(query, experimentHelper.getJdbcAccess(), experiment,
+											experimentHelper, tables, relationTables, indexPath, searchers, joinEngine,
+											tupleCache, fullIndexPath, fullSearchers, resultCache);
+								try (JDBCaccessPool.Lease lease = connections.lease()) {
+									return runAndRecord(query, lease.get(), experiment, experimentHelper, tables,
+											relationTables, indexPath, searchers, joinEngine, tupleCache,
+											fullIndexPath, fullSearchers, resultCache);
+								}
+							};
+							if (queryPool == null) {
+								FutureTask<QueryRun> task = new FutureTask<QueryRun>(run);
+								task.run();
+								runs.add(task);
+							} else
+								runs.add(queryPool.submit(run));
+						}
+						for (Future<QueryRun> run : runs) {
+							IRStyleQueryResult result = run.get().result;
+							luceneTime += run.get().luceneTime;
+							tuplesetTime += result.tuplesetTime;
+							time += luceneTime + result.execTime;
+							recall += result.recall();
+							count += result.getQuery().getFreq();
+							p20 += result.p20();
+							mrr += result.rrank();
+							weightedMrr += result.rrank() * result.getQuery().getFreq();
+							queryResults.add(result);
+							if (result.rrank() > 0) {
+								nonzeroRrank++;
+							}
+							if (result.p20() > 0) {
+								nonzeroP20++;
+							}
+							if (!result.isComplete())
+								incompleteByStage.merge(result.expiredStage, 1, Integer::sum);
+						}
+						// all queries of the wave are done
+						if (tupleCache != null) {
+							tupleCache.apply();
+							searchers.reopen();
 						}
-						System.out.printf(" |TS_0| = %d |TS_1| = %d |TS_2| = %d", articleIds.size(), imageIds.size(),
-								linkIds.size());
-					}
-					Map<String, List<String>> relnamesValues = new HashMap<String, List<String>>();
-					relnamesValues.put(tableNames[0], articleIds);
-					relnamesValues.put(tableNames[1], imageIds);
-					relnamesValues.put(tableNames[2], linkIds);
-					IRStyleQueryResult result = IRStyleKeywordSearch.executeIRStyleQuery(
-							experimentHelper.getJdbcAccess(), sch, relations, query, relnamesValues);
-					if (Params.DEBUG) {
-						System.out.println(" table scan percentage = " + (double) ExecPrepared.lastGenQueries
-								/ (articleIds.size() * imageIds.size() * linkIds.size()) + "%");
-					}
-					result.dedup();
-					tuplesetTime += result.tuplesetTime;
-					time += luceneTime + result.execTime;
-					recall += result.recall();
-					count += query.getFreq();
-					p20 += result.p20();
-					mrr += result.rrank();
-					weightedMrr += result.rrank() * query.getFreq();
-					queryResults.add(result);
-					if (result.rrank() > 0) {
-						nonzeroRrank++;
-					}
-					if (result.p20() > 0) {
-						nonzeroP20++;
 					}
 				}
+			} finally {
+				if (queryPool != null)
+					queryPool.shutdown();
+				searchers.close();
+				if (fullTableSearchers != null)
+					fullTableSearchers.close();
+				for (IndexReader reader : fullReaders)
+					if (reader != null)
+						reader.close();
+				if (cacheManager != null)
+					cacheManager.close();
+				if (cacheConnection != null)
+					cacheConnection.close();
 			}
 			selectionTime /= (queries.size() * Params.numExecutions);
 			luceneTime /= (queries.size() * Params.numExecutions);
@@ -222,10 +314,119 @@ public class RunCacheSearch {
 			System.out.println("weighted mrr = " + weightedMrr / count);
 			System.out.println("nonzero rrank = " + nonzeroRrank / queries.size());
 			System.out.println("nonzero p20 = " + nonzeroP20 / queries.size());
+			System.out.println("incomplete queries by stage = " + incompleteByStage);
+			if (resultCache != null)
+				System.out.println(resultCache.getStats());
 			if (cl.hasOption('o')) {
 				IRStyleKeywordSearch.printResults(queryResults, outputFileName);
 			}
 		}
 	}
 
+	// the result of a query and the time to retrieve its tuple sets with Lucene
+	private static class QueryRun {
+		IRStyleQueryResult result;
+		long luceneTime;
+	}
+
+	// runs query on tableNames. With a tupleCache, the results of the query on
+	// the full tables are recorded, from a second run on them if fullSearchers
+	// is not null, i.e. if tableNames are the cache tables.
+	private static QueryRun runAndRecord(ExperimentQuery query, JDBCaccess jdbcacc, IRStyleExperiment experiment,
+			IRStyleExperimentHelper experimentHelper, String[] tableNames, String[] relationTableNames,
+			String[] indexPath, SearcherRegistry searchers, InMemoryJoinEngine engine, TupleCacheManager tupleCache,
+			String[] fullIndexPath, SearcherRegistry fullSearchers, QueryResultCache resultCache) throws Exception {
+		if (tupleCache == null || fullSearchers == null)
+			return runQuery(query, jdbcacc, experimentHelper, tableNames, relationTableNames, indexPath, searchers,
+					engine, tupleCache, resultCache);
+		runQuery(query, jdbcacc, experimentHelper, experiment.tableNames, experiment.relationTableNames,
+				fullIndexPath, fullSearchers, null, tupleCache, null);
+		return runQuery(query, jdbcacc, experimentHelper, tableNames, relationTableNames, indexPath, searchers,
+				engine, null, resultCache);
+	}
+
+	// runs query on tableNames, recording its results in tupleCache if it is not
+	// null
+	private static QueryRun runQuery(ExperimentQuery query, JDBCaccess jdbcacc,
+			IRStyleExperimentHelper experimentHelper, String[] tableNames, String[] relationTableNames,
+			String[] indexPath, SearcherRegistry searchers, InMemoryJoinEngine engine, TupleCacheManager tupleCache,
+			QueryResultCache resultCache) throws Exception {
+		QueryRun run = new QueryRun();
+		// a query whose results are recorded is always run, so that repeated queries
+		// count as accesses
+		if (resultCache != null && tupleCache == null) {
+			long start = System.currentTimeMillis();
+			run.result = resultCache.get(query, tableNames);
+			if (run.result != null) {
+				run.result.execTime = System.currentTimeMillis() - start;
+				return run;
+			}
+		}
+		Vector<String> allkeyw = new Vector<String>();
+		// escaping single quotes
+		allkeyw.addAll(Arrays.asList(query.getText().replace("'", "\\'").split(" ")));
+		String schemaDescription = "5 " + tableNames[0] + " " + relationTableNames[0] + " " + tableNames[1] + " "
+				+ relationTableNames[1] + " " + tableNames[2] + " " + tableNames[0] + " " + relationTableNames[0] + " "
+				+ relationTableNames[0] + " " + tableNames[1] + " " + tableNames[0] + " " + relationTableNames[1] + " "
+				+ relationTableNames[1] + " " + tableNames[2];
+		Schema sch = new Schema(schemaDescription);
+		if (Params.DEBUG) {
+			System.out.println(" Using tables: " + tableNames[0] + " " + relationTableNames[0] + " " + tableNames[1]
+					+ " " + relationTableNames[1] + " " + tableNames[2]);
+			System.out.println(" Using indices: " + indexPath[0] + " " + indexPath[1] + " " + indexPath[2]);
+		}
+		Vector<Relation> relations = experimentHelper.createRelations(tableNames[0], tableNames[1], tableNames[2],
+				relationTableNames[0], relationTableNames[1]);
+		// the budget covers the Lucene retrieval, so a query cannot spend it all there
+		QueryDeadline deadline = Params.queryTimeBudget > 0 ? new QueryDeadline(Params.queryTimeBudget) : null;
+		try {
+			if (deadline != null)
+				deadline.enter("lucene");
+			long start = System.currentTimeMillis();
+			// article, image and link tuple sets at once
+			ScoredIds[] ids = searchers.search(query.getText(), Indexer.TEXT_FIELD, Indexer.ID_FIELD, deadline);
+			run.luceneTime = System.currentTimeMillis() - start;
+			run.result = executeIRStyleQuery(query, jdbcacc, tableNames, sch, relations, engine, ids[0], ids[1], ids[2],
+					deadline);
+			if (tupleCache != null)
+				tupleCache.record(ids, run.result);
+		} finally {
+			if (deadline != null)
+				deadline.close();
+		}
+		if (resultCache != null)
+			resultCache.put(run.result, tableNames);
+		return run;
+	}
+
+	private static IRStyleQueryResult executeIRStyleQuery(ExperimentQuery query, JDBCaccess jdbcacc,
+			String[] tableNames, Schema sch, Vector<Relation> relations, InMemoryJoinEngine engine,
+			ScoredIds articleIds, ScoredIds imageIds, ScoredIds linkIds, QueryDeadline deadline) throws Exception {
+		if (Params.DEBUG) {
+			List<Integer> sizeList = new ArrayList<Integer>();
+			sizeList.add(10);
+			sizeList.add(articleIds.size());
+			sizeList.add(linkIds.size());
+			sizeList.add(imageIds.size());
+			for (int i = 0; i < Collections.min(sizeList); i++) {
+				System.out.println(
+						"\t" + articleIds.getTuple(i) + "\t" + imageIds.getTuple(i) + "\t" + linkIds.getTuple(i));
+			}
+			System.out.printf(" |TS_0| = %d |TS_1| = %d |TS_2| = %d", articleIds.size(), imageIds.size(),
+					linkIds.size());
+		}
+		Map<String, ScoredIds> relnamesValues = new HashMap<String, ScoredIds>();
+		relnamesValues.put(tableNames[0], articleIds);
+		relnamesValues.put(tableNames[1], imageIds);
+		relnamesValues.put(tableNames[2], linkIds);
+		IRStyleQueryResult result = IRStyleKeywordSearch.executeIRStyleQuery(jdbcacc, sch, relations, query,
+				relnamesValues, engine, deadline);
+		if (Params.DEBUG) {
+			System.out.println(" table scan percentage = " + (double) ExecPrepared.lastGenQueries
+					/ (articleIds.size() * imageIds.size() * linkIds.size()) + "%");
+		}
+		result.dedup();
+		return result;
+	}
+
 }
@@ -0,0 +1,196 @@
+package irstyle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+
+import database.DatabaseConnection;
+import irstyle.api.IRStyleExperiment;
+import irstyle.api.Indexer;
+import irstyle.core.ScoredIds;
+import irstyle.core.TupleCachePolicy;
+
+/**
+ * Keeps the cache tables and cache indexes of BuildCache up to date with the
+ * tuples that queries return, instead of rebuilding them from popularity. The
+ * accesses are the top-N results of queries on the full tables, since results
+ * on the cache tables can only contain cached tuples. The tuples of each table
+ * are admitted and evicted by a TupleCachePolicy with the size of the cache
+ * table as capacity, and its decisions are applied to the cache table and index
+ * in batches by apply. Documents are deleted by their id term, so the cache
+ * indexes must be built by an Indexer that indexes the id as a term. The
+ * relation caches are not changed. Thread safe.
+ */
+public class TupleCacheManager implements Closeable {
+
+	// ids per IN list or deletion
+	private static final int BATCH_SIZE = 1000;
+
+	private final DatabaseConnection dc;
+	private final IRStyleExperiment experiment;
+	private final TupleCachePolicy[] policies;
+	private final IndexWriter[] writers;
+	private final List<Consumer<String>> listeners = new ArrayList<Consumer<String>>();
+
+	public TupleCacheManager(DatabaseConnection dc, IRStyleExperiment experiment) throws SQLException, IOException {
+		this.dc = dc;
+		this.experiment = experiment;
+		int numTables = experiment.tableNames.length;
+		policies = new TupleCachePolicy[numTables];
+		writers = new IndexWriter[numTables];
+		try {
+			for (int i = 0; i < numTables; i++) {
+				policies[i] = loadPolicy(experiment.cacheNames[i]);
+				IndexWriterConfig config = Indexer.getIndexWriterConfig();
+				config.setOpenMode(OpenMode.APPEND);
+				writers[i] = new IndexWriter(FSDirectory.open(Paths.get(experiment.dataDir + experiment.cacheNames[i])),
+						config);
+				checkIdTerms(writers[i], experiment.cacheNames[i]);
+			}
+		} catch (IOException | SQLException e) {
+			close();
+			throw e;
+		}
+	}
+
+	// a policy holding the tuples of the cache table
+	private TupleCachePolicy loadPolicy(String cacheName) throws SQLException {
+		try (Statement stmt = dc.getConnection().createStatement()) {
+			ResultSet rs = stmt.executeQuery("SELECT count(*) FROM " + cacheName + ";");
+			rs.next();
+			TupleCachePolicy policy = new TupleCachePolicy(rs.getInt(1));
+			rs = stmt.executeQuery("SELECT id FROM " + cacheName + ";");
+			while (rs.next())
+				policy.preload(rs.getInt(1));
+			return policy;
+		}
+	}
+
+	/**
+	 * Adds a listener that apply calls with the name of each cache table it
+	 * changed, e.g. to invalidate results computed on it.
+	 */
+	public synchronized void addInvalidationListener(Consumer<String> listener) {
+		listeners.add(listener);
+	}
+
+	// fails if the documents of a non-empty index cannot be deleted by id term
+	private static void checkIdTerms(IndexWriter writer, String cacheName) throws IOException {
+		try (DirectoryReader reader = DirectoryReader.open(writer)) {
+			if (reader.numDocs() > 0 && MultiFields.getTerms(reader, Indexer.ID_FIELD) == null)
+				throw new IOException("the index of " + cacheName + " has no id terms, rebuild it with BuildCache");
+		}
+	}
+
+	/**
+	 * Records the accesses of a query run on the full tables to its top-N result
+	 * tuples. A result is a tuple of the i-th table of the experiment if it is in
+	 * the i-th tuple set of the query.
+	 */
+	public synchronized void record(ScoredIds[] tupleSets, IRStyleQueryResult result) {
+		for (String resultId : result.resultIDs) {
+			int id;
+			try {
+				id = Integer.parseInt(resultId.trim());
+			} catch (NumberFormatException e) {
+				continue;
+			}
+			for (int i = 0; i < tupleSets.length; i++)
+				if (contains(tupleSets[i], id))
+					policies[i].access(id);
+		}
+	}
+
+	private static boolean contains(ScoredIds tupleSet, int id) {
+		for (int j = 0; j < tupleSet.size(); j++)
+			if (tupleSet.getId(j) == id)
+				return true;
+		return false;
+	}
+
+	/**
+	 * Applies the admissions and evictions since the last call to the cache
+	 * tables and indexes. Searchers see the changes once they reopen their
+	 * readers, see SearcherRegistry.reopen.
+	 */
+	public synchronized void apply() throws SQLException, IOException {
+		for (int i = 0; i < policies.length; i++) {
+			int[] evicted = policies[i].drainEvicted();
+			int[] admitted = policies[i].drainAdmitted();
+			if (evicted.length == 0 && admitted.length == 0)
+				continue;
+			long start = System.currentTimeMillis();
+			String tableName = experiment.tableNames[i];
+			String cacheName = experiment.cacheNames[i];
+			try (Statement stmt = dc.getConnection().createStatement()) {
+				for (int from = 0; from < evicted.length; from += BATCH_SIZE)
+					stmt.executeUpdate("DELETE FROM " + cacheName + " WHERE id IN " + inList(evicted, from) + ";");
+				for (int from = 0; from < admitted.length; from += BATCH_SIZE)
+					stmt.executeUpdate("INSERT INTO " + cacheName + " SELECT * FROM " + tableName + " WHERE id IN "
+							+ inList(admitted, from) + ";");
+			}
+			deleteDocuments(writers[i], evicted);
+			String attribs = "id," + String.join(",", experiment.textAttribs[i]) + "," + experiment.popularity;
+			try (Statement stmt = dc.getConnection().createStatement()) {
+				for (int from = 0; from < admitted.length; from += BATCH_SIZE) {
+					ResultSet rs = stmt.executeQuery("SELECT " + attribs + " FROM " + tableName + " WHERE id IN "
+							+ inList(admitted, from) + ";");
+					while (rs.next())
+						Indexer.indexRS("id", experiment.textAttribs[i], writers[i], rs, experiment.popularity);
+				}
+			}
+			writers[i].commit();
+			for (Consumer<String> listener : listeners)
+				listener.accept(cacheName);
+			System.out.println("cache " + cacheName + ": admitted " + admitted.length + " evicted " + evicted.length
+					+ " in " + (System.currentTimeMillis() - start) + " (ms)");
+		}
+	}
+
+	// the ids from position from as a parenthesized list of at most BATCH_SIZE ids
+	private static String inList(int[] ids, int from) {
+		return Arrays.stream(ids, from, Math.min(from + BATCH_SIZE, ids.length)).mapToObj(Integer::toString)
+				.collect(Collectors.joining(",", "(", ")"));
+	}
+
+	private static void deleteDocuments(IndexWriter writer, int[] ids) throws IOException {
+		for (int from = 0; from < ids.length; from += BATCH_SIZE) {
+			Term[] terms = new Term[Math.min(BATCH_SIZE, ids.length - from)];
+			for (int j = 0; j < terms.length; j++)
+				terms[j] = new Term(Indexer.ID_FIELD, Integer.toString(ids[from + j]));
+			writer.deleteDocuments(terms);
+		}
+	}
+
+	public synchronized void close() throws IOException {
+		IOException exception = null;
+		for (IndexWriter writer : writers) {
+			if (writer == null)
+				continue;
+			try {
+				writer.close();
+			} catch (IOException e) {
+				exception = e;
+			}
+		}
+		if (exception != null)
+			throw exception;
+	}
+
+}
@@ -9,31 +9,43 @@ import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
 
+import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TimeLimitingCollector;
 import org.apache.lucene.search.similarities.BM25Similarity;
 
 import irstyle.IRStyleQueryResult;
+import irstyle.core.CNPlanCache;
 import irstyle.core.ExecPrepared;
 import irstyle.core.Flags;
+import irstyle.core.InMemoryCN;
+import irstyle.core.InMemoryJoinEngine;
 import irstyle.core.InitialMain;
 import irstyle.core.Instance;
 import irstyle.core.JDBCaccess;
+import irstyle.core.JDBCaccessPool;
 import irstyle.core.MIndexAccess;
+import irstyle.core.QueryDeadline;
 import irstyle.core.Relation;
 import irstyle.core.Result;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
+import irstyle.core.SubJoinMemo;
 import query.ExperimentQuery;
 import wiki13.WikiRelationalEfficiencyExperiment;
 
@@ -58,12 +70,18 @@ public class IRStyleKeywordSearch {
 				}
 				System.out.println("");
 			}
-			String sql = ((Instance) CNs.elementAt(i)).getSQLstatementParameterized(relations, allkeyw, nfreeTSs2);
+			String sql = ((Instance) CNs.elementAt(i)).getSQLstatementParameterized(relations, allkeyw, nfreeTSs2,
+					jdbcacc.getTupleSetPrefix());
+			String batchedSql = Params.probeBatchSize > 1
+					? ((Instance) CNs.elementAt(i)).getSQLstatementBatched(relations, allkeyw, Params.probeBatchSize,
+							jdbcacc.getTupleSetPrefix())
+					: null;
 			execprepared = new ExecPrepared();
 			System.out.println(" sql: " + sql);
 			long start = System.currentTimeMillis();
-			exectime += execprepared.ExecuteParameterized(jdbcacc, sql, nfreeTSs2, new ArrayList<String>(allkeyw), N,
-					((Instance) CNs.elementAt(i)).getsize() + 1, results, allKeywInResults);
+			exectime += execprepared.ExecuteParameterized(jdbcacc, sql, batchedSql, Params.probeBatchSize, nfreeTSs2,
+					new ArrayList<String>(allkeyw), N, ((Instance) CNs.elementAt(i)).getsize() + 1, results,
+					allKeywInResults);
 			// +1 because different size semantics than DISCOVER
 			System.out.println(" Time = " + (System.currentTimeMillis() - start) + "(ms)");
 		}
@@ -79,32 +97,140 @@ public class IRStyleKeywordSearch {
 
 	public static int methodC(int N, boolean allKeywInResults, Vector<Relation> relations, Vector<String> allkeyw,
 			Vector<?> CNs, ArrayList<Result> results, JDBCaccess jdbcacc) {
+		return methodC(N, allKeywInResults, relations, allkeyw, CNs, results, jdbcacc, null);
+	}
+
+	// joins are verified by engine if it is not null, except when all keywords
+	// have to be in results since the engine does not hold text attributes
+	public static int methodC(int N, boolean allKeywInResults, Vector<Relation> relations, Vector<String> allkeyw,
+			Vector<?> CNs, ArrayList<Result> results, JDBCaccess jdbcacc, InMemoryJoinEngine engine) {
+		return methodC(N, allKeywInResults, relations, allkeyw, CNs, results, jdbcacc, engine, null);
+	}
+
+	// tupleSets: tuples of the tuple sets by tuple set name, read instead of the
+	// tuple set tables if not null
+	public static int methodC(int N, boolean allKeywInResults, Vector<Relation> relations, Vector<String> allkeyw,
+			Vector<?> CNs, ArrayList<Result> results, JDBCaccess jdbcacc, InMemoryJoinEngine engine,
+			Map<String, ScoredIds> tupleSets) {
+		return methodC(N, allKeywInResults, relations, allkeyw, CNs, results, jdbcacc, engine, tupleSets, null);
+	}
+
+	// the top-N found so far are returned once deadline expires, if it is not
+	// null. The statements of the worker connections are cancelled with those of
+	// jdbcacc, which the caller attaches to deadline
+	public static int methodC(int N, boolean allKeywInResults, Vector<Relation> relations, Vector<String> allkeyw,
+			Vector<?> CNs, ArrayList<Result> results, JDBCaccess jdbcacc, InMemoryJoinEngine engine,
+			Map<String, ScoredIds> tupleSets, QueryDeadline deadline) {
 		// Method C: parallel execution
 		int exectime = 0;
+		boolean inMemory = engine != null && !allKeywInResults;
 		ArrayList[] nfreeTSs = new ArrayList[CNs.size()];
 		String[] sqls = new String[CNs.size()];
+		String[] batchedSqls = new String[CNs.size()];
+		InMemoryCN[] inMemoryCNs = new InMemoryCN[CNs.size()];
 		int[] CNsize = new int[CNs.size()];
 		for (int i = 0; i < CNs.size(); i++) {
 			CNsize[i] = ((Instance) CNs.elementAt(i)).getsize() + 1;
 			nfreeTSs[i] = new ArrayList<String>();
-			sqls[i] = ((Instance) CNs.elementAt(i)).getSQLstatementParameterized(relations, allkeyw, nfreeTSs[i]);
+			if (inMemory) {
+				inMemoryCNs[i] = engine.compile((Instance) CNs.elementAt(i), nfreeTSs[i], jdbcacc.getTupleSetPrefix());
+			} else {
+				sqls[i] = ((Instance) CNs.elementAt(i)).getSQLstatementParameterized(relations, allkeyw,
+						nfreeTSs[i], jdbcacc.getTupleSetPrefix());
+				if (Params.probeBatchSize > 1)
+					batchedSqls[i] = ((Instance) CNs.elementAt(i)).getSQLstatementBatched(relations, allkeyw,
+							Params.probeBatchSize, jdbcacc.getTupleSetPrefix());
+			}
+		}
+		// CNs with a common partial join enumerate its rows once per combination
+		SubJoinMemo memo = null;
+		if (inMemory && Params.subJoinMemoSize > 0) {
+			memo = new SubJoinMemo(Params.subJoinMemoSize);
+			memo.share(inMemoryCNs);
 		}
 		ExecPrepared execprepared2 = new ExecPrepared();
-		exectime = execprepared2.ExecuteParallel(jdbcacc, sqls, nfreeTSs, new ArrayList<String>(allkeyw), N, CNsize,
-				results, allKeywInResults);
+		execprepared2.setTupleSets(tupleSets);
+		execprepared2.setDeadline(deadline);
+		int numWorkers = Math.min(Params.numThreads, CNs.size());
+		List<JDBCaccessPool.Lease> leases = new ArrayList<JDBCaccessPool.Lease>();
+		JDBCaccess[] connections = numWorkers > 1 ? getWorkerConnections(jdbcacc, numWorkers, leases) : null;
+		if (deadline != null)
+			for (JDBCaccessPool.Lease lease : leases)
+				deadline.attach(lease.get());
+		try {
+			if (connections != null)
+				exectime = execprepared2.ExecuteParallelConcurrent(connections, sqls, batchedSqls,
+						Params.probeBatchSize, inMemoryCNs, nfreeTSs, new ArrayList<String>(allkeyw), N, CNsize,
+						results, allKeywInResults);
+			else if (inMemory)
+				exectime = execprepared2.ExecuteParallel(jdbcacc, inMemoryCNs, nfreeTSs,
+						new ArrayList<String>(allkeyw), N, CNsize, results);
+			else
+				exectime = execprepared2.ExecuteParallel(jdbcacc, sqls, batchedSqls, Params.probeBatchSize, nfreeTSs,
+						new ArrayList<String>(allkeyw), N, CNsize, results, allKeywInResults);
+		} finally {
+			for (JDBCaccessPool.Lease lease : leases) {
+				if (deadline != null)
+					deadline.detach(lease.get());
+				lease.close();
+			}
+		}
+		if (Params.DEBUG && memo != null)
+			System.out.println(" " + memo.getStats());
 		return exectime;
 	}
 
+	// returns jdbcacc followed by up to numWorkers-1 connections to its database
+	// leased from its pool, or null if there are none available. Connections are
+	// only leased if they are available, so that concurrent queries cannot wait
+	// for each other's connections
+	static JDBCaccess[] getWorkerConnections(JDBCaccess jdbcacc, int numWorkers, List<JDBCaccessPool.Lease> leases) {
+		List<JDBCaccess> connections = new ArrayList<JDBCaccess>();
+		connections.add(jdbcacc);
+		try {
+			JDBCaccessPool pool = connectionPool(jdbcacc.getDatabaseName());
+			JDBCaccessPool.Lease lease;
+			while (connections.size() < numWorkers && (lease = pool.tryLease()) != null) {
+				leases.add(lease);
+				connections.add(lease.get());
+			}
+		} catch (IOException | SQLException e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ " exception in  IRStyleKeywordSearch.getWorkerConnections");
+		}
+		if (connections.size() < 2)
+			return null;
+		return connections.toArray(new JDBCaccess[connections.size()]);
+	}
+
+	// connection pools by database, created on first use
+	private static final Map<String, JDBCaccessPool> connectionPools = new HashMap<String, JDBCaccessPool>();
+
+	public static synchronized JDBCaccessPool connectionPool(String Database_name) throws IOException {
+		JDBCaccessPool pool = connectionPools.get(Database_name);
+		if (pool == null) {
+			Properties config = loadConfig();
+			pool = new JDBCaccessPool(jdbcUrl(config, Database_name), connectionProps(config), Database_name,
+					Params.maxConnections, Params.maxConnectionIdleTime);
+			connectionPools.put(Database_name, pool);
+		}
+		return pool;
+	}
+
 	public static void dropTupleSets(JDBCaccess jdbcacc, Vector<Relation> relations) {
 		for (Relation rel : relations) {
-			jdbcacc.dropTable("TS_" + rel.getName());
+			jdbcacc.dropTable(jdbcacc.getTupleSetPrefix() + rel.getName());
 		}
 	}
 
+	// drops the TS_<relation> tables and the tuple set tables of the slots of
+	// this process, but not the slots of other processes on the database
 	public static void dropAllTuplesets(JDBCaccess jdbcacc) throws SQLException {
+		String processPrefix = JDBCaccess.getProcessTupleSetPrefix();
 		String sql = "SELECT CONCAT( 'DROP TABLE ', GROUP_CONCAT(table_name) , ';' ) AS statement FROM "
-				+ "information_schema.tables WHERE table_name LIKE 'TS_%' and table_schema like '"
-				+ jdbcacc.getDatabaseName() + "';";
+				+ "information_schema.tables WHERE (table_name LIKE 'TS\\_%'"
+				+ (processPrefix != null ? " or table_name LIKE '" + processPrefix.replace("_", "\\_") + "%'" : "")
+				+ ") and table_schema like '" + jdbcacc.getDatabaseName() + "';";
 		try (Statement stmt = jdbcacc.conn.createStatement()) {
 			ResultSet rs = stmt.executeQuery(sql);
 			if (rs.next()) {
@@ -112,6 +238,7 @@ public class IRStyleKeywordSearch {
 				if (dropQuery != null && !dropQuery.equals("")) {
 					stmt.executeUpdate(dropQuery);
 				}
+				jdbcacc.clearTupleSetTables();
 			}
 		}
 
@@ -140,50 +267,119 @@ public class IRStyleKeywordSearch {
 	}
 
 	public static JDBCaccess jdbcAccess(String Database_name) throws IOException {
-		// JDBC input
-		// Server = "localhost";
-		String Server = "vm-maple.eecs.oregonstate.edu";
-		String Port = "3306";
-		// end input
+		Properties config = loadConfig();
+		String url = jdbcUrl(config, Database_name);
+		Properties connectionProps = connectionProps(config);
+		try {
+			JDBCaccess jdbcacc = new JDBCaccess(JDBCaccess.connect(url, connectionProps), Database_name);
+			jdbcacc.setPrefetchConnectionFactory(() -> JDBCaccess.connect(url, connectionProps));
+			return jdbcacc;
+		} catch (SQLException e1) {
+			throw new IOException("cannot connect to " + Database_name, e1);
+		}
+	}
+
+	private static Properties loadConfig() throws IOException {
 		Properties config = new Properties();
 		try (InputStream in = WikiRelationalEfficiencyExperiment.class
 				.getResourceAsStream("/config/config.properties")) {
 			config.load(in);
 		}
-		String Username = config.getProperty("username");
-		String Password = config.getProperty("password");
-		JDBCaccess jdbcacc = new JDBCaccess(Server, Port, Database_name, Username, Password);
-		return jdbcacc;
+		return config;
+	}
+
+	// the <Database_name>.url property of the config if there is one, e.g.
+	// jdbc:h2:mem:wikipedia;MODE=MySQL;DB_CLOSE_DELAY=-1 for an embedded database
+	// with the H2 driver on the class path, else the database on the MySQL server,
+	// whose tuple sets are read a page at a time from server side cursors, with
+	// the CN statements prepared on the server
+	static String jdbcUrl(Properties config, String Database_name) {
+		// Server = "localhost";
+		String Server = "vm-maple.eecs.oregonstate.edu";
+		return config.getProperty(Database_name + ".url", "jdbc:mysql://" + Server + ":3306/" + Database_name
+				+ "?useCursorFetch=true&useServerPrepStmts=true");
+	}
+
+	private static Properties connectionProps(Properties config) {
+		Properties connectionProps = new Properties();
+		connectionProps.put("user", config.getProperty("username"));
+		connectionProps.put("password", config.getProperty("password"));
+		return connectionProps;
+	}
+
+	public static IRStyleQueryResult executeIRStyleQuery(JDBCaccess jdbcacc, Schema sch, Vector<Relation> relations,
+			ExperimentQuery query, Map<String, ScoredIds> relnameValues) throws SQLException {
+		return executeIRStyleQuery(jdbcacc, sch, relations, query, relnameValues, null);
 	}
 
 	public static IRStyleQueryResult executeIRStyleQuery(JDBCaccess jdbcacc, Schema sch, Vector<Relation> relations,
-			ExperimentQuery query, Map<String, List<String>> relnameValues) throws SQLException {
+			ExperimentQuery query, Map<String, ScoredIds> relnameValues, InMemoryJoinEngine engine)
+			throws SQLException {
+		return executeIRStyleQuery(jdbcacc, sch, relations, query, relnameValues, engine, null);
+	}
+
+	/**
+	 * Stops at the stage the query is in once deadline expires, if it is not
+	 * null: in-flight statements are cancelled and the top-N found so far are
+	 * returned, with the stage recorded in the result. The caller closes deadline.
+	 */
+	public static IRStyleQueryResult executeIRStyleQuery(JDBCaccess jdbcacc, Schema sch, Vector<Relation> relations,
+			ExperimentQuery query, Map<String, ScoredIds> relnameValues, InMemoryJoinEngine engine,
+			QueryDeadline deadline) throws SQLException {
 		MIndexAccess MIndx = new MIndexAccess(relations);
 		Vector<String> allkeyw = new Vector<String>();
 		// escaping single quotes
 		allkeyw.addAll(Arrays.asList(query.getText().replace("'", "\\'").split(" ")));
 		int exectime = 0;
-		long start = System.currentTimeMillis();
-		MIndx.createTupleSetsFast(sch, allkeyw, jdbcacc.conn, relnameValues);
-		long tuplesetTime = System.currentTimeMillis() - start;
-		exectime += tuplesetTime;
-		if (Params.DEBUG)
-			System.out.println(" Time to create tuple sets: " + (tuplesetTime) + " (ms)");
-		start = System.currentTimeMillis();
-		Vector<?> CNs = sch.getCNs(Params.maxCNsize, allkeyw, sch, MIndx);
-		long cnTime = System.currentTimeMillis() - start;
-		exectime += cnTime;
-		if (Params.DEBUG)
-			System.out.println(" Time to get " + CNs.size() + " CNs = " + (cnTime) + " (ms)");
+		long tuplesetTime = 0;
 		ArrayList<Result> results = new ArrayList<Result>();
-		int time = methodC(Params.N, Params.allKeywInResults, relations, allkeyw, CNs, results, jdbcacc);
-		exectime += time;
-		if (Params.DEBUG)
-			System.out.println(" Time to search joint tuplesets: " + time);
-		dropTupleSets(jdbcacc, relations);
+		if (deadline != null)
+			deadline.attach(jdbcacc);
+		try {
+			if (deadline != null)
+				deadline.enter("tuple sets");
+			long start = System.currentTimeMillis();
+			MIndx.createTupleSetsFast(sch, allkeyw, jdbcacc, relnameValues);
+			tuplesetTime = System.currentTimeMillis() - start;
+			exectime += tuplesetTime;
+			if (Params.DEBUG)
+				System.out.println(" Time to create tuple sets: " + (tuplesetTime) + " (ms)");
+			if (deadline == null || !deadline.isExpired()) {
+				if (deadline != null)
+					deadline.enter("CNs");
+				start = System.currentTimeMillis();
+				Vector<?> CNs = sch.getCNs(Params.maxCNsize, allkeyw, sch, MIndx);
+				long cnTime = System.currentTimeMillis() - start;
+				exectime += cnTime;
+				if (Params.DEBUG)
+					System.out.println(" Time to get " + CNs.size() + " CNs = " + (cnTime) + " (ms) "
+							+ CNPlanCache.getStats());
+				if (deadline == null || !deadline.isExpired()) {
+					if (deadline != null)
+						deadline.enter("execution");
+					Map<String, ScoredIds> tupleSets = new HashMap<String, ScoredIds>();
+					for (Map.Entry<String, ScoredIds> entry : relnameValues.entrySet())
+						tupleSets.put(jdbcacc.getTupleSetPrefix() + entry.getKey(), entry.getValue());
+					int time = methodC(Params.N, Params.allKeywInResults, relations, allkeyw, CNs, results, jdbcacc,
+							engine, tupleSets, deadline);
+					exectime += time;
+					if (Params.DEBUG)
+						System.out.println(
+								" Time to search joint tuplesets: " + time + " " + jdbcacc.getStatementCacheStats());
+				}
+			}
+		} finally {
+			if (deadline != null)
+				deadline.detach(jdbcacc);
+		}
+		// the tuple set tables are kept and emptied by the next query of jdbcacc
 		IRStyleQueryResult result = new IRStyleQueryResult(query, exectime);
 		result.addIRStyleResults(results);
 		result.tuplesetTime = tuplesetTime;
+		if (deadline != null)
+			result.expiredStage = deadline.getExpiredStage();
+		if (Params.DEBUG && result.expiredStage != null)
+			System.out.println(" Deadline expired in stage: " + result.expiredStage);
 		if (Params.DEBUG)
 			System.out.println(" R-rank = " + result.rrank());
 		return result;
@@ -192,33 +388,78 @@ public class IRStyleKeywordSearch {
 	public static int aggregateArticleTuplesetSize = 0;
 	public static int counter = 0;
 
-	public static List<String> executeLuceneQuery(IndexReader reader, String queryText, String TextField,
+	public static ScoredIds executeLuceneQuery(IndexReader reader, String queryText, String TextField,
 			String IdField) throws ParseException, IOException {
+		return executeLuceneQuery(reader, queryText, TextField, IdField, null);
+	}
+
+	// the search stops with the hits collected so far once deadline expires, if
+	// it is not null
+	public static ScoredIds executeLuceneQuery(IndexReader reader, String queryText, String TextField,
+			String IdField, QueryDeadline deadline) throws ParseException, IOException {
 		IndexSearcher searcher = new IndexSearcher(reader);
 		searcher.setSimilarity(new BM25Similarity());
-		QueryParser qp = new QueryParser(TextField, new StandardAnalyzer());
+		try (Analyzer analyzer = new StandardAnalyzer()) {
+			return executeLuceneQuery(searcher, analyzer, queryText, TextField, IdField, deadline);
+		}
+	}
+
+	// searcher and analyzer may be shared by threads, see SearcherRegistry
+	public static ScoredIds executeLuceneQuery(IndexSearcher searcher, Analyzer analyzer, String queryText,
+			String TextField, String IdField, QueryDeadline deadline) throws ParseException, IOException {
+		return executeLuceneQuery(searcher, analyzer, queryText, TextField, IdField, Params.MAX_TS_SIZE, deadline);
+	}
+
+	// the tuple set has at most maxSize tuples, and only those within the score
+	// threshold if Params.useScoreThresholding
+	public static ScoredIds executeLuceneQuery(IndexSearcher searcher, Analyzer analyzer, String queryText,
+			String TextField, String IdField, int maxSize, QueryDeadline deadline) throws ParseException, IOException {
+		QueryParser qp = new QueryParser(TextField, analyzer);
 		Query query = qp.parse(QueryParser.escape(queryText));
-		ScoreDoc[] scoreDocHits = searcher.search(query, Params.MAX_TS_SIZE).scoreDocs;
-		List<String> results = new ArrayList<String>();
-		for (int j = 0; j < scoreDocHits.length; j++) {
-			Document doc = reader.document(scoreDocHits[j].doc);
-			String docId = doc.get(IdField);
-			results.add("(" + docId + "," + scoreDocHits[j].score + ")");
-			if (Params.useScoreThresholding && (scoreDocHits[j].score < scoreDocHits[0].score * 0.5)) {
-				break;
+		TupleSetCollector collector = new TupleSetCollector(maxSize, Params.useScoreThresholding ? 0.5f : 0);
+		if (deadline == null)
+			searcher.search(query, collector);
+		else {
+			try {
+				searcher.search(query, new TimeLimitingCollector(collector, TimeLimitingCollector.getGlobalCounter(),
+						deadline.getRemaining()));
+			} catch (TimeLimitingCollector.TimeExceededException e) {
+				// the hits collected so far are kept
 			}
 		}
+		ScoredIds hits = collector.getHits();
+		ScoredIds results = new ScoredIds(hits.size());
+		List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+		NumericDocValues[] ids = new NumericDocValues[leaves.size()];
+		boolean[] hasIds = new boolean[leaves.size()];
+		for (int j = 0; j < hits.size(); j++) {
+			int docId = hits.getId(j);
+			int leaf = ReaderUtil.subIndex(docId, leaves);
+			if (!hasIds[leaf]) {
+				ids[leaf] = leaves.get(leaf).reader().getNumericDocValues(IdField);
+				hasIds[leaf] = true;
+			}
+			int id;
+			if (ids[leaf] != null)
+				id = (int) ids[leaf].get(docId - leaves.get(leaf).docBase);
+			else { // indexed without id doc values
+				Document doc = searcher.doc(docId);
+				id = Integer.parseInt(doc.get(IdField));
+			}
+			results.add(id, hits.getScore(j));
+		}
 		if (Params.DEBUG) {
-			if (scoreDocHits.length > 0) {
-				System.out.print(" score range = " + scoreDocHits[0].score + " - "
-						+ scoreDocHits[scoreDocHits.length - 1].score);
+			if (hits.size() > 0) {
+				System.out.print(" score range = " + hits.getScore(0) + " - " + hits.getScore(hits.size() - 1));
 				System.out.println(" and TS size = " + results.size());
 			} else {
 				System.out.println("zero returned docs for: " + queryText);
 			}
 		}
-		aggregateArticleTuplesetSize += results.size();
-		counter++;
+		synchronized (IRStyleKeywordSearch.class) {
+			aggregateArticleTuplesetSize += results.size();
+			counter++;
+		}
 		return results;
 	}
 }
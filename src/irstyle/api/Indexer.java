@@ -11,7 +11,9 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
@@ -23,6 +25,8 @@ import database.DatabaseConnection;
 
 public class Indexer {
 
+	// stored, as an exact-match term to delete documents by, and as numeric doc
+	// values that retrieval reads without loading documents
 	public static final String ID_FIELD = "id";
 	public static final String TEXT_FIELD = "text";
 	public static final String WEIGHT_FIELD = "weight";
@@ -118,24 +122,32 @@ public class Indexer {
 
 	public static void indexRS(String idAttrib, String[] textAttribs, IndexWriter iwriter, ResultSet rs,
 			String popularity) throws SQLException, IOException {
+		iwriter.addDocument(getDocument(idAttrib, textAttribs, rs, popularity));
+	}
+
+	// the document indexRS adds for the current row of rs
+	public static Document getDocument(String idAttrib, String[] textAttribs, ResultSet rs, String popularity)
+			throws SQLException {
 		StringBuilder answerBuilder = new StringBuilder();
 		for (String s : textAttribs) {
 			answerBuilder.append(rs.getString(s));
 		}
 		String answer = answerBuilder.toString();
 		Document doc = new Document();
-		doc.add(new StoredField(ID_FIELD, rs.getString(idAttrib)));
+		doc.add(new StringField(ID_FIELD, rs.getString(idAttrib), Store.YES));
+		doc.add(new NumericDocValuesField(ID_FIELD, rs.getInt(idAttrib)));
 		// answer = StringEscapeUtils.unescapeHtml4(answer); // convert html encoded
 		// characters to unicode
 		doc.add(new TextField(TEXT_FIELD, answer, Store.NO));
 		doc.add(new StoredField(WEIGHT_FIELD, rs.getInt(popularity)));
-		iwriter.addDocument(doc);
+		return doc;
 	}
 
 	public static void indexRSWithAttribs(String idAttrib, String[] textAttribs, IndexWriter iwriter, ResultSet rs,
 			String popularity) throws SQLException, IOException {
 		Document doc = new Document();
-		doc.add(new StoredField(ID_FIELD, rs.getString(idAttrib)));
+		doc.add(new StringField(ID_FIELD, rs.getString(idAttrib), Store.YES));
+		doc.add(new NumericDocValuesField(ID_FIELD, rs.getInt(idAttrib)));
 		doc.add(new StoredField(WEIGHT_FIELD, rs.getInt(popularity)));
 		for (String attrib : textAttribs) {
 			doc.add(new TextField(attrib, rs.getString(attrib), Store.NO));
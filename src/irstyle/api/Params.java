@@ -1,11 +1,17 @@
 package irstyle.api;
 
+import java.util.Arrays;
+
 public class Params {
 
 	public static int MAX_GENERATED_CN = 50;
 
 	public static int MAX_ALLOWED_TIME = 2 * 60 * 1000;
 
+	// time budget of a query (ms) after which its statements are cancelled and
+	// the top-N found so far are kept, 0 for none
+	public static int queryTimeBudget = 0;
+
 	public static boolean DEBUG = false;
 
 	public static int maxCNsize = 5;
@@ -18,11 +24,70 @@ public class Params {
 
 	public static int MAX_TS_SIZE = 1000;
 
+	// tuple set size of each table, in the order of the table names, or null for
+	// MAX_TS_SIZE for all of them
+	public static int[] tupleSetSizes = null;
+
+	public static int getMaxTupleSetSize(int table) {
+		if (tupleSetSizes == null || table >= tupleSetSizes.length)
+			return MAX_TS_SIZE;
+		return tupleSetSizes[table];
+	}
+
+	// number of tuple id combinations of a CN verified by one SQL execution, 1 to
+	// probe them one at a time (-b)
+	public static int probeBatchSize = 1;
+
+	// verify CNs with in-memory copies of the join attributes instead of SQL
+	public static boolean useInMemoryJoins = false;
+
+	// worker threads of ExecuteParallel, each with its own connection
+	public static int numThreads = 1;
+
+	// tuples read from a tuple set per query, in descending score order
+	public static int tupleSetPageSize = 100;
+
+	// read the next page of each tuple set in the background
+	public static boolean prefetchTupleSets = false;
+
+	// keyword coverage signatures whose CNs are kept, 0 to generate CNs every time
+	public static int cnPlanCacheSize = 256;
+
+	// prepared CN statements kept per connection across queries, 0 to prepare
+	// them for every query
+	public static int statementCacheSize = 128;
+
+	// connections of a database pool, and the time an idle one is kept (ms)
+	public static int maxConnections = 16;
+
+	public static long maxConnectionIdleTime = 5 * 60 * 1000;
+
+	// queries of an experiment run at once, each on a pooled connection
+	public static int numConcurrentQueries = 1;
+
+	// values of partial joins shared by the in-memory CNs of a query, 0 to join
+	// every CN on its own
+	public static int subJoinMemoSize = 1 << 20;
+
 	public static String getDescriptor() {
 		StringBuilder sb = new StringBuilder();
 		sb.append("MAX_ALLOWED_TIME = " + MAX_ALLOWED_TIME + "\n");
+		if (queryTimeBudget > 0)
+			sb.append("Query time budget = " + queryTimeBudget + "\n");
 		sb.append("N = " + N + "\n");
 		sb.append("MAX_TS_SIZE = " + MAX_TS_SIZE + "\n");
+		if (tupleSetSizes != null)
+			sb.append("Tuple set sizes = " + Arrays.toString(tupleSetSizes) + "\n");
+		sb.append("Probe batch size = " + probeBatchSize + "\n");
+		sb.append("In-memory joins = " + useInMemoryJoins + "\n");
+		sb.append("Threads = " + numThreads + "\n");
+		sb.append("Tuple set page size = " + tupleSetPageSize + "\n");
+		sb.append("Prefetch tuple sets = " + prefetchTupleSets + "\n");
+		sb.append("CN plan cache size = " + cnPlanCacheSize + "\n");
+		sb.append("Statement cache size = " + statementCacheSize + "\n");
+		sb.append("Max connections = " + maxConnections + "\n");
+		sb.append("Concurrent queries = " + numConcurrentQueries + "\n");
+		sb.append("Sub-join memo size = " + subJoinMemoSize + "\n");
 		sb.append("Score thresholding = " + useScoreThresholding + "\n");
 		return sb.toString();
 	}
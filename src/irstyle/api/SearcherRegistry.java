@@ -0,0 +1,151 @@
+package irstyle.api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.similarities.BM25Similarity;
+
+import irstyle.core.QueryDeadline;
+import irstyle.core.ScoredIds;
+
+/**
+ * BM25 searchers of the indexes of the tables of an experiment, created once
+ * and shared by all queries, with an analyzer for parsing their keywords. The
+ * tuple sets of a query are retrieved from all indexes at once, so their
+ * retrieval takes as long as the slowest one instead of the sum of them.
+ *
+ * reopen replaces the searchers of indexes that changed, e.g. by
+ * TupleCacheManager.apply. A search holds a reference to the readers it uses,
+ * so a replaced reader is closed once the searches on it are done.
+ */
+public class SearcherRegistry implements Closeable {
+
+	private final IndexSearcher[] searchers;
+	// the readers opened by reopen, which are closed by the registry
+	private final boolean[] reopened;
+	private final Analyzer analyzer = new StandardAnalyzer();
+	private final ExecutorService pool;
+
+	/**
+	 * @param numConcurrentQueries
+	 *            the number of queries that retrieve their tuple sets at once
+	 */
+	public SearcherRegistry(IndexReader[] readers, int numConcurrentQueries) {
+		searchers = new IndexSearcher[readers.length];
+		reopened = new boolean[readers.length];
+		for (int i = 0; i < readers.length; i++)
+			searchers[i] = newSearcher(readers[i]);
+		// the calling thread searches the first index itself
+		int numThreads = Math.max((readers.length - 1) * numConcurrentQueries, 1);
+		pool = Executors.newFixedThreadPool(numThreads, r -> {
+			Thread thread = new Thread(r, "lucene search");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private static IndexSearcher newSearcher(IndexReader reader) {
+		IndexSearcher searcher = new IndexSearcher(reader);
+		searcher.setSimilarity(new BM25Similarity());
+		return searcher;
+	}
+
+	public synchronized IndexSearcher getSearcher(int i) {
+		return searchers[i];
+	}
+
+	// the current searchers, with a reference to each of their readers
+	private synchronized IndexSearcher[] acquire() {
+		IndexSearcher[] current = searchers.clone();
+		for (IndexSearcher searcher : current)
+			searcher.getIndexReader().incRef();
+		return current;
+	}
+
+	private static void release(IndexSearcher[] current) throws IOException {
+		for (IndexSearcher searcher : current)
+			searcher.getIndexReader().decRef();
+	}
+
+	/**
+	 * Replaces the searchers of the indexes that changed since their readers
+	 * were opened. Only readers of directories can be reopened.
+	 */
+	public synchronized void reopen() throws IOException {
+		for (int i = 0; i < searchers.length; i++) {
+			IndexReader reader = searchers[i].getIndexReader();
+			if (!(reader instanceof DirectoryReader))
+				continue;
+			DirectoryReader newReader = DirectoryReader.openIfChanged((DirectoryReader) reader);
+			if (newReader == null)
+				continue;
+			searchers[i] = newSearcher(newReader);
+			if (reopened[i])
+				reader.decRef();
+			reopened[i] = true;
+		}
+	}
+
+	/**
+	 * Retrieves the tuple sets of queryText from all indexes, the i-th one from
+	 * the i-th index with at most Params.getMaxTupleSetSize(i) tuples.
+	 */
+	public ScoredIds[] search(String queryText, String TextField, String IdField, QueryDeadline deadline)
+			throws ParseException, IOException {
+		IndexSearcher[] current = acquire();
+		List<Future<ScoredIds>> futures = new ArrayList<Future<ScoredIds>>();
+		for (int i = 1; i < current.length; i++) {
+			IndexSearcher searcher = current[i];
+			int maxSize = Params.getMaxTupleSetSize(i);
+			futures.add(pool.submit(() -> IRStyleKeywordSearch.executeLuceneQuery(searcher, analyzer, queryText,
+					TextField, IdField, maxSize, deadline)));
+		}
+		ScoredIds[] results = new ScoredIds[current.length];
+		try {
+			results[0] = IRStyleKeywordSearch.executeLuceneQuery(current[0], analyzer, queryText, TextField,
+					IdField, Params.getMaxTupleSetSize(0), deadline);
+			for (int i = 1; i < current.length; i++)
+				results[i] = futures.get(i - 1).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while searching for: " + queryText);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof ParseException)
+				throw (ParseException) e.getCause();
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			// the readers are released once all searches on them are done
+			for (Future<ScoredIds> future : futures)
+				try {
+					future.get();
+				} catch (Exception e) {
+				}
+			release(current);
+		}
+		return results;
+	}
+
+	// the readers passed to the constructor are closed by their owner
+	public synchronized void close() throws IOException {
+		pool.shutdown();
+		analyzer.close();
+		for (int i = 0; i < searchers.length; i++)
+			if (reopened[i])
+				searchers[i].getIndexReader().decRef();
+	}
+
+}
@@ -0,0 +1,147 @@
+package irstyle.api;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SimpleCollector;
+
+import irstyle.core.ScoredIds;
+
+/**
+ * Collects the hits of a tuple set retrieval: at most maxSize of the best hits,
+ * dropping those scoring less than ratio times the best score while collecting
+ * instead of after retrieving maxSize documents. Since the best score only
+ * grows, a hit below ratio times the best score so far is below the final
+ * threshold too. Hits are kept as primitive (doc, score) pairs in a min-heap;
+ * like TopScoreDocCollector, the earlier doc wins among equal scores.
+ *
+ * The result is the same as walking the top maxSize hits of
+ * TopScoreDocCollector and stopping after the first hit below the threshold:
+ * that hit is kept too. Thus the best of the dropped hits is kept aside.
+ */
+public class TupleSetCollector extends SimpleCollector {
+
+	private final int maxSize;
+	private final float ratio;
+	private final int[] docs; // min-heap on (score, -doc)
+	private final float[] scores;
+	private int size = 0;
+	private float maxScore = Float.NEGATIVE_INFINITY;
+	// the best hit dropped below the threshold, -1 if none
+	private int droppedDoc = -1;
+	private float droppedScore;
+	private int docBase;
+	private Scorer scorer;
+
+	/**
+	 * @param ratio
+	 *            hits scoring less than ratio times the best score are dropped, 0
+	 *            to keep all
+	 */
+	public TupleSetCollector(int maxSize, float ratio) {
+		this.maxSize = Math.max(maxSize, 0);
+		this.ratio = ratio;
+		docs = new int[this.maxSize];
+		scores = new float[this.maxSize];
+	}
+
+	@Override
+	protected void doSetNextReader(LeafReaderContext context) throws IOException {
+		docBase = context.docBase;
+	}
+
+	@Override
+	public void setScorer(Scorer scorer) throws IOException {
+		this.scorer = scorer;
+	}
+
+	@Override
+	public void collect(int doc) throws IOException {
+		float score = scorer.score();
+		if (score > maxScore)
+			maxScore = score;
+		if (score < ratio * maxScore) {
+			if (droppedDoc < 0 || score > droppedScore) { // later docs lose ties
+				droppedDoc = docBase + doc;
+				droppedScore = score;
+			}
+			return;
+		}
+		if (size < maxSize) {
+			docs[size] = docBase + doc;
+			scores[size] = score;
+			up(size++);
+		} else if (maxSize > 0 && score > scores[0]) { // later docs lose ties
+			docs[0] = docBase + doc;
+			scores[0] = score;
+			down(0, size);
+		}
+	}
+
+	@Override
+	public boolean needsScores() {
+		return true;
+	}
+
+	// true if hit i ranks below hit j
+	private boolean less(int i, int j) {
+		return scores[i] < scores[j] || (scores[i] == scores[j] && docs[i] > docs[j]);
+	}
+
+	private void swap(int i, int j) {
+		int doc = docs[i];
+		docs[i] = docs[j];
+		docs[j] = doc;
+		float score = scores[i];
+		scores[i] = scores[j];
+		scores[j] = score;
+	}
+
+	private void up(int i) {
+		while (i > 0 && less(i, (i - 1) / 2)) {
+			swap(i, (i - 1) / 2);
+			i = (i - 1) / 2;
+		}
+	}
+
+	private void down(int i, int size) {
+		while (2 * i + 1 < size) {
+			int child = 2 * i + 1;
+			if (child + 1 < size && less(child + 1, child))
+				child++;
+			if (!less(child, i))
+				break;
+			swap(i, child);
+			i = child;
+		}
+	}
+
+	/**
+	 * @return the collected hits as (doc, score) pairs, best first, up to the
+	 *         first one below the threshold of the best score. The collector is
+	 *         emptied.
+	 */
+	public ScoredIds getHits() {
+		// heap sort: the worst hit is moved to the end first
+		for (int end = size - 1; end > 0; end--) {
+			swap(0, end);
+			down(0, end);
+		}
+		ScoredIds hits = new ScoredIds(size + 1);
+		int i = 0;
+		for (; i < size && scores[i] >= ratio * maxScore; i++)
+			hits.add(docs[i], scores[i]);
+		// the first hit below the threshold is the better of the next collected
+		// one and the best dropped one
+		if (i < size && (droppedDoc < 0 || scores[i] > droppedScore
+				|| (scores[i] == droppedScore && docs[i] < droppedDoc)))
+			hits.add(docs[i], scores[i]);
+		else if (i < maxSize && droppedDoc >= 0)
+			hits.add(droppedDoc, droppedScore);
+		size = 0;
+		droppedDoc = -1;
+		return hits;
+	}
+
+}
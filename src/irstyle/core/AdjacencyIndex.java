@@ -0,0 +1,30 @@
+package irstyle.core;
+
+/**
+ * Integer join columns of one relation, with an index from each column value
+ * to the rows holding it. Rows are numbered 0..getNumRows()-1. The rows of
+ * column c with value v are getRow(c, p) for p in [begin(c, v), end(c, v)).
+ */
+public interface AdjacencyIndex {
+
+	String getName();
+
+	int getNumRows();
+
+	String[] getColumnNames();
+
+	/**
+	 * @return the index of the column with the given name or -1 if it is not
+	 *         loaded
+	 */
+	int getColumnIndex(String columnName);
+
+	int getValue(int row, int column);
+
+	int begin(int column, int value);
+
+	int end(int column, int value);
+
+	int getRow(int column, int position);
+
+}
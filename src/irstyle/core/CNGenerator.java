@@ -0,0 +1,145 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import irstyle.api.Params;
+
+/**
+ * The breadth first generation of the candidate networks of Schema.getCNs. All
+ * networks of a level have the same size and are pruned, accepted and expanded
+ * independently, so a level is processed in slices whose networks are handled
+ * in parallel on a fork-join pool of Params.numThreads threads when there is
+ * more than one. The results of a slice are merged in queue order, which keeps
+ * the CN order and the MAX_GENERATED_CN cut-off of the sequential queue.
+ *
+ * Identical CNs are removed by their canonical signature, keeping the last CN
+ * with a signature as the pairwise removal did. Unlike Instance.identical the
+ * signature does not depend on the root, so isomorphic CNs reached from
+ * different tuple sets are kept once. Duplicate expansions still stay in the
+ * queue, so the MAX_GENERATED_CN cut-off is the one of the sequential queue.
+ */
+class CNGenerator {
+
+	// networks of a level handled before checking MAX_GENERATED_CN again
+	private static final int SLICE_SIZE = 256;
+
+	// the pool of the parallel slices, replaced when Params.numThreads changes
+	private static ForkJoinPool pool = null;
+
+	private static synchronized ForkJoinPool pool() {
+		if (pool == null || pool.getParallelism() != Params.numThreads) {
+			if (pool != null)
+				pool.shutdown();
+			pool = new ForkJoinPool(Params.numThreads);
+		}
+		return pool;
+	}
+
+	private static class Step {
+		boolean accept = false;
+		ArrayList<CNGraph> expansions = null;
+	}
+
+	private final int maxsize;
+	private final int numKeywords;
+
+	private CNGenerator(int maxsize, int numKeywords) {
+		this.maxsize = maxsize;
+		this.numKeywords = numKeywords;
+	}
+
+	/**
+	 * @return the CNs of the tuple sets of MIndx with at most maxsize joins, in
+	 *         the order of the breadth first generation
+	 */
+	static Vector generate(Schema sch, MIndexAccess MIndx, int maxsize, Vector allkeyw) {
+		// the queue starts with all tuple sets that contain any keyword, 10/16/02
+		CNGraph.SchemaNodes nodes = new CNGraph.SchemaNodes(sch, MIndx);
+		ArrayList<CNGraph> level = new ArrayList<CNGraph>();
+		for (int i = 0; i < nodes.nodes.length; i++)
+			if (!nodes.nodes[i].keywords.isEmpty())
+				level.add(CNGraph.tupleSet(nodes, i));
+		CNGenerator generator = new CNGenerator(maxsize, allkeyw.size());
+		boolean parallel = Params.numThreads > 1;
+		ArrayList<CNGraph> accepted = new ArrayList<CNGraph>();
+		boolean full = false;
+		while (!level.isEmpty() && !full) {
+			ArrayList<CNGraph> next = new ArrayList<CNGraph>();
+			for (int from = 0; from < level.size() && !full; from += SLICE_SIZE) {
+				int to = Math.min(from + SLICE_SIZE, level.size());
+				Step[] steps = generator.process(level, from, to, parallel);
+				for (int i = from; i < to; i++) {
+					// 6/8/2002. produce at most 50 CNs
+					if (accepted.size() > Params.MAX_GENERATED_CN) {
+						full = true;
+						break;
+					}
+					if (steps[i - from].accept)
+						accepted.add(level.get(i));
+					if (steps[i - from].expansions != null)
+						next.addAll(steps[i - from].expansions);
+				}
+			}
+			level = next;
+		}
+		return removeIdentical(accepted, parallel);
+	}
+
+	private Step[] process(ArrayList<CNGraph> level, int from, int to, boolean parallel) {
+		Step[] steps = new Step[to - from];
+		forEach(from, to, parallel && to - from > 1, i -> steps[i - from] = process(level.get(i)));
+		return steps;
+	}
+
+	private Step process(CNGraph JNTS) {
+		Step step = new Step();
+		int numFreeTSs = JNTS.numFreeTSs();
+		if (JNTS.twoIdentTuples()) // R->S<-R construct. //rejected
+			return step;
+		if (numFreeTSs > numKeywords || JNTS.getsize() > maxsize) // rejected
+			return step;
+		step.accept = !JNTS.hasFreeTSLeaf();
+		if (JNTS.getsize() < maxsize && numFreeTSs < numKeywords) {
+			step.expansions = new ArrayList<CNGraph>();
+			JNTS.getExpansions(step.expansions);
+			pruneExpansions(step.expansions, numKeywords);
+		}
+		return step;
+	}
+
+	// 6/19/02 Prune expansions with no chance to contain all keywords in future:
+	// if #keyw=n, prune all expansions with a node with adjlist of size >n
+	static void pruneExpansions(ArrayList<CNGraph> expansions, int numKeywords) {
+		int last = 0;
+		for (int i = 0; i < expansions.size(); i++)
+			if (expansions.get(i).getMaxDegree() <= numKeywords)
+				expansions.set(last++, expansions.get(i));
+		expansions.subList(last, expansions.size()).clear();
+	}
+
+	// runs action for from..to-1, on the pool of Params.numThreads if parallel
+	private static void forEach(int from, int to, boolean parallel, IntConsumer action) {
+		if (!parallel) {
+			IntStream.range(from, to).forEach(action);
+			return;
+		}
+		pool().submit(() -> IntStream.range(from, to).parallel().forEach(action)).join();
+	}
+
+	// 8/10/2001, remove duplicate CN's, keeping the last of the isomorphic ones
+	private static Vector removeIdentical(ArrayList<CNGraph> accepted, boolean parallel) {
+		ConcurrentHashMap<String, Integer> last = new ConcurrentHashMap<String, Integer>();
+		forEach(0, accepted.size(), parallel, i -> last.merge(accepted.get(i).getSignature(), i, Math::max));
+		Vector CNs = new Vector(last.size());
+		for (int i = 0; i < accepted.size(); i++)
+			if (last.get(accepted.get(i).getSignature()) == i)
+				CNs.addElement(accepted.get(i).toInstance());
+		return CNs;
+	}
+
+}
@@ -0,0 +1,265 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * An immutable joining network of tuple sets, used by Schema.getCNs instead of
+ * Instance trees. Nodes are numbered in the order they were added and refer to
+ * the schema node of their relation by index. An expansion copies the node
+ * arrays, which hold a few entries, and shares the adjacency rows of all nodes
+ * but the two that get the new edge.
+ *
+ * The checks mirror the ones of Instance, and toInstance builds the Instance
+ * tree that the Instance based expansion would have produced. A network is
+ * never modified once built, so networks can be checked and expanded by
+ * several threads.
+ */
+final class CNGraph {
+
+	/**
+	 * The schema graph and the keyword combinations of its relations, by schema
+	 * node index.
+	 */
+	static final class SchemaNodes {
+		final Instance[] nodes; // in getAllInstances order
+		final int[][] adj;
+		final boolean[][] out; // true if the edge to adj goes out of the node
+		final Vector[][] keywComb; // keyword combinations of the tuple sets
+		final boolean[][] many2many; // edges in both directions between two nodes
+		final boolean[] isP1, isP2, isPP;
+
+		SchemaNodes(Schema sch, MIndexAccess MIndx) {
+			Vector v = sch.getAllInstances();
+			int n = v.size();
+			nodes = new Instance[n];
+			Map<Instance, Integer> index = new IdentityHashMap<Instance, Integer>();
+			for (int i = 0; i < n; i++) {
+				nodes[i] = (Instance) v.elementAt(i);
+				index.put(nodes[i], i);
+			}
+			adj = new int[n][];
+			out = new boolean[n][];
+			keywComb = new Vector[n][];
+			many2many = new boolean[n][n];
+			isP1 = new boolean[n];
+			isP2 = new boolean[n];
+			isPP = new boolean[n];
+			boolean[][] outEdge = new boolean[n][n];
+			boolean[][] incEdge = new boolean[n][n];
+			for (int i = 0; i < n; i++) {
+				Instance node = nodes[i];
+				int size = 0;
+				for (int j = 0; j < node.getSizeAdjList(); j++)
+					if (node.adjList.elementAt(j) != null)
+						size++;
+				adj[i] = new int[size];
+				out[i] = new boolean[size];
+				size = 0;
+				for (int j = 0; j < node.getSizeAdjList(); j++) {
+					Instance node2 = (Instance) node.adjList.elementAt(j);
+					if (node2 == null)
+						continue;
+					adj[i][size] = index.get(node2);
+					out[i][size] = ((String) node.incoming.elementAt(j)).compareTo("out") == 0;
+					if (out[i][size])
+						outEdge[i][adj[i][size]] = true;
+					else
+						incEdge[i][adj[i][size]] = true;
+					size++;
+				}
+				Vector combinations = MIndx.getKeywComb4Relname(node.getRelationName());
+				keywComb[i] = new Vector[combinations.size()];
+				for (int j = 0; j < keywComb[i].length; j++)
+					keywComb[i][j] = (Vector) combinations.elementAt(j);
+				isP1[i] = node.getRelationName().compareTo("P1") == 0;
+				isP2[i] = node.getRelationName().compareTo("P2") == 0;
+				isPP[i] = node.getRelationName().compareTo("PP") == 0;
+			}
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					many2many[i][j] = outEdge[i][j] && incEdge[i][j];
+		}
+	}
+
+	private final SchemaNodes sch;
+	private final int root;
+	private final int[] relation; // schema node of each node
+	private final Vector[] keywords; // keywords of each node, never modified
+	private final int[][] adj;
+	private final boolean[][] out;
+	private volatile String signature = null;
+
+	private CNGraph(SchemaNodes sch, int root, int[] relation, Vector[] keywords, int[][] adj, boolean[][] out) {
+		this.sch = sch;
+		this.root = root;
+		this.relation = relation;
+		this.keywords = keywords;
+		this.adj = adj;
+		this.out = out;
+	}
+
+	// the single tuple set of schema node s with the keywords of s
+	static CNGraph tupleSet(SchemaNodes sch, int s) {
+		return new CNGraph(sch, 0, new int[] { s }, new Vector[] { sch.nodes[s].keywords }, new int[][] { {} },
+				new boolean[][] { {} });
+	}
+
+	int getNumNodes() {
+		return relation.length;
+	}
+
+	// same as Instance.getsize, #joins
+	int getsize() {
+		return relation.length - 1;
+	}
+
+	// the number of non free tuple sets, as Schema.numFreeTSs
+	int numFreeTSs() {
+		int count = 0;
+		for (int i = 0; i < keywords.length; i++)
+			if (!keywords[i].isEmpty())
+				count++;
+		return count;
+	}
+
+	int getMaxDegree() {
+		int max = 0;
+		for (int i = 0; i < adj.length; i++)
+			max = Math.max(max, adj[i].length);
+		return max;
+	}
+
+	/**
+	 * Adds to expansions every network with one more tuple set, in the order of
+	 * Instance.getExpansions. Each expansion is rooted at the node it extends.
+	 */
+	void getExpansions(ArrayList<CNGraph> expansions) {
+		boolean[] visited = new boolean[relation.length];
+		visited[root] = true;
+		getExpansions(root, visited, expansions);
+	}
+
+	private void getExpansions(int node, boolean[] visited, ArrayList<CNGraph> expansions) {
+		int s = relation[node];
+		for (int j = 0; j < sch.adj[s].length; j++) {
+			int s2 = sch.adj[s][j];
+			for (int c = 0; c < sch.keywComb[s2].length; c++)
+				expansions.add(expand(node, s2, sch.keywComb[s2][c], sch.out[s][j]));
+		}
+		for (int j = 0; j < adj[node].length; j++)
+			if (!visited[adj[node][j]]) {
+				visited[adj[node][j]] = true;
+				getExpansions(adj[node][j], visited, expansions);
+			}
+	}
+
+	private CNGraph expand(int node, int s, Vector keyw, boolean outgoing) {
+		int n = relation.length;
+		int[] newRelation = Arrays.copyOf(relation, n + 1);
+		newRelation[n] = s;
+		Vector[] newKeywords = Arrays.copyOf(keywords, n + 1);
+		newKeywords[n] = keyw;
+		int[][] newAdj = Arrays.copyOf(adj, n + 1);
+		boolean[][] newOut = Arrays.copyOf(out, n + 1);
+		int degree = adj[node].length;
+		newAdj[node] = Arrays.copyOf(adj[node], degree + 1);
+		newAdj[node][degree] = n;
+		newOut[node] = Arrays.copyOf(out[node], degree + 1);
+		newOut[node][degree] = outgoing;
+		newAdj[n] = new int[] { node };
+		newOut[n] = new boolean[] { !outgoing };
+		return new CNGraph(sch, node, newRelation, newKeywords, newAdj, newOut);
+	}
+
+	// same as Instance.twoIdentTuples
+	boolean twoIdentTuples() {
+		for (int in = 0; in < adj.length; in++) {
+			int s = relation[in];
+			for (int j = 0; j < adj[in].length; j++) {
+				int sj = relation[adj[in][j]];
+				if (sch.many2many[s][sj] || out[in][j])
+					continue;
+				for (int k = 0; k < adj[in].length; k++) {
+					if (k == j || out[in][k])
+						continue;
+					int sk = relation[adj[in][k]];
+					if (sj == sk || (!sch.isPP[s] && ((sch.isP1[sj] && sch.isP2[sk]) || (sch.isP2[sj] && sch.isP1[sk]))))
+						return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// same as Instance.hasFreeTSLeaf
+	boolean hasFreeTSLeaf() {
+		for (int i = 0; i < adj.length; i++)
+			if (adj[i].length == 1 && keywords[i].isEmpty())
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return a string that is equal for isomorphic networks, whatever their
+	 *         root and the order of their edges: the smallest encoding over all
+	 *         roots of the relations, P1 and P2 being the same, and the sorted
+	 *         keywords of the nodes, with the subtrees of each node sorted
+	 */
+	String getSignature() {
+		if (signature == null) {
+			String min = null;
+			for (int i = 0; i < relation.length; i++) {
+				String s = encode(i, -1);
+				if (min == null || s.compareTo(min) < 0)
+					min = s;
+			}
+			signature = min;
+		}
+		return signature;
+	}
+
+	// the tuple set of node followed by its sorted subtrees away from parent
+	private String encode(int node, int parent) {
+		ArrayList<String> subtrees = new ArrayList<String>(adj[node].length);
+		for (int j = 0; j < adj[node].length; j++)
+			if (adj[node][j] != parent)
+				subtrees.add((out[node][j] ? ">" : "<") + encode(adj[node][j], node));
+		Collections.sort(subtrees);
+		StringBuilder sb = new StringBuilder();
+		appendTupleSet(sb, node);
+		sb.append('[');
+		for (String subtree : subtrees)
+			sb.append(subtree);
+		return sb.append(']').toString();
+	}
+
+	private void appendTupleSet(StringBuilder sb, int node) {
+		int s = relation[node];
+		sb.append(sch.isP2[s] ? "P1" : sch.nodes[s].getRelationName()).append('(');
+		String[] keyw = new String[keywords[node].size()];
+		keywords[node].copyInto(keyw);
+		Arrays.sort(keyw);
+		for (int k = 0; k < keyw.length; k++)
+			sb.append(keyw[k].length()).append(':').append(keyw[k]);
+		sb.append(')');
+	}
+
+	// the Instance tree of this network, rooted at the root node
+	Instance toInstance() {
+		Instance[] instances = new Instance[relation.length];
+		for (int i = 0; i < instances.length; i++) {
+			instances[i] = sch.nodes[relation[i]].getTupleSet();
+			instances[i].keywords = (Vector) keywords[i].clone();
+		}
+		for (int i = 0; i < instances.length; i++)
+			for (int j = 0; j < adj[i].length; j++)
+				instances[i].addAdjInstance(instances[adj[i][j]], out[i][j] ? "out" : "inc");
+		return instances[root];
+	}
+
+}
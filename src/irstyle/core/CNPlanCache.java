@@ -0,0 +1,165 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import irstyle.api.Params;
+
+/**
+ * Candidate networks generated by Schema.getCNs, by keyword coverage
+ * signature. The CNs only depend on the schema, the CN size limits, the number
+ * of keywords and on which keywords each relation and each non empty tuple set
+ * has, so keywords are recorded by their position in the query and a query
+ * with the same coverage gets copies of the cached CNs with its own keywords.
+ * The least recently used signatures are evicted once there are more than
+ * Params.cnPlanCacheSize of them.
+ */
+public class CNPlanCache {
+
+	/**
+	 * The SQL of a cached CN, shared by its copies.
+	 */
+	static class Plan {
+		// the SQL and the non free tuple sets of the CN by relations key
+		private final Map<String, String> sqls = new HashMap<String, String>();
+		private final Map<String, ArrayList> nfreeTSs = new HashMap<String, ArrayList>();
+
+		// the parameterized SQL for relations, or null if not known yet
+		synchronized String getSQL(String relationsKey, ArrayList nfreeTSs) {
+			String sql = sqls.get(relationsKey);
+			if (sql != null)
+				nfreeTSs.addAll(this.nfreeTSs.get(relationsKey));
+			return sql;
+		}
+
+		synchronized void putSQL(String relationsKey, String sql, ArrayList nfreeTSs) {
+			sqls.put(relationsKey, sql);
+			this.nfreeTSs.put(relationsKey, new ArrayList(nfreeTSs));
+		}
+	}
+
+	private static class Entry {
+		final Instance[] CNs;
+		final Plan[] plans;
+		final Vector allkeyw;
+
+		Entry(Instance[] CNs, Vector allkeyw) {
+			this.CNs = CNs;
+			this.allkeyw = allkeyw;
+			plans = new Plan[CNs.length];
+			for (int i = 0; i < plans.length; i++)
+				plans[i] = new Plan();
+		}
+	}
+
+	private static final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > Params.cnPlanCacheSize;
+		}
+	};
+
+	private static int numHits = 0;
+	private static int numMisses = 0;
+
+	/**
+	 * @return the signature of the CNs of the keywords allkeyw, or null if they
+	 *         cannot be cached
+	 */
+	static String getSignature(Schema sch, MIndexAccess MI, Vector allkeyw, int maxsize) {
+		if (Params.cnPlanCacheSize <= 0 || sch.getDescription() == null)
+			return null;
+		StringBuilder sb = new StringBuilder();
+		sb.append(sch.getDescription()).append('|').append(maxsize).append('|').append(Params.MAX_GENERATED_CN)
+				.append('|').append(allkeyw.size());
+		Vector v = sch.getAllInstances();
+		for (int i = 0; i < v.size(); i++) {
+			Instance inst = (Instance) v.elementAt(i);
+			sb.append('|').append(inst.getRelationName());
+			if (!appendKeywords(sb, inst.keywords, allkeyw))
+				return null;
+		}
+		sb.append('|');
+		if (!MI.appendCoverage(sb, allkeyw))
+			return null;
+		return sb.toString();
+	}
+
+	// appends the positions of keywords in allkeyw, false if one is not there
+	static boolean appendKeywords(StringBuilder sb, Vector keywords, Vector allkeyw) {
+		for (int i = 0; i < keywords.size(); i++) {
+			int k = allkeyw.indexOf(keywords.elementAt(i));
+			if (k < 0)
+				return false;
+			sb.append(',').append(k);
+		}
+		return true;
+	}
+
+	/**
+	 * @return copies of the CNs cached for signature with the keywords of
+	 *         allkeyw, or null if there are none
+	 */
+	static Vector get(String signature, Vector allkeyw) {
+		Entry entry;
+		synchronized (entries) {
+			entry = entries.get(signature);
+			if (entry == null) {
+				numMisses++;
+				return null;
+			}
+			numHits++;
+		}
+		return copy(entry, allkeyw);
+	}
+
+	/**
+	 * Caches CNs and returns copies of them, whose SQL is then generated once per
+	 * signature.
+	 */
+	static Vector put(String signature, Vector CNs, Vector allkeyw) {
+		Instance[] templates = new Instance[CNs.size()];
+		for (int i = 0; i < templates.length; i++)
+			templates[i] = (Instance) ((Instance) CNs.elementAt(i)).clone();
+		Entry entry = new Entry(templates, (Vector) allkeyw.clone());
+		synchronized (entries) {
+			entries.put(signature, entry);
+		}
+		return copy(entry, allkeyw);
+	}
+
+	private static Vector copy(Entry entry, Vector allkeyw) {
+		Vector CNs = new Vector(entry.CNs.length);
+		for (int i = 0; i < entry.CNs.length; i++) {
+			Instance CN = (Instance) entry.CNs[i].clone();
+			Vector v = CN.getAllInstances();
+			for (int j = 0; j < v.size(); j++) {
+				Instance inst = (Instance) v.elementAt(j);
+				Vector keywords = new Vector(inst.keywords.size());
+				for (int k = 0; k < inst.keywords.size(); k++)
+					keywords.addElement(allkeyw.elementAt(entry.allkeyw.indexOf(inst.keywords.elementAt(k))));
+				inst.keywords = keywords;
+			}
+			CN.plan = entry.plans[i];
+			CNs.addElement(CN);
+		}
+		return CNs;
+	}
+
+	public static String getStats() {
+		synchronized (entries) {
+			return "CN plan cache: " + entries.size() + " signatures, " + numHits + " hits, " + numMisses + " misses";
+		}
+	}
+
+	public static void clear() {
+		synchronized (entries) {
+			entries.clear();
+			numHits = 0;
+			numMisses = 0;
+		}
+	}
+
+}
@@ -0,0 +1,159 @@
+package irstyle.core;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Vector;
+
+/**
+ * In-memory AdjacencyIndex. Column values are kept column-wise in int arrays
+ * and every column has a compressed sparse row index: the distinct values in
+ * ascending order, and for each of them an offset into the row numbers sorted
+ * by value.
+ */
+public class CSRAdjacencyIndex implements AdjacencyIndex {
+
+	private final String name;
+	private final String[] columnNames;
+	private final int numRows;
+	private final int[][] values; // values[column][row]
+	private final int[][] keys; // distinct values of each column, ascending
+	private final int[][] offsets; // rows of keys[c][k] are rows[c][offsets[c][k]..offsets[c][k+1])
+	private final int[][] rows;
+
+	/**
+	 * @param values
+	 *            values[c] holds the values of column c for all rows; the arrays
+	 *            are kept, not copied
+	 */
+	public CSRAdjacencyIndex(String name, String[] columnNames, int[][] values) {
+		this.name = name;
+		this.columnNames = columnNames;
+		this.values = values;
+		numRows = values.length == 0 ? 0 : values[0].length;
+		keys = new int[columnNames.length][];
+		offsets = new int[columnNames.length][];
+		rows = new int[columnNames.length][];
+		for (int c = 0; c < columnNames.length; c++)
+			buildColumnIndex(c);
+	}
+
+	private void buildColumnIndex(int c) {
+		int[] column = values[c];
+		// sort row numbers by value with a primitive sort on (value, row) pairs
+		long[] pairs = new long[numRows];
+		for (int r = 0; r < numRows; r++)
+			pairs[r] = ((long) column[r] << 32) | r;
+		Arrays.sort(pairs);
+		int[] sortedRows = new int[numRows];
+		int numKeys = 0;
+		for (int i = 0; i < numRows; i++) {
+			sortedRows[i] = (int) pairs[i];
+			if (i == 0 || (int) (pairs[i] >> 32) != (int) (pairs[i - 1] >> 32))
+				numKeys++;
+		}
+		int[] columnKeys = new int[numKeys];
+		int[] columnOffsets = new int[numKeys + 1];
+		int k = -1;
+		for (int i = 0; i < numRows; i++) {
+			int value = (int) (pairs[i] >> 32);
+			if (k < 0 || columnKeys[k] != value) {
+				columnKeys[++k] = value;
+				columnOffsets[k] = i;
+			}
+		}
+		columnOffsets[numKeys] = numRows;
+		keys[c] = columnKeys;
+		offsets[c] = columnOffsets;
+		rows[c] = sortedRows;
+	}
+
+	/**
+	 * Reads the join attributes of all rows of rel.
+	 */
+	public static CSRAdjacencyIndex load(JDBCaccess jdbcacc, Relation rel) {
+		Vector attrs = rel.getJoinAttributes();
+		return load(jdbcacc, rel.getName(), (String[]) attrs.toArray(new String[attrs.size()]));
+	}
+
+	/**
+	 * Reads the given integer columns of all rows of a table.
+	 */
+	public static CSRAdjacencyIndex load(JDBCaccess jdbcacc, String table, String[] columnNames) {
+		String sql = "select " + String.join(", ", columnNames) + " from " + table;
+		int[][] values = new int[columnNames.length][1024];
+		int numRows = 0;
+		try (Statement stmt = jdbcacc.conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				if (numRows == values[0].length)
+					for (int c = 0; c < columnNames.length; c++)
+						values[c] = Arrays.copyOf(values[c], numRows * 2);
+				for (int c = 0; c < columnNames.length; c++)
+					values[c][numRows] = rs.getInt(c + 1);
+				numRows++;
+			}
+		} catch (Exception e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ " exception in CSRAdjacencyIndex.load: " + sql);
+			return null;
+		}
+		for (int c = 0; c < columnNames.length; c++)
+			values[c] = Arrays.copyOf(values[c], numRows);
+		return new CSRAdjacencyIndex(table, columnNames, values);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public int getColumnIndex(String columnName) {
+		for (int c = 0; c < columnNames.length; c++)
+			if (columnNames[c].equals(columnName))
+				return c;
+		return -1;
+	}
+
+	public int getValue(int row, int column) {
+		return values[column][row];
+	}
+
+	public int begin(int column, int value) {
+		int k = Arrays.binarySearch(keys[column], value);
+		return k < 0 ? 0 : offsets[column][k];
+	}
+
+	public int end(int column, int value) {
+		int k = Arrays.binarySearch(keys[column], value);
+		return k < 0 ? 0 : offsets[column][k + 1];
+	}
+
+	public int getRow(int column, int position) {
+		return rows[column][position];
+	}
+
+	// the arrays of column c, for MappedAdjacencyIndex.write
+	int[] getValues(int c) {
+		return values[c];
+	}
+
+	int[] getKeys(int c) {
+		return keys[c];
+	}
+
+	int[] getOffsets(int c) {
+		return offsets[c];
+	}
+
+	int[] getRows(int c) {
+		return rows[c];
+	}
+
+}
@@ -0,0 +1,127 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Enumerates the cross product of the tuples retrieved from the non free tuple
+ * sets of a CN in descending order of combination score, the sum of the tuple
+ * scores divided by the CN size. Once the best remaining combination cannot
+ * beat the given minimum score, the remaining combinations are skipped and
+ * counted as pruned.
+ *
+ * Every combination is generated once, from the combination that has one less
+ * in its last non zero position; since each list is ordered by descending score
+ * a combination never scores higher than the one it is generated from, so a
+ * heap of the generated combinations yields them best first.
+ */
+class CombinationIterator {
+
+	private static class Entry {
+		final int[] positions; // positions in the sorted lists
+		final long sum;
+		final long seq;
+
+		Entry(int[] positions, long sum, long seq) {
+			this.positions = positions;
+			this.sum = sum;
+			this.seq = seq;
+		}
+	}
+
+	private final int numDims;
+	private final int CNsize;
+	private final int[][] sortedIndexes; // indexes of list i in descending score order
+	private final int[][] sortedScores;
+	private final PriorityQueue<Entry> heap;
+	private final long numCombinations;
+	private long numReturned = 0;
+	private long numPruned = 0;
+	private long seq = 0;
+
+	/**
+	 * @param scoresS
+	 *            Integer scores of the tuples retrieved from each non free tuple
+	 *            set; only the first numDims lists are used
+	 */
+	CombinationIterator(ArrayList[] scoresS, int numDims, int CNsize) {
+		this.numDims = numDims;
+		this.CNsize = CNsize;
+		sortedIndexes = new int[numDims][];
+		sortedScores = new int[numDims][];
+		long num = 1;
+		for (int d = 0; d < numDims; d++) {
+			int size = scoresS[d].size();
+			num *= size;
+			long[] keys = new long[size];
+			for (int i = 0; i < size; i++) // descending score, then ascending index
+				keys[i] = ((long) -((Integer) scoresS[d].get(i)).intValue() << 32) | i;
+			Arrays.sort(keys);
+			sortedIndexes[d] = new int[size];
+			sortedScores[d] = new int[size];
+			for (int i = 0; i < size; i++) {
+				sortedIndexes[d][i] = (int) keys[i];
+				sortedScores[d][i] = ((Integer) scoresS[d].get(sortedIndexes[d][i])).intValue();
+			}
+		}
+		numCombinations = num;
+		heap = new PriorityQueue<Entry>(Math.max(numDims, 1) * 4, (a, b) -> {
+			if (a.sum != b.sum)
+				return a.sum > b.sum ? -1 : 1;
+			return Long.compare(a.seq, b.seq);
+		});
+		if (num > 0) {
+			long sum = 0;
+			for (int d = 0; d < numDims; d++)
+				sum += sortedScores[d][0];
+			heap.add(new Entry(new int[numDims], sum, seq++));
+		}
+	}
+
+	/**
+	 * @return the indexes in the score lists of the next best combination, or null
+	 *         if there is none with a score above minScore
+	 */
+	int[] next(double minScore) {
+		Entry entry = heap.peek();
+		if (entry == null || ((double) entry.sum) / CNsize <= minScore) {
+			if (entry != null)
+				numPruned = numCombinations - numReturned;
+			heap.clear();
+			return null;
+		}
+		heap.poll();
+		int last = numDims - 1;
+		while (last > 0 && entry.positions[last] == 0)
+			last--;
+		for (int d = last; d < numDims; d++) {
+			int p = entry.positions[d] + 1;
+			if (p >= sortedScores[d].length)
+				continue;
+			int[] positions = entry.positions.clone();
+			positions[d] = p;
+			heap.add(new Entry(positions, entry.sum - sortedScores[d][p - 1] + sortedScores[d][p], seq++));
+		}
+		int[] indexes = new int[numDims];
+		for (int d = 0; d < numDims; d++)
+			indexes[d] = sortedIndexes[d][entry.positions[d]];
+		numReturned++;
+		return indexes;
+	}
+
+	long getNumCombinations() {
+		return numCombinations;
+	}
+
+	/**
+	 * @return the number of combinations that were not returned because they could
+	 *         not beat the minimum score, 0 until next returned null for that
+	 *         reason. Combinations left when the caller stops early are not
+	 *         counted.
+	 */
+	long getNumPruned() {
+		return numPruned;
+	}
+
+}
@@ -3,6 +3,12 @@ package irstyle.core;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import irstyle.api.Params;
 
@@ -11,9 +17,50 @@ public class ExecPrepared {
 	private double[] maxScores; // max scores possible so far for each CN
 	private ArrayList[] resultSets; // list of ResultSet lists. One for each CN
 
+	// tuples of the tuple sets held in memory, by tuple set name
+	private Map<String, ScoredIds> tupleSets = null;
+
+	// the time budget of the query, or null for MAX_ALLOWED_TIME
+	private QueryDeadline deadline = null;
+
 	public ExecPrepared() {
 	}
 
+	/**
+	 * Makes the non free tuple sets be read from tupleSets instead of their
+	 * tables. Tuple sets that are not in the map are still read from the database.
+	 */
+	public void setTupleSets(Map<String, ScoredIds> tupleSets) {
+		this.tupleSets = tupleSets;
+	}
+
+	/**
+	 * Makes the threshold algorithms stop with the results found so far once
+	 * deadline expires, instead of after MAX_ALLOWED_TIME.
+	 */
+	public void setDeadline(QueryDeadline deadline) {
+		this.deadline = deadline;
+	}
+
+	// true if the query is out of time, time1 being the start of the execution
+	private boolean isOutOfTime(long time1) {
+		if (deadline != null)
+			return deadline.isExpired();
+		return System.currentTimeMillis() - time1 > Params.MAX_ALLOWED_TIME;
+	}
+
+	// true if the deadline of the query expired, false if there is none
+	private boolean isExpired() {
+		return deadline != null && deadline.isExpired();
+	}
+
+	private TupleSetCursor openTupleSet(JDBCaccess jdbcacc, String TSname) {
+		ScoredIds tuples = tupleSets != null ? tupleSets.get(TSname) : null;
+		if (tuples != null)
+			return TupleSetCursor.create(tuples);
+		return jdbcacc.createTupleSetCursor(TSname, Params.tupleSetPageSize, Params.prefetchTupleSets);
+	}
+
 	private int getNumCombinations(ArrayList[] nodelists) {
 		int numComb = 1;
 		for (int i = 0; i < nodelists.length; i++)
@@ -142,32 +189,9 @@ public class ExecPrepared {
 		return score / CNSize;
 	}
 
-	private int addResult(double score, String result, ArrayList R, ArrayList scoresR, int N) {
-		// adds result to results array R if result is in top-N results returns new
-		// resultsSoFar
-		int i = 0;
-		for (i = 0; i < R.size(); i++)
-			if (score > ((Double) scoresR.get(i)).doubleValue())
-				break;
-		// if(i>0) i--;
-		if (i > N)
-			return R.size();
-		R.add(i, result);
-		scoresR.add(i, new Double(score));
-		if (R.size() > N) {
-			int size = R.size();
-			for (int j = N; j < size; j++) {
-				R.remove(R.size() - 1);
-				scoresR.remove(scoresR.size() - 1);
-			}
-		}
-		return R.size();
-	}
-
 	// check for results and add them to R returns new resultsSoFar
 	private int check4Results(JDBCaccess jdbcacc, PreparedStatement prepared, ArrayList[] S, ArrayList[] scoresS,
-			int[] indexToBeChecked, ArrayList R, ArrayList scoresR, int N, int CNsize, ArrayList keywords,
-			boolean allKeywInResults) {
+			int[] indexToBeChecked, TopNCollector<ResultRow> R, int CNsize, ArrayList keywords, boolean allKeywInResults) {
 		try {
 			int numparams = indexToBeChecked.length;
 			// int numresults=0;
@@ -180,18 +204,18 @@ public class ExecPrepared {
 			if (Flags.DEBUG_INFO2)
 				System.out.println("");
 			ResultSet rs = jdbcacc.executePrepared(prepared);
-			if (rs == null)
-				System.out.println("rs==null " + prepared.toString());
-			else
+			// all joined rows of one combination share its score
+			double score = getScore(scoresS, indexToBeChecked, CNsize);
+			if (rs == null) {
+				if (!jdbcacc.isOutOfTime())
+					System.out.println("rs==null " + prepared.toString());
+			} else
 				while (rs.next()) {
 					// numresults++;
-					double score = getScore(scoresS, indexToBeChecked, CNsize);
-					if (!allKeywInResults)
-						addResult(score, jdbcacc.getResult(rs), R, scoresR, N);
-					else {
-						String str = jdbcacc.getResult(rs);
-						if (jdbcacc.containsAll(str, keywords))
-							addResult(score, str, R, scoresR, N);
+					if (R.accepts(score)) {
+						ResultRow row = jdbcacc.getResultRow(prepared, rs, 1);
+						if (!allKeywInResults || row.containsAll(keywords))
+							R.add(score, row);
 					}
 					if (Flags.RESULTS__SHOW_OUTPUT)
 						jdbcacc.printResult(rs);
@@ -209,8 +233,8 @@ public class ExecPrepared {
 	// check for results and add them to R returns new results SoFar differs in that
 	// it inputs numnfreeTSs
 	private int check4ResultsParallel(JDBCaccess jdbcacc, PreparedStatement prepared, ArrayList[] S,
-			ArrayList[] scoresS, int[] indexToBeChecked, ArrayList R, ArrayList scoresR, int N, int CNsize,
-			int numnfreeTSs, ArrayList keywords, boolean allKeywInResults) {
+			ArrayList[] scoresS, int[] indexToBeChecked, TopNCollector<ResultRow> R, int CNsize, int numnfreeTSs,
+			ArrayList keywords, boolean allKeywInResults) {
 		try {
 			int numparams = numnfreeTSs;// indexToBeChecked.length;
 			// int numresults=0;
@@ -223,15 +247,16 @@ public class ExecPrepared {
 			if (Flags.DEBUG_INFO2)
 				System.out.println("");
 			ResultSet rs = jdbcacc.executePrepared(prepared);
+			if (rs == null) // cancelled on the deadline, or failed
+				return R.size();
+			// all joined rows of one combination share its score
+			double score = getScore(scoresS, indexToBeChecked, CNsize, numnfreeTSs);
 			while (rs.next()) {
 				// numresults++;
-				double score = getScore(scoresS, indexToBeChecked, CNsize, numnfreeTSs);
-				if (!allKeywInResults)
-					addResult(score, jdbcacc.getResult(rs), R, scoresR, N);
-				else {
-					String str = jdbcacc.getResult(rs);
-					if (jdbcacc.containsAll(str, keywords))
-						addResult(score, str, R, scoresR, N);
+				if (R.accepts(score)) {
+					ResultRow row = jdbcacc.getResultRow(prepared, rs, 1);
+					if (!allKeywInResults || row.containsAll(keywords))
+						R.add(score, row);
 				}
 				if (Flags.RESULTS__SHOW_OUTPUT)
 					jdbcacc.printResult(rs);
@@ -246,80 +271,75 @@ public class ExecPrepared {
 		}
 	}
 
-	private double getMax_rTi(int[] B, int[] lookaheadscores, int CNsize) {
-		double max = -1;
-		for (int i = 0; i < B.length; i++) {
-			double[] scores = new double[B.length];
-			for (int j = 0; j < B.length; j++) {
-				if (i != j)
-					scores[j] = B[j];
-				else if (lookaheadscores[j] == -1)
-					scores[j] = 0;
-				else
-					scores[j] = lookaheadscores[j];
-			}
-			double score = getScore(scores, CNsize);
-			if (score > max && lookaheadscores[i] >= 0) // 10/20/02
-				max = score;
+	// dispatches to the in-memory CN if there is one
+	private int check4ResultsParallel(JDBCaccess jdbcacc, PreparedStatement prepared, InMemoryCN inMemoryCN,
+			ArrayList[] S, ArrayList[] scoresS, int[] indexToBeChecked, TopNCollector<ResultRow> R, int CNsize,
+			int numnfreeTSs, ArrayList keywords, boolean allKeywInResults) {
+		if (inMemoryCN == null)
+			return check4ResultsParallel(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize, numnfreeTSs,
+					keywords, allKeywInResults);
+		int[] ids = new int[numnfreeTSs];
+		int[] idScores = new int[numnfreeTSs];
+		for (int i = 0; i < numnfreeTSs; i++) {
+			ids[i] = ((Integer) S[i].get(indexToBeChecked[i])).intValue();
+			idScores[i] = ((Integer) scoresS[i].get(indexToBeChecked[i])).intValue();
 		}
-		return max;
+		inMemoryCN.check4Results(ids, idScores, getScore(scoresS, indexToBeChecked, CNsize, numnfreeTSs), R);
+		return R.size();
+	}
+
+	// score a combination has to beat to make the top-N
+	private double getMinScore(TopNCollector<ResultRow> R, SharedThreshold threshold) {
+		if (threshold == null)
+			return R.nthScore();
+		return Math.max(R.nthScore(), threshold.get());
+	}
+
+	// r(Ti) of the i-th non free TS: the score of a combination of its lookahead
+	// tuple with the top tuples of all other TSs. Sums are over int scores, so no
+	// score array is needed per i
+	private double get_rTi(long sumB, int[] B, int[] lookaheadscores, int i, int CNsize) {
+		long sum = sumB - B[i];
+		if (lookaheadscores[i] != -1)
+			sum += lookaheadscores[i];
+		return ((double) sum) / CNsize;
+	}
+
+	private long sum(int[] B, int numnfreeTSs) {
+		long sum = 0;
+		for (int j = 0; j < numnfreeTSs; j++)
+			sum += B[j];
+		return sum;
+	}
+
+	private double getMax_rTi(int[] B, int[] lookaheadscores, int CNsize) {
+		return getMax_rTiParallel(B, lookaheadscores, CNsize, B.length);
 	}
 
 	private double getMax_rTiParallel(int[] B, int[] lookaheadscores, int CNsize, int numnfreeTSs) {
 		double max = -1;
+		long sumB = sum(B, numnfreeTSs);
 		for (int i = 0; i < numnfreeTSs; i++) {
-			double[] scores = new double[numnfreeTSs];
-			for (int j = 0; j < numnfreeTSs; j++)
-				if (i != j)
-					scores[j] = B[j];
-				else if (lookaheadscores[j] == -1)
-					scores[j] = 0;
-				else
-					scores[j] = lookaheadscores[j];
-			double score = getScore(scores, CNsize);
-			if (score > max && lookaheadscores[i] >= 0)
+			if (lookaheadscores[i] < 0) // 10/20/02
+				continue;
+			double score = get_rTi(sumB, B, lookaheadscores, i, CNsize);
+			if (score > max)
 				max = score;
 		}
 		return max;
 	}
 
 	private int getIndexOfMax_rTi(int[] B, int[] lookaheadscores, int CNsize) {
-		double max = -1;
-		int index = -1;
-		for (int i = 0; i < B.length; i++) {
-			if (lookaheadscores[i] != -1) {
-				double[] scores = new double[B.length];
-				for (int j = 0; j < B.length; j++)
-					if (i != j)
-						scores[j] = B[j];
-					else if (lookaheadscores[j] == -1)
-						scores[j] = 0;
-					else
-						scores[j] = lookaheadscores[j];
-				double score = getScore(scores, CNsize);
-				if (score > max) {
-					max = score;
-					index = i;
-				}
-			}
-		}
-		return index;
+		return getIndexOfMax_rTiParallel(B, lookaheadscores, CNsize, B.length);
 	}
 
 	private int getIndexOfMax_rTiParallel(int[] B, int[] lookaheadscores, int CNsize, int numnfreeTSs) {
 		double max = -1;
 		int index = -1;
+		long sumB = sum(B, numnfreeTSs);
 		for (int i = 0; i < numnfreeTSs; i++) {
 			if (lookaheadscores[i] != -1) {
-				double[] scores = new double[numnfreeTSs];
-				for (int j = 0; j < numnfreeTSs; j++)
-					if (i != j)
-						scores[j] = B[j];
-					else if (lookaheadscores[j] == -1)
-						scores[j] = 0;
-					else
-						scores[j] = lookaheadscores[j];
-				double score = getScore(scores, CNsize);
+				double score = get_rTi(sumB, B, lookaheadscores, i, CNsize);
 				if (score > max) {
 					max = score;
 					index = i;
@@ -329,23 +349,30 @@ public class ExecPrepared {
 		return index;
 	}
 
-	boolean foundTopN(ArrayList R, ArrayList scoresR, int[] lookaheadscores, int[] B, int N, int CNsize) {
+	boolean foundTopN(TopNCollector<ResultRow> R, int[] lookaheadscores, int[] B, int CNsize) {
 		// check if R.size<N or R[N]<max r(Ti)
-		if (R.size() > N)
-			System.out.println("Error: R.size()>N");
-		else if (R.size() < N)
+		if (!R.isFull())
 			return false;
-		else if (((Double) scoresR.get(N - 1)).doubleValue() < getMax_rTi(B, lookaheadscores, CNsize))
+		else if (R.nthScore() < getMax_rTi(B, lookaheadscores, CNsize))
 			return false;
 		return true;
 	}
 
-	boolean foundTopNParallel(ArrayList R, ArrayList scoresR, int[][] lookaheadscores, int[][] B, int N, int[] CNsize,
+	boolean foundTopNParallel(TopNCollector<ResultRow> R, int[][] lookaheadscores, int[][] B, int[] CNsize,
 			int[] numnfreeTSs) {
-		// check if R.size<N or R[N]<max r(Ti)
-		if (R.size() > N)
-			System.out.println("Error: R.size()>N");
-		else if (R.size() < N)
+		return foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs, null);
+	}
+
+	boolean foundTopNParallel(TopNCollector<ResultRow> R, int[][] lookaheadscores, int[][] B, int[] CNsize,
+			int[] numnfreeTSs, SharedThreshold threshold) {
+		// check if R.size<N or R[N]<max r(Ti). With a shared threshold R[N] is the
+		// best N-th score of all workers
+		double nthScore = R.nthScore();
+		if (threshold != null) {
+			threshold.raise(nthScore);
+			nthScore = Math.max(nthScore, threshold.get());
+		}
+		if (nthScore == Double.NEGATIVE_INFINITY)
 			return false;
 		else {
 			int numCNs = B.length;
@@ -357,23 +384,28 @@ public class ExecPrepared {
 				if (Flags.DEBUG_INFO2)
 					System.out.println("CN:" + c + "max_rTiofCN=" + max_rTiofCN);
 			}
-			if (((Double) scoresR.get(N - 1)).doubleValue() < max_rTi)
+			if (nthScore < max_rTi)
 				return false;
 		}
 		return true;
 	}
 
-	private void printResults(ArrayList R, ArrayList scoresR) {
-		System.out.println("print results");
-		for (int i = 0; i < R.size(); i++)
-			System.out.println(((String) R.get(i)) + "------" + ((Double) scoresR.get(i)).doubleValue());
-	}
-
 	// returns time also adds results and their scores to ResultsAndScores, which is
 	// an ArrayList of type Result
 	public int ExecuteParameterized(JDBCaccess jdbcacc, String sql, ArrayList nfreeTSs, ArrayList keywords, int N,
 			int CNsize, ArrayList ResultsAndScores, boolean allKeywInResults) {
+		return ExecuteParameterized(jdbcacc, sql, null, 1, nfreeTSs, keywords, N, CNsize, ResultsAndScores,
+				allKeywInResults);
+	}
+
+	// batchedSql is the statement of Instance.getSQLstatementBatched for
+	// batchSize, or null to verify one combination per execution. Without a
+	// deadline the CN is verified to its end, as it always was
+	public int ExecuteParameterized(JDBCaccess jdbcacc, String sql, String batchedSql, int batchSize,
+			ArrayList nfreeTSs, ArrayList keywords, int N, int CNsize, ArrayList ResultsAndScores,
+			boolean allKeywInResults) {
 		int numPreparedQueries = 0;
+		long numPrunedCombinations = 0;
 		if (Flags.DEBUG_INFO) {
 			String str = "ExecuteParameterized " + sql;
 			for (int i = 0; i < nfreeTSs.size(); i++)
@@ -386,14 +418,17 @@ public class ExecPrepared {
 
 		long time1 = System.currentTimeMillis();
 		int resultsSoFar = 0;
-		PreparedStatement prepared = jdbcacc.createPreparedStatement(sql);
+		PreparedStatement prepared = jdbcacc.getCachedStatement(sql);
 		int numkeywords = keywords.size();
 		int numnfreeTSs = nfreeTSs.size();
+		ProbeBatch batch = null;
+		if (batchedSql != null && batchSize > 1)
+			batch = new ProbeBatch(jdbcacc.getCachedStatement(batchedSql), numnfreeTSs, batchSize);
 		// keep the ids retrieved so far from nfree TS[i]
 		ArrayList[] S = new ArrayList[numnfreeTSs];
 		// keep the scores of the ids retrieved so far from nfree TS[i]
 		ArrayList[] scoresS = new ArrayList[numnfreeTSs];
-		ResultSet[] rs = new ResultSet[numnfreeTSs];
+		TupleSetCursor[] rs = new TupleSetCursor[numnfreeTSs];
 		// score of top tuple for nfree TS[i]. Used instead of the B(TSi)'s in alg.
 		int[] B = new int[numnfreeTSs];
 		// used to select a particular combination of ids to check for a result
@@ -404,17 +439,16 @@ public class ExecPrepared {
 		// used to keep scores of corresponding ids in lookahead. If -1 then no
 		// lookahead available
 		int[] lookaheadscores = new int[numnfreeTSs];
-		ArrayList R = new ArrayList(N); // to store the Strings of top-N results
-		ArrayList scoresR = new ArrayList(N); // to store the scores (double) of the top-N results
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(N); // top-N results and their scores
 
 		for (int i = 0; i < numnfreeTSs; i++) {
 			S[i] = new ArrayList(1);
 			scoresS[i] = new ArrayList(1);
-			rs[i] = jdbcacc.createCursor("select id,score from " + (String) nfreeTSs.get(i));
-			int id = jdbcacc.getNextID(rs[i]);
+			rs[i] = openTupleSet(jdbcacc, (String) nfreeTSs.get(i));
+			int id = rs[i].getNextID();
 			if (id < 0)
 				System.out.println("not even one tuple in TS!!" + (String) nfreeTSs.get(i));
-			int score = jdbcacc.getCurrScore(rs[i]);
+			int score = rs[i].getCurrScore();
 			S[i].add(new Integer(id));
 			scoresS[i].add(new Integer(score));
 			lookahead[i] = id;
@@ -423,10 +457,10 @@ public class ExecPrepared {
 		}
 		if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 			if (!sameTuple(nfreeTSs, indexToBeChecked, S))
-				resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+				resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 						keywords, allKeywInResults);
 		} else
-			resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+			resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 					keywords, allKeywInResults);
 		// resultsSoFar+=getResults(jdbcacc,prepared, S, indexToBeChecked);
 		for (int i = 0; i < numnfreeTSs; i++) {
@@ -445,11 +479,11 @@ public class ExecPrepared {
 			for (int i = 0; i < numnfreeTSs; i++) {
 				if (lookaheadscores[i] < 0) // no lookahead
 				{
-					lookahead[i] = jdbcacc.getNextID(rs[i]); // if finished will return -1
+					lookahead[i] = rs[i].getNextID(); // if finished will return -1
 					if (lookahead[i] < 0)
 						lookaheadscores[i] = -1;
 					if (lookahead[i] > -1) {
-						lookaheadscores[i] = jdbcacc.getCurrScore(rs[i]);
+						lookaheadscores[i] = rs[i].getCurrScore();
 						allTSsFinished = false;
 					}
 				}
@@ -464,7 +498,7 @@ public class ExecPrepared {
 				// indexOfTopScore=i;
 				// }
 			}
-			if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+			if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 				break;
 			indexOfTopScore = getIndexOfMax_rTi(B, lookaheadscores, CNsize);
 			if (allTSsFinished)
@@ -481,26 +515,41 @@ public class ExecPrepared {
 			scoresS[indexOfTopScore].add(new Integer(lookaheadscores[indexOfTopScore]));
 			lookahead[indexOfTopScore] = -1;
 			lookaheadscores[indexOfTopScore] = -1;
-			int numcombinations = getNumCombinations(S);
-			for (int j = 0; j < numcombinations; j++) {
+			// best combinations first, skipping those that cannot make the top-N
+			CombinationIterator combinations = new CombinationIterator(scoresS, numnfreeTSs, CNsize);
+			int[] combination;
+			while ((combination = combinations.next(R.nthScore())) != null) {
+				if (isExpired())
+					break;
 				numPreparedQueries++;
-				indexToBeChecked = getACombination(S, j);
+				indexToBeChecked = combination;
 				// ignore combinations with same tuple for the same tuple set
 				if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 					if (!sameTuple(nfreeTSs, indexToBeChecked, S)) {
-						resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N,
-								CNsize, keywords, allKeywInResults);
-						if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+						if (batch != null) {
+							batch.add(S, indexToBeChecked, getScore(scoresS, indexToBeChecked, CNsize));
+							if (!batch.isFull())
+								continue;
+							resultsSoFar = batch.flush(jdbcacc, R, keywords, allKeywInResults);
+						} else
+							resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R,
+									CNsize, keywords, allKeywInResults);
+						if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 							break;
 					}
 				} else {
-					resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+					resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 							keywords, allKeywInResults);
-					if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+					if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 						break;
 				}
 			}
-			if (foundtopn)
+			numPrunedCombinations += combinations.getNumPruned();
+			if (batch != null && !batch.isEmpty()) {
+				resultsSoFar = batch.flush(jdbcacc, R, keywords, allKeywInResults);
+				foundtopn = foundTopN(R, lookaheadscores, B, CNsize);
+			}
+			if (foundtopn || isExpired())
 				break;
 			S[indexOfTopScore] = temp;
 			scoresS[indexOfTopScore] = scorestemp;
@@ -510,12 +559,13 @@ public class ExecPrepared {
 		long time2 = System.currentTimeMillis();
 		if (Params.DEBUG) {
 			System.out.println("results output = " + resultsSoFar + " numPreparedQueries = " + numPreparedQueries
-					+ " in time = " + (time2 - time1));
+					+ " pruned = " + numPrunedCombinations
+					+ (batch != null ? " in batches = " + batch.getNumRoundTrips() : "") + " in time = " + (time2 - time1));
 		}
 		if (Flags.RESULTS__SHOW_OUTPUT)
-			printResults(R, scoresR);
-		for (int i = 0; i < R.size(); i++)
-			ResultsAndScores.add(new Result((String) R.get(i), ((Double) scoresR.get(i)).doubleValue()));
+			R.print();
+		R.addTo(ResultsAndScores);
+		jdbcacc.cleanup();
 		return (int) (time2 - time1);
 	}
 
@@ -530,15 +580,151 @@ public class ExecPrepared {
 	public static int lastGenQueries = 0;
 	public static int execCount = 0;
 
+	private int lastNumPreparedQueries = 0;
+	private TopNCollector<ResultRow> lastResults;
+
+	private static synchronized void countGenQueries(int numPreparedQueries) {
+		lastGenQueries = numPreparedQueries;
+		totalGenQueries += numPreparedQueries;
+		execCount++;
+	}
+
 	public int ExecuteParallel(JDBCaccess jdbcacc, String[] sqls, ArrayList[] nfreeTSs, ArrayList keywords, int N,
-			int[] CNsize, ArrayList ResultsAndScores, boolean allKeywInResults) {// input:
+			int[] CNsize, ArrayList ResultsAndScores, boolean allKeywInResults) {
+		return ExecuteParallel(jdbcacc, sqls, null, 1, nfreeTSs, keywords, N, CNsize, ResultsAndScores,
+				allKeywInResults);
+	}
+
+	public int ExecuteParallel(JDBCaccess jdbcacc, String[] sqls, String[] batchedSqls, int batchSize,
+			ArrayList[] nfreeTSs, ArrayList keywords, int N, int[] CNsize, ArrayList ResultsAndScores,
+			boolean allKeywInResults) {
+		int time = executeParallel(jdbcacc, sqls, batchedSqls, batchSize, new InMemoryCN[sqls.length], nfreeTSs,
+				keywords, N, CNsize, ResultsAndScores, allKeywInResults, null);
+		countGenQueries(lastNumPreparedQueries);
+		return time;
+	}
+
+	// verifies the CNs in process; jdbcacc is only used to read the tuple sets.
+	// Results are not filtered by keyword containment
+	public int ExecuteParallel(JDBCaccess jdbcacc, InMemoryCN[] CNs, ArrayList[] nfreeTSs, ArrayList keywords, int N,
+			int[] CNsize, ArrayList ResultsAndScores) {
+		int time = executeParallel(jdbcacc, null, null, 1, CNs, nfreeTSs, keywords, N, CNsize, ResultsAndScores,
+				false, null);
+		countGenQueries(lastNumPreparedQueries);
+		return time;
+	}
+
+	// worker threads of ExecuteParallelConcurrent, shared by all queries and
+	// sized by Params.numThreads when first used
+	private static ExecutorService workerPool = null;
+
+	private static synchronized ExecutorService workerPool() {
+		if (workerPool == null)
+			workerPool = Executors.newFixedThreadPool(Math.max(Params.numThreads, 1), r -> {
+				Thread thread = new Thread(r, "ExecPrepared worker");
+				thread.setDaemon(true);
+				return thread;
+			});
+		return workerPool;
+	}
+
+	// runs ExecuteParallel with one worker task per connection. The CNs are
+	// dealt round robin to the workers; every worker keeps its own top-N results
+	// but stops as soon as its CNs cannot beat the best N-th score of all workers.
+	// inMemoryCNs may be null or hold null for CNs verified by SQL. If a worker
+	// fails, the others are waited for, so that no connection is still in use,
+	// and the failure is thrown instead of returning a partial top-N
+	public int ExecuteParallelConcurrent(JDBCaccess[] connections, String[] sqls, String[] batchedSqls,
+			int batchSize, InMemoryCN[] inMemoryCNs, ArrayList[] nfreeTSs, ArrayList keywords, int N, int[] CNsize,
+			ArrayList ResultsAndScores, boolean allKeywInResults) {
+		long time1 = System.currentTimeMillis();
+		int numCNs = nfreeTSs.length;
+		int numWorkers = Math.min(connections.length, numCNs);
+		SharedThreshold threshold = new SharedThreshold();
+		ExecutorService pool = workerPool();
+		List<Future<TopNCollector<ResultRow>>> futures = new ArrayList<Future<TopNCollector<ResultRow>>>();
+		ExecPrepared[] workers = new ExecPrepared[numWorkers];
+		for (int w = 0; w < numWorkers; w++) {
+			int size = (numCNs - w + numWorkers - 1) / numWorkers;
+			String[] workerSqls = new String[size];
+			String[] workerBatchedSqls = new String[size];
+			InMemoryCN[] workerCNs = new InMemoryCN[size];
+			ArrayList[] workerNfreeTSs = new ArrayList[size];
+			int[] workerCNsize = new int[size];
+			for (int i = 0, c = w; c < numCNs; i++, c += numWorkers) {
+				workerSqls[i] = sqls == null ? null : sqls[c];
+				workerBatchedSqls[i] = batchedSqls == null ? null : batchedSqls[c];
+				workerCNs[i] = inMemoryCNs == null ? null : inMemoryCNs[c];
+				workerNfreeTSs[i] = nfreeTSs[c];
+				workerCNsize[i] = CNsize[c];
+			}
+			JDBCaccess jdbcacc = connections[w];
+			ExecPrepared worker = workers[w] = new ExecPrepared();
+			worker.tupleSets = tupleSets;
+			worker.deadline = deadline;
+			futures.add(pool.submit(() -> {
+				worker.executeParallel(jdbcacc, workerSqls, workerBatchedSqls, batchSize, workerCNs, workerNfreeTSs,
+						keywords, N, workerCNsize, null, allKeywInResults, threshold);
+				return worker.lastResults;
+			}));
+		}
+		// merge in worker order, so ties are broken the same way in every run
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(N);
+		int numPreparedQueries = 0;
+		Throwable failure = null;
+		boolean interrupted = false;
+		for (int w = 0; w < numWorkers; w++) {
+			TopNCollector<ResultRow> results;
+			while (true) {
+				try {
+					results = futures.get(w).get();
+					break;
+				} catch (InterruptedException e1) {
+					interrupted = true;
+				} catch (ExecutionException e1) {
+					if (failure == null)
+						failure = e1.getCause();
+					results = null;
+					break;
+				}
+			}
+			if (results == null)
+				continue;
+			ArrayList<ResultRow> rows = results.itemsInOrder();
+			double[] scores = results.scoresInOrder();
+			for (int i = 0; i < rows.size(); i++)
+				R.add(scores[i], rows.get(i));
+			numPreparedQueries += workers[w].lastNumPreparedQueries;
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		if (failure != null)
+			throw new IllegalStateException("worker of ExecPrepared.ExecuteParallelConcurrent failed", failure);
+		long time2 = System.currentTimeMillis();
+		if (Params.DEBUG)
+			System.out.println(" Concurrent algor: workers = " + numWorkers + " numPreparedQueries = "
+					+ numPreparedQueries + "  in time = " + (time2 - time1));
+		countGenQueries(numPreparedQueries);
+		R.addTo(ResultsAndScores);
+		return (int) (time2 - time1);
+	}
+
+	private int executeParallel(JDBCaccess jdbcacc, String[] sqls, String[] batchedSqls, int batchSize,
+			InMemoryCN[] inMemoryCNs, ArrayList[] nfreeTSs, ArrayList keywords, int N, int[] CNsize,
+			ArrayList ResultsAndScores, boolean allKeywInResults, SharedThreshold threshold) {// input:
 		// sqls[i]: param sql for i-th CN
 		// nfreeTSs[i]: list of non free TS names for i-th CN
+		// batchedSqls[i]: batched sql for i-th CN (see Instance.getSQLstatementBatched)
+		// or null to verify one combination per execution
+		// inMemoryCNs[i]: compiled i-th CN if it is verified in process, else null
+		// threshold: N-th score shared with other workers, or null
+		// ResultsAndScores: gets the rendered results, unless null
 		int numPreparedQueries = 0;
+		long numPrunedCombinations = 0;
 		if (Flags.DEBUG_INFO) {
 			String str = "ExecuteParallel ";
-			for (int i = 0; i < sqls.length; i++)
-				str += " " + sqls[i];
+			for (int i = 0; i < nfreeTSs.length; i++)
+				str += " " + (inMemoryCNs[i] != null ? inMemoryCNs[i].toString() : sqls[i]);
 			str += "\r\n";
 			for (int c = 0; c < nfreeTSs.length; c++) {
 				str += " CN #" + c;
@@ -552,7 +738,7 @@ public class ExecPrepared {
 			System.out.println(str);
 		}
 		long time1 = System.currentTimeMillis();
-		int numCNs = sqls.length;
+		int numCNs = nfreeTSs.length;
 		maxScores = new double[numCNs];
 		resultSets = new ArrayList[numCNs];
 		for (int c = 0; c < numCNs; c++)
@@ -564,9 +750,14 @@ public class ExecPrepared {
 		int resultsSoFar = 0;
 		PreparedStatement[] prepared = new PreparedStatement[numCNs];
 		int[] numnfreeTSs = new int[numCNs];
+		ProbeBatch[] batches = new ProbeBatch[numCNs];
 		for (int i = 0; i < numCNs; i++) {
-			prepared[i] = jdbcacc.createPreparedStatement(sqls[i]);
+			if (inMemoryCNs[i] == null)
+				prepared[i] = jdbcacc.getCachedStatement(sqls[i]);
 			numnfreeTSs[i] = nfreeTSs[i].size();
+			if (batchedSqls != null && batchedSqls[i] != null && batchSize > 1)
+				batches[i] = new ProbeBatch(jdbcacc.getCachedStatement(batchedSqls[i]), numnfreeTSs[i],
+						batchSize);
 		}
 		int numkeywords = keywords.size();
 		int maxnfreeTSsize = 0;
@@ -592,18 +783,17 @@ public class ExecPrepared {
 																	// lookahead. If -1 then no lookahead available
 		int[][] B = new int[numCNs][maxnfreeTSsize]; // score of top tuple for nfree TS[i]. Used instead of the B(TSi)'s
 														// in alg.
-		ArrayList R = new ArrayList(N); // to store the Strings of top-N results
-		ArrayList scoresR = new ArrayList(N); // to store the scores (double) of the top-N results
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(N); // top-N results and their scores
 
 		for (int c = 0; c < numCNs; c++)
 			for (int i = 0; i < numnfreeTSs[c]; i++) {
 				S[c][i] = new ArrayList(1);
 				scoresS[c][i] = new ArrayList(1);
-				resultSets[c].add(jdbcacc.createCursor("select id,score from " + (String) nfreeTSs[c].get(i)));
-				int id = jdbcacc.getNextID((ResultSet) resultSets[c].get(i));
+				resultSets[c].add(openTupleSet(jdbcacc, (String) nfreeTSs[c].get(i)));
+				int id = ((TupleSetCursor) resultSets[c].get(i)).getNextID();
 				int score = -1;
 				if (id > -1) {
-					score = jdbcacc.getCurrScore((ResultSet) resultSets[c].get(i));
+					score = ((TupleSetCursor) resultSets[c].get(i)).getCurrScore();
 				}
 				S[c][i].add(new Integer(id));
 				scoresS[c][i].add(new Integer(score));
@@ -614,11 +804,11 @@ public class ExecPrepared {
 		for (int c = 0; c < numCNs; c++)
 			if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 				if (!sameTuple(nfreeTSs[c], indexToBeChecked[c], S[c]))
-					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], S[c], scoresS[c], indexToBeChecked[c], R,
-							scoresR, N, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
+					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], inMemoryCNs[c], S[c], scoresS[c],
+							indexToBeChecked[c], R, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
 			} else
-				resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], S[c], scoresS[c], indexToBeChecked[c], R,
-						scoresR, N, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
+				resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], inMemoryCNs[c], S[c], scoresS[c],
+						indexToBeChecked[c], R, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
 		// resultsSoFar+=getResultsParallel(jdbcacc,prepared[c], S[c],
 		// indexToBeChecked[c],numnfreeTSs[c]);
 		for (int c = 0; c < numCNs; c++)
@@ -630,7 +820,7 @@ public class ExecPrepared {
 		boolean foundtopn = false;// =foundTopNParallel(R,scoresR,lookaheadscores,B,N,CNsize,numnfreeTSs);
 									// //lookaheadscores[i]=-1 at this point
 		if (Flags.DEBUG_INFO2)
-			printResults(R, scoresR);
+			R.print();
 		int loop = 0;
 		while (!foundtopn) {
 			loop++;
@@ -646,11 +836,11 @@ public class ExecPrepared {
 					if (lookaheadscores[c][i] < 0) // no lookahead
 					{
 						// if finished will return -1
-						lookahead[c][i] = jdbcacc.getNextID((ResultSet) resultSets[c].get(i));
+						lookahead[c][i] = ((TupleSetCursor) resultSets[c].get(i)).getNextID();
 						if (lookahead[c][i] < 0)
 							lookaheadscores[c][i] = -1;
 						if (lookahead[c][i] > -1) {
-							lookaheadscores[c][i] = jdbcacc.getCurrScore((ResultSet) resultSets[c].get(i));
+							lookaheadscores[c][i] = ((TupleSetCursor) resultSets[c].get(i)).getCurrScore();
 							allCNsFinished = false;
 							CNFinished[c] = false;
 						}
@@ -669,7 +859,7 @@ public class ExecPrepared {
 				// CNindexOfTopScore=c;
 				// }
 			}
-			if (foundtopn = foundTopNParallel(R, scoresR, lookaheadscores, B, N, CNsize, numnfreeTSs))
+			if (foundtopn = foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs, threshold))
 				break;
 			for (int c = 0; c < numCNs; c++) {
 				if (!CNFinished[c]) {
@@ -703,11 +893,12 @@ public class ExecPrepared {
 			for (int i = 0; i < numnfreeTSs[CNindexOfTopScore]; i++) {
 				if (lookaheadscores[CNindexOfTopScore][i] < 0) // no lookahead
 				{
-					lookahead[CNindexOfTopScore][i] = jdbcacc
-							.getNextID((ResultSet) resultSets[CNindexOfTopScore].get(i)); // if finished will return -1
+					// if finished will return -1
+					lookahead[CNindexOfTopScore][i] = ((TupleSetCursor) resultSets[CNindexOfTopScore].get(i))
+							.getNextID();
 					if (lookahead[CNindexOfTopScore][i] > -1)
-						lookaheadscores[CNindexOfTopScore][i] = jdbcacc
-								.getCurrScore((ResultSet) resultSets[CNindexOfTopScore].get(i));
+						lookaheadscores[CNindexOfTopScore][i] = ((TupleSetCursor) resultSets[CNindexOfTopScore].get(i))
+								.getCurrScore();
 					allTSsFinished = false;
 				}
 				// if(lookaheadscores[CNindexOfTopScore][i] >topScore)
@@ -736,40 +927,60 @@ public class ExecPrepared {
 					.add(new Integer(lookaheadscores[CNindexOfTopScore][indexOfTopScore]));
 			lookahead[CNindexOfTopScore][indexOfTopScore] = -1;
 			lookaheadscores[CNindexOfTopScore][indexOfTopScore] = -1;
-			int numcombinations = getNumCombinations(S[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore]);
-			for (int j = 0; j < numcombinations; j++) {
+			// best combinations first, skipping those that cannot make the top-N
+			CombinationIterator combinations = new CombinationIterator(scoresS[CNindexOfTopScore],
+					numnfreeTSs[CNindexOfTopScore], CNsize[CNindexOfTopScore]);
+			int[] combination;
+			while ((combination = combinations.next(getMinScore(R, threshold))) != null) {
+				if (isOutOfTime(time1))
+					break;
 				numPreparedQueries++;
 				if (Flags.DEBUG_INFO2) {
 					System.out.println("CN: " + CNindexOfTopScore);
 				}
-				indexToBeChecked[CNindexOfTopScore] = getACombination(S[CNindexOfTopScore], j,
-						numnfreeTSs[CNindexOfTopScore]);
+				indexToBeChecked[CNindexOfTopScore] = combination;
 				// ignore combinations with same tuple for the same tuple set
 				if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 					if (!sameTuple(nfreeTSs[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore],
 							S[CNindexOfTopScore])) {
-						resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore], S[CNindexOfTopScore],
-								scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R, scoresR, N,
-								CNsize[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore], keywords, allKeywInResults);
+						ProbeBatch batch = batches[CNindexOfTopScore];
+						if (batch != null) {
+							batch.add(S[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore],
+									getScore(scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore],
+											CNsize[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore]));
+							if (!batch.isFull())
+								continue;
+							resultsSoFar = batch.flush(jdbcacc, R, keywords, allKeywInResults);
+						} else
+							resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore],
+									inMemoryCNs[CNindexOfTopScore], S[CNindexOfTopScore], scoresS[CNindexOfTopScore],
+									indexToBeChecked[CNindexOfTopScore], R, CNsize[CNindexOfTopScore],
+									numnfreeTSs[CNindexOfTopScore], keywords, allKeywInResults);
 						// resultsSoFar+=getResultsParallel(jdbcacc,prepared[CNindexOfTopScore],
 						// S[CNindexOfTopScore],
 						// indexToBeChecked[CNindexOfTopScore],numnfreeTSs[CNindexOfTopScore]);
-						if (foundtopn = foundTopNParallel(R, scoresR, lookaheadscores, B, N, CNsize, numnfreeTSs))
+						if (foundtopn = foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs, threshold))
 							break;
 					}
 				} else {
-					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore], S[CNindexOfTopScore],
-							scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R, scoresR, N,
+					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore],
+							inMemoryCNs[CNindexOfTopScore], S[CNindexOfTopScore], scoresS[CNindexOfTopScore],
+							indexToBeChecked[CNindexOfTopScore], R,
 							CNsize[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore], keywords, allKeywInResults);
 					// if(foundtopn=foundTopNParallel(R,scoresR,lookaheadscores,B,N,CNsize,numnfreeTSs))
 					// break;
 				}
 			}
+			numPrunedCombinations += combinations.getNumPruned();
+			if (batches[CNindexOfTopScore] != null && !batches[CNindexOfTopScore].isEmpty()) {
+				resultsSoFar = batches[CNindexOfTopScore].flush(jdbcacc, R, keywords, allKeywInResults);
+				foundtopn = foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs, threshold);
+			}
 			S[CNindexOfTopScore][indexOfTopScore] = temp;
 			scoresS[CNindexOfTopScore][indexOfTopScore] = scorestemp;
 			if (foundtopn)
 				break;
-			if (System.currentTimeMillis() - time1 > (Params.MAX_ALLOWED_TIME)) { // query takes more than 5mins
+			if (isOutOfTime(time1)) { // query takes more than its budget
 				break;
 			}
 		}
@@ -790,16 +1001,21 @@ public class ExecPrepared {
 			}
 		}
 		long time2 = System.currentTimeMillis();
-		if (Params.DEBUG)
+		if (Params.DEBUG) {
+			int numRoundTrips = 0;
+			for (int c = 0; c < numCNs; c++)
+				if (batches[c] != null)
+					numRoundTrips += batches[c].getNumRoundTrips();
 			System.out.println(" Parallel algor: results output = " + resultsSoFar + " numPreparedQueries = "
-					+ numPreparedQueries + "  in time = " + (time2 - time1));
-		lastGenQueries = numPreparedQueries;
-		totalGenQueries += numPreparedQueries;
-		execCount++;
+					+ numPreparedQueries + " pruned = " + numPrunedCombinations + " in batches = " + numRoundTrips
+					+ "  in time = " + (time2 - time1));
+		}
+		lastNumPreparedQueries = numPreparedQueries;
 		if (Flags.RESULTS__SHOW_OUTPUT)
-			printResults(R, scoresR);
-		for (int i = 0; i < R.size(); i++)
-			ResultsAndScores.add(new Result((String) R.get(i), ((Double) scoresR.get(i)).doubleValue()));
+			R.print();
+		if (ResultsAndScores != null)
+			R.addTo(ResultsAndScores);
+		lastResults = R;
 		jdbcacc.cleanup();
 		return (int) (time2 - time1);
 	}
@@ -851,8 +1067,7 @@ public class ExecPrepared {
 												// lookahead available
 		int[] lookaheadscores = new int[numnfreeTSs]; // used to keep scores of corresponding ids in lookahead. If -1
 														// then no lookahead available
-		ArrayList R = new ArrayList(N); // to store the Strings of top-N results
-		ArrayList scoresR = new ArrayList(N); // to store the scores (double) of the top-N results
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(N); // top-N results and their scores
 
 		for (int i = 0; i < numnfreeTSs; i++) {
 			S[i] = new ArrayList(1);
@@ -870,10 +1085,10 @@ public class ExecPrepared {
 		}
 		if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 			if (!sameTuple(nfreeTSs, indexToBeChecked, S))
-				resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+				resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 						keywords, allKeywInResults);
 		} else
-			resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+			resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 					keywords, allKeywInResults);
 		// resultsSoFar+=getResults(jdbcacc,prepared, S, indexToBeChecked);
 		for (int i = 0; i < numnfreeTSs; i++) {
@@ -916,7 +1131,7 @@ public class ExecPrepared {
 			// symmetric
 			if (allTSsFinished)
 				break;
-			if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+			if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 				break;
 			nextIndex = (nextIndex + 1) % numnfreeTSs;
 			indexOfTopScore = getNextIndexSymmetric(lookaheadscores, nextIndex, numnfreeTSs); // in symmetric
@@ -940,15 +1155,15 @@ public class ExecPrepared {
 				if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 					if (!sameTuple(nfreeTSs, indexToBeChecked, S)) {
 						// resultsSoFar+=getResults(jdbcacc,prepared, S, indexToBeChecked);
-						resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N,
+						resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R,
 								CNsize, keywords, allKeywInResults);
-						if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+						if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 							break;
 					}
 				} else {
-					resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, scoresR, N, CNsize,
+					resultsSoFar = check4Results(jdbcacc, prepared, S, scoresS, indexToBeChecked, R, CNsize,
 							keywords, allKeywInResults);
-					if (foundtopn = foundTopN(R, scoresR, lookaheadscores, B, N, CNsize))
+					if (foundtopn = foundTopN(R, lookaheadscores, B, CNsize))
 						break;
 				}
 			}
@@ -962,9 +1177,8 @@ public class ExecPrepared {
 		long time2 = System.currentTimeMillis();
 		System.out.println("results output = " + resultsSoFar + " in time = " + (time2 - time1));
 		if (Flags.RESULTS__SHOW_OUTPUT)
-			printResults(R, scoresR);
-		for (int i = 0; i < R.size(); i++)
-			ResultsAndScores.add(new Result((String) R.get(i), ((Double) scoresR.get(i)).doubleValue()));
+			R.print();
+		R.addTo(ResultsAndScores);
 		return (int) (time2 - time1);
 	}
 
@@ -1031,8 +1245,7 @@ public class ExecPrepared {
 																	// lookahead. If -1 then no lookahead available
 		int[][] B = new int[numCNs][maxnfreeTSsize]; // score of top tuple for nfree TS[i]. Used instead of the B(TSi)'s
 														// in alg.
-		ArrayList R = new ArrayList(N); // to store the Strings of top-N results
-		ArrayList scoresR = new ArrayList(N); // to store the scores (double) of the top-N results
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(N); // top-N results and their scores
 
 		for (int c = 0; c < numCNs; c++)
 			for (int i = 0; i < numnfreeTSs[c]; i++) {
@@ -1051,10 +1264,10 @@ public class ExecPrepared {
 			if (!Flags.ALLOW_DUPLICATE_TUPLES) {
 				if (!sameTuple(nfreeTSs[c], indexToBeChecked[c], S[c]))
 					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], S[c], scoresS[c], indexToBeChecked[c], R,
-							scoresR, N, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
+							CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
 			} else
 				resultsSoFar = check4ResultsParallel(jdbcacc, prepared[c], S[c], scoresS[c], indexToBeChecked[c], R,
-						scoresR, N, CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
+						CNsize[c], numnfreeTSs[c], keywords, allKeywInResults);
 		// resultsSoFar+=getResultsParallel(jdbcacc,prepared[c], S[c],
 		// indexToBeChecked[c],numnfreeTSs[c]);
 		for (int c = 0; c < numCNs; c++)
@@ -1105,7 +1318,7 @@ public class ExecPrepared {
 				// CNindexOfTopScore=c;
 				// }
 			}
-			if (foundtopn = foundTopNParallel(R, scoresR, lookaheadscores, B, N, CNsize, numnfreeTSs))
+			if (foundtopn = foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs))
 				break;
 			for (int c = 0; c < numCNs; c++) {
 				if (!CNFinished[c]) {
@@ -1182,17 +1395,17 @@ public class ExecPrepared {
 					if (!sameTuple(nfreeTSs[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore],
 							S[CNindexOfTopScore])) {
 						resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore], S[CNindexOfTopScore],
-								scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R, scoresR, N,
+								scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R,
 								CNsize[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore], keywords, allKeywInResults);
 						// resultsSoFar+=getResultsParallel(jdbcacc,prepared[CNindexOfTopScore],
 						// S[CNindexOfTopScore],
 						// indexToBeChecked[CNindexOfTopScore],numnfreeTSs[CNindexOfTopScore]);
-						if (foundtopn = foundTopNParallel(R, scoresR, lookaheadscores, B, N, CNsize, numnfreeTSs))
+						if (foundtopn = foundTopNParallel(R, lookaheadscores, B, CNsize, numnfreeTSs))
 							break;
 					}
 				} else {
 					resultsSoFar = check4ResultsParallel(jdbcacc, prepared[CNindexOfTopScore], S[CNindexOfTopScore],
-							scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R, scoresR, N,
+							scoresS[CNindexOfTopScore], indexToBeChecked[CNindexOfTopScore], R,
 							CNsize[CNindexOfTopScore], numnfreeTSs[CNindexOfTopScore], keywords, allKeywInResults);
 					// if(foundtopn=foundTopNParallel(R,scoresR,lookaheadscores,B,N,CNsize,numnfreeTSs))
 					// break;
@@ -1207,7 +1420,7 @@ public class ExecPrepared {
 		long time2 = System.currentTimeMillis();
 		System.out.println("Parallel algor: results output = " + resultsSoFar + " in time = " + (time2 - time1));
 		if (Flags.RESULTS__SHOW_OUTPUT)
-			printResults(R, scoresR);
+			R.print();
 		return (int) (time2 - time1);
 	}
 
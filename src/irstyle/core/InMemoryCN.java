@@ -0,0 +1,251 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * A candidate network compiled against in-memory relations. For a combination
+ * of tuple ids of its non free tuple sets it enumerates the joining rows of its
+ * free tuple sets, like the statement of
+ * Instance.getSQLstatementParameterized does.
+ *
+ * A result row lists, for each tuple set in the order of getAllInstances, the
+ * id and score of non free tuple sets and the loaded join columns of free
+ * ones. Text attributes are not loaded, so results cannot be filtered by
+ * keyword containment. An InMemoryCN keeps its evaluation state, so it must not
+ * be shared between threads.
+ */
+public class InMemoryCN {
+
+	private final String description;
+	private final int numNodes;
+	private final int[] order; // nodes in join order, starting with the first non free tuple set
+	private final int[] param; // index of the non free tuple set of a node, -1 for free nodes
+	private final AdjacencyIndex[] table; // relation of free nodes
+	private final int[] parent; // parent of a node in join order, -1 for the first node
+	private final int[] parentColumn; // joining column of the parent, -1 if the parent is non free
+	private final int[] column; // joining column of a free node to its parent
+
+	private final int[] firstColumn; // first result column of a node
+	private final int numColumns;
+	private final boolean[] isInt;
+
+	// signatures[d]: the relations and joining columns of the first d nodes in
+	// join order, shared by CNs with the same partial join
+	private final String[] signatures;
+
+	// memo of the partial join of the first memoDepth nodes, null if not shared
+	private SubJoinMemo memo = null;
+	private int memoDepth = 0;
+	private int memoSignature = -1;
+	private int[] prefixParams; // non free tuple sets of the memoized nodes
+
+	// evaluation state
+	private final int[] rows;
+	private int[] ids;
+	private int[] idScores;
+	private double score;
+	private TopNCollector<ResultRow> R;
+	private int[] collected = new int[16]; // rows of the memoized nodes being joined
+	private int numCollected = -1; // -1 if the rows of the memoized nodes are joined further
+
+	InMemoryCN(Instance cn, Vector relations, Map<String, AdjacencyIndex> tables, ArrayList nfreeTSs,
+			String TSprefix) {
+		Vector v = cn.getAllInstances();
+		numNodes = v.size();
+		param = new int[numNodes];
+		table = new AdjacencyIndex[numNodes];
+		int numParams = 0;
+		String str = "";
+		String[] names = new String[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			Instance inst = (Instance) v.elementAt(i);
+			names[i] = inst.getRelationName();
+			if (!inst.keywords.isEmpty()) {
+				param[i] = numParams++;
+				nfreeTSs.add(TSprefix + inst.getRelationName());
+				str += "TS_";
+			} else {
+				param[i] = -1;
+				table[i] = tables.get(inst.getRelationName());
+				if (table[i] == null)
+					throw new IllegalArgumentException("relation not loaded: " + inst.getRelationName());
+			}
+			str += inst.getRelationName() + " ";
+		}
+		description = str.trim();
+		// join order: breadth first from the first non free tuple set
+		order = new int[numNodes];
+		parent = new int[numNodes];
+		parentColumn = new int[numNodes];
+		column = new int[numNodes];
+		boolean[] visited = new boolean[numNodes];
+		int root = 0;
+		while (root < numNodes - 1 && param[root] < 0)
+			root++;
+		order[0] = root;
+		parent[0] = -1;
+		visited[root] = true;
+		int numOrdered = 1;
+		for (int k = 0; k < numOrdered; k++) {
+			int i = order[k];
+			Instance inst = (Instance) v.elementAt(i);
+			Relation rel = inst.getRelation(relations, inst.getRelationName());
+			for (int j = 0; j < inst.adjList.size(); j++) {
+				Instance inst2 = (Instance) inst.adjList.elementAt(j);
+				int i2 = v.indexOf(inst2);
+				if (visited[i2])
+					continue;
+				visited[i2] = true;
+				Relation rel2 = inst.getRelation(relations, inst2.getRelationName());
+				order[numOrdered] = i2;
+				parent[numOrdered] = k;
+				parentColumn[numOrdered] = param[i] < 0
+						? table[i].getColumnIndex(rel.getAttr4Rel(inst2.getRelationName()))
+						: -1;
+				column[numOrdered] = param[i2] < 0
+						? table[i2].getColumnIndex(rel2.getAttr4Rel(inst.getRelationName()))
+						: -1;
+				numOrdered++;
+			}
+		}
+		signatures = new String[numNodes + 1];
+		signatures[0] = "";
+		for (int k = 0; k < numNodes; k++)
+			signatures[k + 1] = signatures[k] + (param[order[k]] >= 0 ? "TS_" : "") + names[order[k]] + "/" + parent[k]
+					+ "." + parentColumn[k] + "." + column[k] + " ";
+		rows = new int[numNodes];
+		firstColumn = new int[numNodes];
+		int num = 0;
+		for (int i = 0; i < numNodes; i++) {
+			firstColumn[i] = num;
+			num += param[i] >= 0 ? 2 : table[i].getColumnNames().length;
+		}
+		numColumns = num;
+		isInt = new boolean[numColumns];
+		Arrays.fill(isInt, true);
+	}
+
+	/**
+	 * Adds the results of a combination of non free tuple ids, all of them with
+	 * the given score, to R.
+	 *
+	 * @return the number of joined rows of the combination
+	 */
+	public int check4Results(int[] ids, int[] idScores, double score, TopNCollector<ResultRow> R) {
+		if (!R.accepts(score))
+			return 0;
+		this.ids = ids;
+		this.idScores = idScores;
+		this.score = score;
+		this.R = R;
+		if (param[order[0]] < 0) // no non free tuple set; cannot happen for CNs of Schema.getCNs
+			return 0;
+		rows[0] = ids[param[order[0]]];
+		if (memo == null)
+			return join(1);
+		int[] prefixIds = new int[prefixParams.length];
+		for (int j = 0; j < prefixIds.length; j++)
+			prefixIds[j] = ids[prefixParams[j]];
+		int[] prefixRows = memo.get(memoSignature, prefixIds);
+		if (prefixRows == null) {
+			numCollected = 0;
+			join(1);
+			prefixRows = Arrays.copyOf(collected, numCollected);
+			numCollected = -1;
+			memo.put(memoSignature, prefixIds, prefixRows);
+		}
+		int numResults = 0;
+		for (int r = 0; r < prefixRows.length; r += memoDepth) {
+			System.arraycopy(prefixRows, r, rows, 0, memoDepth);
+			numResults += join(memoDepth);
+		}
+		return numResults;
+	}
+
+	int getNumNodes() {
+		return numNodes;
+	}
+
+	// the signature of the first depth nodes in join order
+	String getSignature(int depth) {
+		return signatures[depth];
+	}
+
+	// the joining rows of the first depth nodes are read from and added to memo
+	void setMemo(SubJoinMemo memo, int depth, int signature) {
+		this.memo = memo;
+		memoDepth = depth;
+		memoSignature = signature;
+		int num = 0;
+		for (int k = 0; k < depth; k++)
+			if (param[order[k]] >= 0)
+				num++;
+		prefixParams = new int[num];
+		num = 0;
+		for (int k = 0; k < depth; k++)
+			if (param[order[k]] >= 0)
+				prefixParams[num++] = param[order[k]];
+	}
+
+	// value of the joining column of the k-th node in join order
+	private int getJoinValue(int k, int columnIndex) {
+		int i = order[k];
+		if (param[i] >= 0)
+			return ids[param[i]];
+		return table[i].getValue(rows[k], columnIndex);
+	}
+
+	private int join(int k) {
+		if (k == memoDepth && numCollected >= 0) {
+			if (numCollected + k > collected.length)
+				collected = Arrays.copyOf(collected, Math.max(2 * collected.length, numCollected + k));
+			System.arraycopy(rows, 0, collected, numCollected, k);
+			numCollected += k;
+			return 0;
+		}
+		if (k == numNodes) {
+			if (R.accepts(score))
+				R.add(score, getResult());
+			return 1;
+		}
+		int i = order[k];
+		int value = getJoinValue(parent[k], parentColumn[k]);
+		if (param[i] >= 0) {
+			if (ids[param[i]] != value)
+				return 0;
+			rows[k] = value;
+			return join(k + 1);
+		}
+		int numResults = 0;
+		int end = table[i].end(column[k], value);
+		for (int p = table[i].begin(column[k], value); p < end; p++) {
+			rows[k] = table[i].getRow(column[k], p);
+			numResults += join(k + 1);
+		}
+		return numResults;
+	}
+
+	private ResultRow getResult() {
+		int[] values = new int[numColumns];
+		for (int k = 0; k < numNodes; k++) {
+			int i = order[k];
+			int c = firstColumn[i];
+			if (param[i] >= 0) {
+				values[c] = ids[param[i]];
+				values[c + 1] = idScores[param[i]];
+			} else {
+				for (int j = 0; j < table[i].getColumnNames().length; j++)
+					values[c + j] = table[i].getValue(rows[k], j);
+			}
+		}
+		return new ResultRow(isInt, values, null);
+	}
+
+	public String toString() {
+		return description;
+	}
+
+}
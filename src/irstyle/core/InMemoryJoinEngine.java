@@ -0,0 +1,113 @@
+package irstyle.core;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Join columns of all relations of a schema, kept in memory so that candidate
+ * networks can be verified in process instead of by parameterized SQL. The
+ * tables are loaded once and shared by all queries; they are only read after
+ * loading.
+ */
+public class InMemoryJoinEngine {
+
+	private final Vector relations;
+	private final Map<String, AdjacencyIndex> tables;
+
+	public InMemoryJoinEngine(Vector relations, Map<String, AdjacencyIndex> tables) {
+		this.relations = relations;
+		this.tables = tables;
+	}
+
+	/**
+	 * Loads the join attributes of every relation.
+	 */
+	public static InMemoryJoinEngine load(JDBCaccess jdbcacc, Vector relations) {
+		return load(jdbcacc, relations, null);
+	}
+
+	/**
+	 * Loads the join attributes of every relation, mapping those of relations
+	 * with a join index file <relation>.adj in indexDir, if it is not null, and
+	 * reading the others from the database. A file is only used if the relation
+	 * still has the rows it was written from, by row count and checksum.
+	 */
+	public static InMemoryJoinEngine load(JDBCaccess jdbcacc, Vector relations, Path indexDir) {
+		long start = System.currentTimeMillis();
+		Map<String, AdjacencyIndex> tables = new HashMap<String, AdjacencyIndex>();
+		long numRows = 0;
+		for (int i = 0; i < relations.size(); i++) {
+			Relation rel = (Relation) relations.elementAt(i);
+			Vector attrs = rel.getJoinAttributes();
+			if (attrs.isEmpty())
+				continue;
+			String[] columnNames = (String[]) attrs.toArray(new String[attrs.size()]);
+			AdjacencyIndex table = indexDir == null ? null : open(jdbcacc, indexDir, rel.getName(), columnNames);
+			if (table == null)
+				table = CSRAdjacencyIndex.load(jdbcacc, rel.getName(), columnNames);
+			if (table == null)
+				return null;
+			tables.put(rel.getName(), table);
+			numRows += table.getNumRows();
+		}
+		System.out.println(" loaded " + numRows + " rows of " + tables.size() + " relations in "
+				+ (System.currentTimeMillis() - start) + " (ms)");
+		return new InMemoryJoinEngine(relations, tables);
+	}
+
+	// the join index file of relname, null if there is none with columnNames and
+	// the current rows of relname
+	private static AdjacencyIndex open(JDBCaccess jdbcacc, Path indexDir, String relname, String[] columnNames) {
+		Path file = indexDir.resolve(relname + ".adj");
+		if (!Files.exists(file))
+			return null;
+		try {
+			MappedAdjacencyIndex table = MappedAdjacencyIndex.open(file);
+			if (!Arrays.equals(table.getColumnNames(), columnNames)) {
+				System.out.println(" join index " + file + " has columns " + Arrays.toString(table.getColumnNames())
+						+ " instead of " + Arrays.toString(columnNames));
+				return null;
+			}
+			String sql = "select count(*), sum(crc32(concat_ws(',', " + String.join(", ", columnNames) + "))) from "
+					+ relname;
+			try (Statement stmt = jdbcacc.conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+				rs.next();
+				long numRows = rs.getLong(1);
+				long checksum = rs.getLong(2);
+				if (numRows == table.getNumRows() && checksum == table.getChecksum())
+					return table;
+				System.out.println(" join index " + file + " has " + table.getNumRows() + " rows with checksum "
+						+ table.getChecksum() + " but " + relname + " has " + numRows + " with checksum " + checksum);
+			}
+		} catch (Exception e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ " exception in InMemoryJoinEngine.open: " + file);
+		}
+		return null;
+	}
+
+	public AdjacencyIndex getTable(String relname) {
+		return tables.get(relname);
+	}
+
+	/**
+	 * Compiles a candidate network. The names of its non free tuple sets are added
+	 * to nfreeTSs in the order of Instance.getSQLstatementParameterized.
+	 */
+	public InMemoryCN compile(Instance cn, ArrayList nfreeTSs) {
+		return compile(cn, nfreeTSs, "TS_");
+	}
+
+	// TSprefix: prefix of the names of the tuple sets of the query
+	public InMemoryCN compile(Instance cn, ArrayList nfreeTSs, String TSprefix) {
+		return new InMemoryCN(cn, relations, tables, nfreeTSs, TSprefix);
+	}
+
+}
@@ -29,6 +29,7 @@ public class Instance implements Cloneable// , iCandidateNetwork
 	Vector joiningAttr;
 	Vector fragmDirections;// used if this is a fragment. eg: C->Y->P->P has "out","out","out"
 	Vector attributes;
+	CNPlanCache.Plan plan = null; // SQL shared with the other copies of a cached CN
 
 	Instance() {
 		adjList = new Vector(1);
@@ -201,8 +202,8 @@ public class Instance implements Cloneable// , iCandidateNetwork
 
 	Instance getTupleSet() {// returns a copy of this Instance with an empty adjList
 		try {
-			Instance in = new Instance();
-			in = (Instance) this.clone();
+			// only this Instance is copied, not the whole network
+			Instance in = clone2(this);
 			in.adjList.removeAllElements();
 			in.incoming.removeAllElements();
 			in.sizeAdjList = 0;
@@ -445,9 +446,14 @@ public class Instance implements Cloneable// , iCandidateNetwork
 	// sets is relationName_k1_.._.._kn, where k1..kn are the indices of the
 	// keywords in inst1 in allkeywords
 	private String getTupleSet4Instance(Instance inst1, Vector allkeywords) {
+		return getTupleSet4Instance(inst1, allkeywords, "TS_");
+	}
+
+	// TSprefix: prefix of the names of the tuple set tables of the query
+	private String getTupleSet4Instance(Instance inst1, Vector allkeywords, String TSprefix) {
 		String name = inst1.getRelationName();
 		if (!inst1.keywords.isEmpty()) // 10/6/02
-			name = "TS_" + name;
+			name = TSprefix + name;
 		/*
 		 * if(inst1.isIntResult()) return name; for(int i=0;i<allkeywords.size();i++)
 		 * if(stringContained(inst1.keywords, (String) allkeywords.elementAt(i)))
@@ -592,17 +598,31 @@ public class Instance implements Cloneable// , iCandidateNetwork
 	}
 
 	public String getSQLstatementParameterized(Vector relations, Vector allkeywords,
-			ArrayList nfreeTSs /* is output */) {// inputs
+			ArrayList nfreeTSs /* is output */) {
+		return getSQLstatementParameterized(relations, allkeywords, nfreeTSs, "TS_");
+	}
+
+	public String getSQLstatementParameterized(Vector relations, Vector allkeywords,
+			ArrayList nfreeTSs /* is output */, String TSprefix) {// inputs
 		// a Vector of all Relation objects and outputs the parametrized SQL statement
 		// that evaluates this candidate network
 		// and also the names of non free TSs from which the parameters are instantiated
+		// TSprefix: prefix of the names of the tuple set tables of the query
+		String relationsKey = null;
+		if (plan != null) {
+			relationsKey = TSprefix + "|" + getRelationsKey(relations);
+			String SQL = plan.getSQL(relationsKey, nfreeTSs);
+			if (SQL != null)
+				return SQL;
+		}
+		int firstnfreeTS = nfreeTSs.size();
 		String SQL = "select * from ";
 		Vector v = this.getAllInstances();
 		String parameters = "";
 		for (int i = 0; i < v.size(); i++) {
 			// SQL+= ((Instance) v.elementAt(i)).getRelationName()+" r"+i+" ,";
 			Instance inst = (Instance) v.elementAt(i);
-			String tupleset = getTupleSet4Instance(inst, allkeywords);
+			String tupleset = getTupleSet4Instance(inst, allkeywords, TSprefix);
 			SQL += tupleset + " r" + i + " ,";
 			if (!inst.keywords.isEmpty()) {
 				parameters += " AND " + "r" + i + ".id = ? ";
@@ -614,8 +634,27 @@ public class Instance implements Cloneable// , iCandidateNetwork
 			return null;
 
 		if (v.size() == 1)
-			return (SQL + " where " + parameters.substring(4, parameters.length()));
-		SQL += " WHERE ";
+			SQL = SQL + " where " + parameters.substring(4, parameters.length());
+		else {
+			SQL += " WHERE " + getJoinConditions(relations, v);
+			SQL += " " + parameters;
+		}
+		if (plan != null)
+			plan.putSQL(relationsKey, SQL, new ArrayList(nfreeTSs.subList(firstnfreeTS, nfreeTSs.size())));
+		return SQL;
+	}
+
+	private static String getRelationsKey(Vector relations) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < relations.size(); i++)
+			sb.append(((Relation) relations.elementAt(i)).getJoinSignature()).append('|');
+		return sb.toString();
+	}
+
+	// join conditions of the edges between the instances in v, r<i> being the
+	// alias of the i-th instance
+	private String getJoinConditions(Vector relations, Vector v) {
+		String SQL = "";
 		for (int i = 0; i < v.size(); i++) {
 			Instance inst = (Instance) v.elementAt(i);
 			Relation rel = getRelation(relations, inst.getRelationName());
@@ -634,9 +673,53 @@ public class Instance implements Cloneable// , iCandidateNetwork
 				}
 			}
 		}
-		SQL = SQL.substring(0, SQL.length() - 5); // remove last " AND "
-		SQL += " " + parameters;
-		return SQL;
+		return SQL.substring(0, SQL.length() - 5); // remove last " AND "
+	}
+
+	public String getSQLstatementBatched(Vector relations, Vector allkeywords, int batchSize) {
+		return getSQLstatementBatched(relations, allkeywords, batchSize, "TS_");
+	}
+
+	public String getSQLstatementBatched(Vector relations, Vector allkeywords, int batchSize, String TSprefix) {
+		// same join as getSQLstatementParameterized, but verifies batchSize
+		// combinations of non free tuple ids at once. Each row starts with the ids of
+		// the non free TSs it was produced from, followed by the columns the
+		// parameterized statement returns. Parameters are batchSize groups of ids, in
+		// the order of the non free TSs of getSQLstatementParameterized
+		Vector v = this.getAllInstances();
+		if (v.size() == 0)
+			return null;
+		String from = "";
+		String columns = "";
+		String idColumns = "";
+		int numParams = 0;
+		for (int i = 0; i < v.size(); i++) {
+			Instance inst = (Instance) v.elementAt(i);
+			from += getTupleSet4Instance(inst, allkeywords, TSprefix) + " r" + i + " ,";
+			columns += " r" + i + ".*,";
+			if (!inst.keywords.isEmpty()) {
+				idColumns += " r" + i + ".id,";
+				numParams++;
+			}
+		}
+		if (numParams == 0)
+			return null;
+		from = from.substring(0, from.length() - 1);
+		columns = columns.substring(0, columns.length() - 1);
+		// a disjunction of id equalities rather than a row constructor IN list, since
+		// MySQL only uses the id indexes for the former
+		String parameters = "";
+		for (int b = 0; b < batchSize; b++) {
+			String group = "";
+			for (int i = 0; i < v.size(); i++)
+				if (!((Instance) v.elementAt(i)).keywords.isEmpty())
+					group += " AND r" + i + ".id = ?";
+			parameters += " OR (" + group.substring(5) + ")";
+		}
+		String SQL = "select" + idColumns + columns + " from " + from + " WHERE ";
+		if (v.size() > 1)
+			SQL += getJoinConditions(relations, v) + " AND ";
+		return SQL + "(" + parameters.substring(4) + ")";
 	}
 
 	Relation getRelation(Vector relations, String name) {// inputs a Vector of Relations and outputs the one with name
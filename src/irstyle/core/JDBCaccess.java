@@ -3,15 +3,45 @@ package irstyle.core;
 import java.sql.*;
 //import com.ms.wfc.ui.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import irstyle.api.Params;
 
 public class JDBCaccess {
 	private Statement stmt;
 	public Connection conn;
 	Set<Statement> statementPool = new HashSet<Statement>();
 	Set<ResultSet> resultsetPool = new HashSet<ResultSet>();
+	// cancelled by the deadline of the query from another thread
+	Set<TupleSetCursor> cursorPool = ConcurrentHashMap.newKeySet();
+	// column types of the rows of each prepared statement that is not in the
+	// statement cache, which keeps the layouts of its own statements
+	private Map<Statement, ResultRow.Layout> layouts = new IdentityHashMap<Statement, ResultRow.Layout>();
+	// server side prepared statements of the CN SQL, kept across queries
+	private final StatementCache statementCache = new StatementCache(this::prepareOnServer,
+			Params.statementCacheSize);
 
 	private String databaseName;
 
+	// the tuple sets of the queries of this connection are the tables
+	// tupleSetPrefix + relation name
+	private String tupleSetPrefix = "TS_";
+	private int tupleSetSlot = -1;
+	// tuple set tables created by this connection, emptied for the next query
+	Set<String> tupleSetTables = new HashSet<String>();
+	// slots of the connections of this process with their own tuple sets
+	private static final BitSet tupleSetSlots = new BitSet();
+	// the part of the tuple set prefixes of the slots that tells this process
+	// from others on the same database, null until the first slot is taken
+	private static String processId = null;
+	// the deadline of the current query, and the statement it cancels on expiry
+	private volatile QueryDeadline deadline = null;
+	private volatile Statement executing = null;
+	// opens the connection tuple set pages are prefetched on, null to prefetch
+	// on conn. The factory returns null if there is no connection to give
+	private JDBCaccessPool.ConnectionFactory prefetchConnectionFactory = null;
+	private volatile Connection prefetchConn = null;
+
 	public JDBCaccess(String Server, String Port, String Database_name, String Username, String Password) {
 		try {
 			// DriverManager.registerDriver(new oracle.jdbc.driver.OracleDriver());
@@ -27,8 +57,8 @@ public class JDBCaccess {
 			connectionProps.put("user", Username);
 			connectionProps.put("password", Password);
 			databaseName = Database_name;
-			conn = DriverManager.getConnection("jdbc:mysql://" + Server + ":3306/" + Database_name, connectionProps);
-			conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+			conn = connect("jdbc:mysql://" + Server + ":3306/" + Database_name + "?useServerPrepStmts=true",
+					connectionProps);
 			stmt = conn.createStatement();
 		} catch (Exception e1) {
 			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
@@ -37,10 +67,85 @@ public class JDBCaccess {
 
 	}
 
+	// a connection to url for the keyword search, which only reads its own tuple
+	// sets
+	public static Connection connect(String url, Properties connectionProps) throws SQLException {
+		Connection conn = DriverManager.getConnection(url, connectionProps);
+		conn.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+		return conn;
+	}
+
 	public String getDatabaseName() {
 		return databaseName;
 	}
 
+	public JDBCaccess(Connection conn, String Database_name) {
+		this(conn);
+		databaseName = Database_name;
+	}
+
+	public String getTupleSetPrefix() {
+		return tupleSetPrefix;
+	}
+
+	// gives this connection tuple set tables TS<process>_<slot>_<relation> that no
+	// other connection of this or another process uses, so that queries of
+	// several connections can run at once
+	public void openTupleSetSession() {
+		if (tupleSetSlot >= 0)
+			return;
+		String process;
+		synchronized (tupleSetSlots) {
+			if (processId == null)
+				processId = readProcessId(conn);
+			process = processId;
+			tupleSetSlot = tupleSetSlots.nextClearBit(0);
+			tupleSetSlots.set(tupleSetSlot);
+		}
+		tupleSetPrefix = "TS" + process + "_" + tupleSetSlot + "_";
+		tupleSetTables.clear();
+	}
+
+	// the MySQL id of the connection, which no other connection to the server has
+	// while it is open, or a random number if the server has no CONNECTION_ID
+	private static String readProcessId(Connection conn) {
+		try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("SELECT CONNECTION_ID()")) {
+			if (rs.next())
+				return Long.toString(rs.getLong(1));
+		} catch (Exception e1) {
+			// not MySQL
+		}
+		return Integer.toString(new Random().nextInt(Integer.MAX_VALUE));
+	}
+
+	/**
+	 * @return the start of the names of the tuple set tables of the slots of this
+	 *         process, null if no slot was taken yet
+	 */
+	public static String getProcessTupleSetPrefix() {
+		synchronized (tupleSetSlots) {
+			return processId == null ? null : "TS" + processId + "_";
+		}
+	}
+
+	// the tuple set tables were dropped, so they are created again on next use
+	public void clearTupleSetTables() {
+		tupleSetTables.clear();
+	}
+
+	// the tables of the slot stay, to be emptied by the next connection with it,
+	// until the connection that used them is closed
+	void closeTupleSetSession() {
+		if (tupleSetSlot < 0)
+			return;
+		synchronized (tupleSetSlots) {
+			tupleSetSlots.clear(tupleSetSlot);
+		}
+		tupleSetSlot = -1;
+		tupleSetPrefix = "TS_";
+		tupleSetTables.clear();
+	}
+
 	public JDBCaccess(Connection conn) {
 		try {
 			this.conn = conn;
@@ -123,9 +228,20 @@ public class JDBCaccess {
 	}
 
 	void closeall() {
+		// the names of the tables are unique to this process, so no later process
+		// would empty them
+		if (tupleSetSlot >= 0)
+			for (String table : new ArrayList<String>(tupleSetTables))
+				dropTable(table);
+		closeTupleSetSession();
 		try {
-			stmt.close();
+			closeStatements();
 			conn.close();
+			synchronized (this) {
+				if (prefetchConn != null)
+					prefetchConn.close();
+				prefetchConn = null;
+			}
 		} catch (Exception e1) {
 			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
 					+ "exception in JDBCaccess.JDBCaccess");
@@ -153,6 +269,7 @@ public class JDBCaccess {
 	public int dropTable(String name) {
 		String sql = "drop table if exists " + name;
 		execute(sql);
+		tupleSetTables.remove(name);
 		return 0;
 	}
 
@@ -166,26 +283,114 @@ public class JDBCaccess {
 		return null;
 	}
 
+	// the statement of sql from the statement cache, or a new one closed on
+	// cleanup if there is no cache
+	PreparedStatement getCachedStatement(String sql) {
+		if (Params.statementCacheSize <= 0) {
+			PreparedStatement prepared = createPreparedStatement(sql);
+			statementPool.add(prepared);
+			return prepared;
+		}
+		try {
+			return statementCache.get(sql);
+		} catch (Exception e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ "exception in getCachedStatement: " + sql);
+		}
+		return null;
+	}
+
+	// closes the statements of this, but not its connection
+	void closeStatements() throws SQLException {
+		cleanup();
+		statementCache.closeAll();
+		stmt.close();
+	}
+
+	// MySQL prepares statements on the server only with useServerPrepStmts=true
+	// (or useCursorFetch=true) in the url, as in IRStyleKeywordSearch.jdbcUrl
+	private PreparedStatement prepareOnServer(String sql) throws SQLException {
+		return conn.prepareStatement(sql);
+	}
+
+	public String getStatementCacheStats() {
+		return statementCache.getStats();
+	}
+
 	ResultSet executePrepared(PreparedStatement prepared) {
+		QueryDeadline deadline = this.deadline;
+		if (deadline != null && deadline.isExpired())
+			return null;
 		try {
+			executing = prepared;
 			return prepared.executeQuery();
 		} catch (Exception e1) {
+			if (deadline != null && deadline.isExpired()) // cancelled
+				return null;
 			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
 					+ "exception in  JDBCaccess.executePrepared. prepared: " + prepared.toString());
 			return null;
+		} finally {
+			executing = null;
 		}
 	}
 
+	public void setPrefetchConnectionFactory(JDBCaccessPool.ConnectionFactory factory) {
+		prefetchConnectionFactory = factory;
+	}
+
+	// the connection tuple set pages are prefetched on, opened on first use, so
+	// that prefetching does not wait for the statements on conn, or null if the
+	// factory has none to give
+	synchronized Connection getPrefetchConnection() throws SQLException {
+		if (prefetchConnectionFactory == null)
+			return conn;
+		if (prefetchConn == null)
+			prefetchConn = prefetchConnectionFactory.connect();
+		return prefetchConn;
+	}
+
+	boolean hasPrefetchConnection() {
+		return prefetchConn != null;
+	}
+
+	// cancels the tuple set pages being read, in the background or not
+	void cancelCursorReads() {
+		for (TupleSetCursor cursor : cursorPool)
+			cursor.cancel();
+	}
+
+	void setDeadline(QueryDeadline deadline) {
+		this.deadline = deadline;
+	}
+
+	// true if the deadline of the current query expired
+	boolean isOutOfTime() {
+		QueryDeadline deadline = this.deadline;
+		return deadline != null && deadline.isExpired();
+	}
+
+	// the statement being executed by executePrepared, null if none
+	Statement getExecuting() {
+		return executing;
+	}
+
 	void printResult(ResultSet rs) {
 		System.out.println(getResult(rs));
 	}
 
 	String getResult(ResultSet rs) {
+		return getResult(rs, 1);
+	}
+
+	// renders the columns from firstColumn on; batched probes prefix each row
+	// with the ids of the combination it belongs to
+	String getResult(ResultSet rs, int firstColumn) {
 		try {
 			String str = "";
 			ResultSetMetaData rsmd = rs.getMetaData();
 			int numberOfColumns = rsmd.getColumnCount();
-			for (int i = 1; i <= numberOfColumns; i++) {
+			for (int i = firstColumn; i <= numberOfColumns; i++) {
 				String type = rsmd.getColumnTypeName(i);
 				if (type.compareTo("INT") == 0)
 					str += rs.getInt(i);
@@ -201,6 +406,20 @@ public class JDBCaccess {
 		}
 	}
 
+	// reads the columns from firstColumn on of the current row of rs, which was
+	// returned by prepared
+	ResultRow getResultRow(PreparedStatement prepared, ResultSet rs, int firstColumn) throws SQLException {
+		ResultRow.Layout layout = statementCache.getLayout(prepared);
+		if (layout == null)
+			layout = layouts.get(prepared);
+		if (layout == null || layout.firstColumn != firstColumn) {
+			layout = new ResultRow.Layout(rs.getMetaData(), firstColumn);
+			if (!statementCache.setLayout(prepared, layout))
+				layouts.put(prepared, layout);
+		}
+		return ResultRow.read(rs, layout);
+	}
+
 	ResultSet createCursor(String sqlstatement) {
 		try {
 			Statement st = conn.createStatement();
@@ -216,7 +435,20 @@ public class JDBCaccess {
 		}
 	}
 
+	// tuples of the tuple set TSname in descending score order, read pageSize at
+	// a time
+	TupleSetCursor createTupleSetCursor(String TSname, int pageSize, boolean prefetch) {
+		TupleSetCursor cursor = TupleSetCursor.create(this, TSname, pageSize, prefetch);
+		cursorPool.add(cursor);
+		return cursor;
+	}
+
 	public void cleanup() {
+		layouts.clear();
+		for (TupleSetCursor cursor : cursorPool)
+			cursor.close();
+		cursorPool.clear();
+		statementCache.release();
 		for (Statement st : statementPool) {
 			if (st != null) {
 				try {
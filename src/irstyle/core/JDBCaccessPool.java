@@ -0,0 +1,285 @@
+package irstyle.core;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * JDBCaccess objects to one database, each used by one query or worker thread
+ * at a time, with tuple set tables of their own. A lease takes the most
+ * recently returned idle connection, checks it if it was idle for more than
+ * VALIDATION_INTERVAL and opens a new one if there is none, up to maxSize
+ * connections. Connections idle for more than maxIdleMillis are closed.
+ *
+ * The connection a JDBCaccess prefetches tuple sets on takes a slot of the
+ * pool too, and is not opened if all slots are taken, so the pool never has
+ * more than maxSize connections to the server.
+ */
+public class JDBCaccessPool {
+
+	public interface ConnectionFactory {
+		Connection connect() throws SQLException;
+	}
+
+	// connections idle for less are leased without a round trip to the server
+	static final long VALIDATION_INTERVAL = 5 * 1000;
+
+	private static final int VALIDATION_TIMEOUT = 2; // seconds
+
+	/**
+	 * A leased JDBCaccess, returned to the pool on close.
+	 */
+	public class Lease implements AutoCloseable {
+		private JDBCaccess jdbcacc;
+
+		private Lease(JDBCaccess jdbcacc) {
+			this.jdbcacc = jdbcacc;
+		}
+
+		public JDBCaccess get() {
+			return jdbcacc;
+		}
+
+		public void close() {
+			if (jdbcacc != null)
+				release(jdbcacc);
+			jdbcacc = null;
+		}
+	}
+
+	private static class Idle {
+		final JDBCaccess jdbcacc;
+		final long since;
+
+		Idle(JDBCaccess jdbcacc, long since) {
+			this.jdbcacc = jdbcacc;
+			this.since = since;
+		}
+	}
+
+	private final ConnectionFactory factory;
+	private final String databaseName;
+	private final int maxSize;
+	private final long maxIdleMillis;
+	private final ArrayDeque<Idle> idle = new ArrayDeque<Idle>(); // most recently returned first
+	long validationInterval = VALIDATION_INTERVAL;
+	private int numOpen = 0;
+	private boolean closed = false;
+	private int numCreated = 0;
+	private int numReused = 0;
+	private int numInvalid = 0;
+	private int numEvicted = 0;
+
+	public JDBCaccessPool(String url, Properties connectionProps, String databaseName, int maxSize,
+			long maxIdleMillis) {
+		this(() -> JDBCaccess.connect(url, connectionProps), databaseName, maxSize, maxIdleMillis);
+	}
+
+	JDBCaccessPool(ConnectionFactory factory, String databaseName, int maxSize, long maxIdleMillis) {
+		this.factory = factory;
+		this.databaseName = databaseName;
+		this.maxSize = Math.max(maxSize, 1);
+		this.maxIdleMillis = maxIdleMillis;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	/**
+	 * @return a lease of a connection, waiting while all maxSize connections are
+	 *         leased
+	 */
+	public Lease lease() throws SQLException {
+		return new Lease(take(true));
+	}
+
+	/**
+	 * @return a lease of a connection, or null if all maxSize connections are
+	 *         leased
+	 */
+	public Lease tryLease() throws SQLException {
+		JDBCaccess jdbcacc = take(false);
+		return jdbcacc == null ? null : new Lease(jdbcacc);
+	}
+
+	// an idle or new connection, or null if there can be no more connections and
+	// wait is false. The connection, or the slot of a new one, is reserved under
+	// the lock of the pool and checked or opened outside it, so that a slow
+	// server does not hold up the leases and releases of other threads
+	private JDBCaccess take(boolean wait) throws SQLException {
+		while (true) {
+			Idle reserved = null;
+			boolean newSlot = false;
+			ArrayList<JDBCaccess> evicted = new ArrayList<JDBCaccess>();
+			synchronized (this) {
+				while (true) {
+					if (closed)
+						throw new SQLException("connection pool of " + databaseName + " is closed");
+					evictIdle(System.currentTimeMillis(), evicted);
+					if (!idle.isEmpty()) {
+						reserved = idle.removeFirst();
+						break;
+					}
+					if (numOpen < maxSize) {
+						numOpen++;
+						newSlot = true;
+						break;
+					}
+					if (!wait)
+						break;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new SQLException("interrupted while waiting for a connection to " + databaseName);
+					}
+				}
+			}
+			for (JDBCaccess jdbcacc : evicted)
+				jdbcacc.closeall();
+			if (reserved != null) {
+				if (System.currentTimeMillis() - reserved.since < validationInterval || isValid(reserved.jdbcacc)) {
+					synchronized (this) {
+						numReused++;
+					}
+					return reserved.jdbcacc;
+				}
+				int slots = getNumSlots(reserved.jdbcacc);
+				reserved.jdbcacc.closeall();
+				synchronized (this) {
+					numInvalid++;
+					numOpen -= slots;
+					notifyAll();
+				}
+			} else if (newSlot)
+				return open();
+			else
+				return null;
+		}
+	}
+
+	// a new connection in a slot reserved by take, which is given back if the
+	// connection cannot be opened
+	private JDBCaccess open() throws SQLException {
+		Connection conn;
+		try {
+			conn = factory.connect();
+		} catch (SQLException | RuntimeException e) {
+			synchronized (this) {
+				numOpen--;
+				notifyAll();
+			}
+			throw e;
+		}
+		JDBCaccess jdbcacc = new JDBCaccess(conn, databaseName);
+		jdbcacc.setPrefetchConnectionFactory(this::openPrefetch);
+		jdbcacc.openTupleSetSession();
+		synchronized (this) {
+			numCreated++;
+		}
+		return jdbcacc;
+	}
+
+	// a connection to prefetch tuple sets on in a free slot, or null if all
+	// maxSize slots are taken
+	private Connection openPrefetch() throws SQLException {
+		synchronized (this) {
+			if (closed || numOpen >= maxSize)
+				return null;
+			numOpen++;
+		}
+		try {
+			return factory.connect();
+		} catch (SQLException | RuntimeException e) {
+			synchronized (this) {
+				numOpen--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	// the slots of the connection of jdbcacc and of its prefetch connection
+	private static int getNumSlots(JDBCaccess jdbcacc) {
+		return jdbcacc.hasPrefetchConnection() ? 2 : 1;
+	}
+
+	private static boolean isValid(JDBCaccess jdbcacc) {
+		try {
+			return jdbcacc.conn.isValid(VALIDATION_TIMEOUT);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private void release(JDBCaccess jdbcacc) {
+		jdbcacc.cleanup();
+		boolean close;
+		synchronized (this) {
+			close = closed;
+			if (closed)
+				numOpen -= getNumSlots(jdbcacc);
+			else
+				idle.addFirst(new Idle(jdbcacc, System.currentTimeMillis()));
+			notifyAll();
+		}
+		if (close)
+			jdbcacc.closeall();
+	}
+
+	// removes the connections idle for more than maxIdleMillis, to be closed by
+	// the caller outside the lock of the pool
+	private void evictIdle(long now, List<JDBCaccess> evicted) {
+		Iterator<Idle> it = idle.descendingIterator();
+		while (it.hasNext()) {
+			Idle last = it.next();
+			if (now - last.since <= maxIdleMillis)
+				break;
+			it.remove();
+			numOpen -= getNumSlots(last.jdbcacc);
+			numEvicted++;
+			evicted.add(last.jdbcacc);
+		}
+	}
+
+	// closes the connections idle for more than maxIdleMillis
+	public void evictIdle() {
+		ArrayList<JDBCaccess> evicted = new ArrayList<JDBCaccess>();
+		synchronized (this) {
+			evictIdle(System.currentTimeMillis(), evicted);
+		}
+		for (JDBCaccess jdbcacc : evicted)
+			jdbcacc.closeall();
+	}
+
+	// closes the idle connections now and the leased ones when they are returned
+	public synchronized void close() {
+		closed = true;
+		for (Idle i : idle) {
+			numOpen -= getNumSlots(i.jdbcacc);
+			i.jdbcacc.closeall();
+		}
+		idle.clear();
+		notifyAll();
+	}
+
+	synchronized int getNumOpen() {
+		return numOpen;
+	}
+
+	synchronized int getNumIdle() {
+		return idle.size();
+	}
+
+	public synchronized String getStats() {
+		return "connection pool of " + databaseName + ": " + numOpen + " open, " + idle.size() + " idle, "
+				+ numCreated + " created, " + numReused + " reused, " + numInvalid + " invalid, " + numEvicted
+				+ " evicted";
+	}
+
+}
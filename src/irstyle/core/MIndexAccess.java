@@ -204,52 +204,65 @@ public class MIndexAccess {
 	}
 
 	public void createTupleSetsFast(Schema sch, Vector allkeywords, Connection conn,
-			Map<String, List<String>> relnameValues) throws SQLException {
+			Map<String, ScoredIds> relnameValues) throws SQLException {
 		JDBCaccess jdbcacc = new JDBCaccess(conn);
-		// create non-empty tuple sets and add keywords to schema
-		Vector allInst = sch.getAllInstances();
-		String keywList = "";
-		for (int j = 0; j < allkeywords.size(); j++) {
-			String keyw = (String) allkeywords.elementAt(j);
-			keywList += keyw + " ";
+		try {
+			createTupleSetsFast(sch, allkeywords, jdbcacc, relnameValues);
+		} finally {
+			jdbcacc.closeStatements();
 		}
-		keywList = keywList.substring(0, keywList.length() - 1);
+	}
+
+	// fills the tuple sets of the query in the tables of jdbcacc, which are
+	// created on first use and emptied for the following queries
+	public void createTupleSetsFast(Schema sch, Vector allkeywords, JDBCaccess jdbcacc,
+			Map<String, ScoredIds> relnameValues) throws SQLException {
+		Connection conn = jdbcacc.conn;
+		// create non-empty tuple sets and add keywords to schema
 		conn.setAutoCommit(false);
 		for (int i = 0; i < relations.size(); i++) {
 			if (hasTextAttr((Relation) relations.elementAt(i))) {
 				Relation rel = (Relation) relations.elementAt(i);
-				String tuplesetName = "TS_" + rel.getName();
+				String tuplesetName = jdbcacc.getTupleSetPrefix() + rel.getName();
 				// String createTable = "CREATE TABLE " + tuplesetName + "(id int, score
 				// float);";
 				// if (relnameValues.get(rel.name).size() <= 1000) {
-				String createTable = "CREATE TABLE  " + tuplesetName + "(id int, score float) ENGINE=MEMORY;";
+				if (jdbcacc.tupleSetTables.add(tuplesetName))
+					jdbcacc.execute("CREATE TABLE IF NOT EXISTS " + tuplesetName + "(id int, score float) ENGINE=MEMORY;");
 				// }
-				jdbcacc.execute(createTable);
-				List<String> values = relnameValues.get(rel.name);
+				jdbcacc.execute("TRUNCATE TABLE " + tuplesetName);
+				ScoredIds values = relnameValues.get(rel.name);
 				String insertIntoTemplate = "INSERT INTO " + tuplesetName + "(id, score) VALUES (?,?);";
-				PreparedStatement stmt = jdbcacc.createPreparedStatement(insertIntoTemplate);
-				for (String value : values) {
-					String[] fields = value.split(",");
-					stmt.setInt(1, Integer.parseInt(fields[0].substring(1)));
-					stmt.setFloat(2, Float.parseFloat(fields[1].substring(0, fields[1].length() - 1)));
+				PreparedStatement stmt = jdbcacc.getCachedStatement(insertIntoTemplate);
+				for (int j = 0; j < values.size(); j++) {
+					stmt.setInt(1, values.getId(j));
+					stmt.setFloat(2, values.getScore(j));
 					stmt.addBatch();
 				}
 				stmt.executeBatch();
 				conn.commit();
-				if (!jdbcacc.isTableEmpty("TS_" + rel.getName())) {// add all or none keywords
-					for (int y = 0; y < allkeywords.size(); y++)
-						sch.getInstance(rel.getName()).addKeyword((String) allkeywords.elementAt(y));
-					TupleSet ts = new TupleSet();
-					ts.relname = rel.getName();
-					ts.TSname = "TS_" + rel.getName();
-					ts.keywords = (Vector) allkeywords.clone();
-					tuplesets.addElement(ts);
-				}
+				if (values.size() > 0) // add all or none keywords
+					addTupleSet(sch, rel.getName(), allkeywords, tuplesetName);
 			}
 		}
 		conn.setAutoCommit(true);
 	}
 
+	// adds the non empty tuple set TS_relname that contains all keywords
+	void addTupleSet(Schema sch, String relname, Vector allkeywords) {
+		addTupleSet(sch, relname, allkeywords, "TS_" + relname);
+	}
+
+	void addTupleSet(Schema sch, String relname, Vector allkeywords, String TSname) {
+		for (int y = 0; y < allkeywords.size(); y++)
+			sch.getInstance(relname).addKeyword((String) allkeywords.elementAt(y));
+		TupleSet ts = new TupleSet();
+		ts.relname = relname;
+		ts.TSname = TSname;
+		ts.keywords = (Vector) allkeywords.clone();
+		tuplesets.addElement(ts);
+	}
+
 	void clearTupleSets(Connection conn) {
 		JDBCaccess jdbcacc = new JDBCaccess(conn);
 		for (int i = 0; i < tuplesets.size(); i++) {
@@ -329,6 +342,18 @@ public class MIndexAccess {
 		return newCNs;// CNs=(Vector) newCNs.clone();
 	}
 
+	// appends the relation and keyword positions in allkeyw of each tuple set,
+	// false if a keyword is not in allkeyw
+	boolean appendCoverage(StringBuilder sb, Vector allkeyw) {
+		for (int i = 0; i < tuplesets.size(); i++) {
+			TupleSet t = (TupleSet) tuplesets.elementAt(i);
+			sb.append(';').append(t.relname);
+			if (!CNPlanCache.appendKeywords(sb, t.keywords, allkeyw))
+				return false;
+		}
+		return true;
+	}
+
 	Vector getKeywComb4Relname(String rname) {
 		Vector v = new Vector(1);
 		v.addElement(new Vector(0));
@@ -0,0 +1,306 @@
+package irstyle.core;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * AdjacencyIndex read from a file written by write, typically by
+ * irstyle.BuildJoinIndex. The sections of the file are memory mapped, so an
+ * index opens without reading the relation from the database and its pages
+ * are served from the OS page cache, also across restarts.
+ *
+ * Rows are stored in ascending order of their column values, first column
+ * first. Thus the rows of a value of one column of a two column relation are in
+ * ascending order of the other column, and hasEdge is a binary search.
+ *
+ * The header keeps the number of rows and the checksum of the rows that were
+ * written, so that a reader can tell whether the relation changed since, see
+ * checksum.
+ *
+ * File layout, big endian ints: MAGIC, VERSION, the length of the header, the
+ * header (number of columns, number of rows, the checksum as a long, and the
+ * name and number of distinct values of each column), then for each column its
+ * values by row, its distinct values, their offsets and the rows sorted by
+ * value, as in CSRAdjacencyIndex.
+ */
+public class MappedAdjacencyIndex implements AdjacencyIndex {
+
+	static final int MAGIC = 0x49524a58;
+	static final int VERSION = 2;
+
+	private final String name;
+	private final String[] columnNames;
+	private final int numRows;
+	private final long checksum;
+	private final IntBuffer[] values;
+	private final IntBuffer[] keys;
+	private final IntBuffer[] offsets;
+	private final IntBuffer[] rows;
+
+	private MappedAdjacencyIndex(String name, String[] columnNames, int numRows, long checksum, IntBuffer[] values,
+			IntBuffer[] keys, IntBuffer[] offsets, IntBuffer[] rows) {
+		this.name = name;
+		this.columnNames = columnNames;
+		this.numRows = numRows;
+		this.checksum = checksum;
+		this.values = values;
+		this.keys = keys;
+		this.offsets = offsets;
+		this.rows = rows;
+	}
+
+	/**
+	 * Writes the rows of index to file, replacing it once it is complete.
+	 */
+	public static void write(AdjacencyIndex index, Path file) throws IOException {
+		CSRAdjacencyIndex sorted = sortRows(index);
+		String[] columnNames = index.getColumnNames();
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(columnNames.length);
+		out.writeInt(sorted.getNumRows());
+		out.writeLong(checksum(sorted));
+		for (int c = 0; c < columnNames.length; c++) {
+			out.writeUTF(columnNames[c]);
+			out.writeInt(sorted.getKeys(c).length);
+		}
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (DataOutputStream data = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+			data.writeInt(MAGIC);
+			data.writeInt(VERSION);
+			data.writeInt(header.size());
+			header.writeTo(data);
+			for (int c = 0; c < columnNames.length; c++) {
+				writeInts(data, sorted.getValues(c));
+				writeInts(data, sorted.getKeys(c));
+				writeInts(data, sorted.getOffsets(c));
+				writeInts(data, sorted.getRows(c));
+			}
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return the sum over all rows of the CRC-32 of the column values of the row
+	 *         joined by commas, which does not depend on the order of the rows
+	 *         and is what MySQL computes with sum(crc32(concat_ws(',', columns)))
+	 */
+	public static long checksum(AdjacencyIndex index) {
+		int numColumns = index.getColumnNames().length;
+		CRC32 crc = new CRC32();
+		StringBuilder sb = new StringBuilder();
+		long sum = 0;
+		for (int r = 0; r < index.getNumRows(); r++) {
+			sb.setLength(0);
+			for (int c = 0; c < numColumns; c++) {
+				if (c > 0)
+					sb.append(',');
+				sb.append(index.getValue(r, c));
+			}
+			crc.reset();
+			crc.update(sb.toString().getBytes(StandardCharsets.US_ASCII));
+			sum += crc.getValue();
+		}
+		return sum;
+	}
+
+	private static void writeInts(DataOutputStream data, int[] ints) throws IOException {
+		for (int i : ints)
+			data.writeInt(i);
+	}
+
+	// the rows of index in ascending order of their column values, by stable
+	// sorts from the last column to the first
+	private static CSRAdjacencyIndex sortRows(AdjacencyIndex index) {
+		int numColumns = index.getColumnNames().length;
+		int numRows = index.getNumRows();
+		int[] perm = new int[numRows];
+		for (int r = 0; r < numRows; r++)
+			perm[r] = r;
+		long[] pairs = new long[numRows];
+		for (int c = numColumns - 1; c >= 0; c--) {
+			for (int i = 0; i < numRows; i++)
+				pairs[i] = ((long) index.getValue(perm[i], c) << 32) | i;
+			Arrays.sort(pairs);
+			int[] next = new int[numRows];
+			for (int i = 0; i < numRows; i++)
+				next[i] = perm[(int) pairs[i]];
+			perm = next;
+		}
+		int[][] values = new int[numColumns][numRows];
+		for (int c = 0; c < numColumns; c++)
+			for (int i = 0; i < numRows; i++)
+				values[c][i] = index.getValue(perm[i], c);
+		return new CSRAdjacencyIndex(index.getName(), index.getColumnNames(), values);
+	}
+
+	/**
+	 * Maps a file written by write. The name of the index is the file name
+	 * without its extension.
+	 */
+	public static MappedAdjacencyIndex open(Path file) throws IOException {
+		String name = file.getFileName().toString();
+		if (name.lastIndexOf('.') > 0)
+			name = name.substring(0, name.lastIndexOf('.'));
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			DataInputStream in = new DataInputStream(Channels.newInputStream(channel));
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a join index file");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException(file + " has version " + version + " instead of " + VERSION);
+			long position = 12 + in.readInt();
+			int numColumns = in.readInt();
+			int numRows = in.readInt();
+			long checksum = in.readLong();
+			String[] columnNames = new String[numColumns];
+			int[] numKeys = new int[numColumns];
+			for (int c = 0; c < numColumns; c++) {
+				columnNames[c] = in.readUTF();
+				numKeys[c] = in.readInt();
+			}
+			IntBuffer[] values = new IntBuffer[numColumns];
+			IntBuffer[] keys = new IntBuffer[numColumns];
+			IntBuffer[] offsets = new IntBuffer[numColumns];
+			IntBuffer[] rows = new IntBuffer[numColumns];
+			// each section is mapped on its own, since a mapping holds less than 2^31
+			// bytes
+			for (int c = 0; c < numColumns; c++) {
+				values[c] = map(channel, position, numRows);
+				position += 4L * numRows;
+				keys[c] = map(channel, position, numKeys[c]);
+				position += 4L * numKeys[c];
+				offsets[c] = map(channel, position, numKeys[c] + 1);
+				position += 4L * (numKeys[c] + 1);
+				rows[c] = map(channel, position, numRows);
+				position += 4L * numRows;
+			}
+			if (position != channel.size())
+				throw new IOException(file + " is truncated");
+			return new MappedAdjacencyIndex(name, columnNames, numRows, checksum, values, keys, offsets, rows);
+		}
+	}
+
+	private static IntBuffer map(FileChannel channel, long position, int numInts) throws IOException {
+		if (position + 4L * numInts > channel.size())
+			throw new IOException("join index file is truncated");
+		return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * numInts).asIntBuffer();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumRows() {
+		return numRows;
+	}
+
+	// the checksum of the rows when the file was written
+	public long getChecksum() {
+		return checksum;
+	}
+
+	public String[] getColumnNames() {
+		return columnNames;
+	}
+
+	public int getColumnIndex(String columnName) {
+		for (int c = 0; c < columnNames.length; c++)
+			if (columnNames[c].equals(columnName))
+				return c;
+		return -1;
+	}
+
+	public int getValue(int row, int column) {
+		return values[column].get(row);
+	}
+
+	// the position of value among the distinct values of column, or -1
+	private int find(int column, int value) {
+		IntBuffer columnKeys = keys[column];
+		int low = 0;
+		int high = columnKeys.limit() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int key = columnKeys.get(mid);
+			if (key < value)
+				low = mid + 1;
+			else if (key > value)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	public int begin(int column, int value) {
+		int k = find(column, value);
+		return k < 0 ? 0 : offsets[column].get(k);
+	}
+
+	public int end(int column, int value) {
+		int k = find(column, value);
+		return k < 0 ? 0 : offsets[column].get(k + 1);
+	}
+
+	public int getRow(int column, int position) {
+		return rows[column].get(position);
+	}
+
+	/**
+	 * @return the values of otherColumn in the rows where column has value, e.g.
+	 *         the images of an article
+	 */
+	public int[] neighbors(int column, int value, int otherColumn) {
+		int k = find(column, value);
+		if (k < 0)
+			return new int[0];
+		int begin = offsets[column].get(k);
+		int[] neighbors = new int[offsets[column].get(k + 1) - begin];
+		for (int p = 0; p < neighbors.length; p++)
+			neighbors[p] = getValue(getRow(column, begin + p), otherColumn);
+		return neighbors;
+	}
+
+	/**
+	 * @return true if a row has value in column and otherValue in otherColumn
+	 */
+	public boolean hasEdge(int column, int value, int otherColumn, int otherValue) {
+		int k = find(column, value);
+		if (k < 0)
+			return false;
+		int low = offsets[column].get(k);
+		int high = offsets[column].get(k + 1) - 1;
+		if (columnNames.length != 2) { // the rows of value are not sorted by otherColumn
+			for (int p = low; p <= high; p++)
+				if (getValue(getRow(column, p), otherColumn) == otherValue)
+					return true;
+			return false;
+		}
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int other = getValue(getRow(column, mid), otherColumn);
+			if (other < otherValue)
+				low = mid + 1;
+			else if (other > otherValue)
+				high = mid - 1;
+			else
+				return true;
+		}
+		return false;
+	}
+
+}
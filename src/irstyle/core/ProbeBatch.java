@@ -0,0 +1,115 @@
+package irstyle.core;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+
+/**
+ * Pending tuple id combinations of one candidate network, verified together by
+ * a single execution of the statement built by
+ * {@link Instance#getSQLstatementBatched}. The joined rows are scattered back
+ * to their combinations by the ids every row starts with, and are offered to
+ * the collector in the order the combinations were added, so the top-N results
+ * are the same as when probing one combination at a time.
+ */
+class ProbeBatch {
+
+	private final PreparedStatement prepared;
+	private final int numParams;
+	private final int[][] ids;
+	private final double[] scores;
+	private final ArrayList[] rows;
+	private int count = 0;
+	private int numRoundTrips = 0;
+
+	ProbeBatch(PreparedStatement prepared, int numParams, int batchSize) {
+		this.prepared = prepared;
+		this.numParams = numParams;
+		ids = new int[batchSize][numParams];
+		scores = new double[batchSize];
+		rows = new ArrayList[batchSize];
+		for (int b = 0; b < batchSize; b++)
+			rows[b] = new ArrayList(1);
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	boolean isFull() {
+		return count == ids.length;
+	}
+
+	int getNumRoundTrips() {
+		return numRoundTrips;
+	}
+
+	void add(ArrayList[] S, int[] indexToBeChecked, double score) {
+		for (int i = 0; i < numParams; i++)
+			ids[count][i] = ((Integer) S[i].get(indexToBeChecked[i])).intValue();
+		scores[count] = score;
+		count++;
+	}
+
+	// verifies the pending combinations and adds their results to R, returns the
+	// new number of results in R
+	int flush(JDBCaccess jdbcacc, TopNCollector<ResultRow> R, ArrayList keywords, boolean allKeywInResults) {
+		if (count == 0)
+			return R.size();
+		try {
+			int param = 1;
+			for (int b = 0; b < ids.length; b++) {
+				// a partial batch repeats its last combination
+				int[] combination = ids[Math.min(b, count - 1)];
+				for (int i = 0; i < numParams; i++)
+					prepared.setInt(param++, combination[i]);
+			}
+			ResultSet rs = jdbcacc.executePrepared(prepared);
+			numRoundTrips++;
+			if (rs == null) {
+				if (!jdbcacc.isOutOfTime())
+					System.out.println("rs==null " + prepared.toString());
+			} else
+				while (rs.next()) {
+					int b = findCombination(rs);
+					// nthScore of R only grows, so a row rejected now is rejected later
+					if (b < 0 || !R.accepts(scores[b]))
+						continue;
+					ResultRow row = jdbcacc.getResultRow(prepared, rs, numParams + 1);
+					if (!allKeywInResults || row.containsAll(keywords))
+						rows[b].add(row);
+					if (Flags.RESULTS__SHOW_OUTPUT)
+						System.out.println(row);
+				}
+			for (int b = 0; b < count; b++) {
+				for (int r = 0; r < rows[b].size(); r++)
+					R.add(scores[b], (ResultRow) rows[b].get(r));
+				rows[b].clear();
+			}
+			count = 0;
+			return R.size();
+		} catch (Exception e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ " exception in  ProbeBatch.flush");
+			e1.printStackTrace();
+			for (int b = 0; b < count; b++)
+				rows[b].clear();
+			count = 0;
+			return -1;
+		}
+	}
+
+	private int findCombination(ResultSet rs) throws Exception {
+		int[] rowIds = new int[numParams];
+		for (int i = 0; i < numParams; i++)
+			rowIds[i] = rs.getInt(i + 1);
+		for (int b = 0; b < count; b++) {
+			boolean match = true;
+			for (int i = 0; i < numParams && match; i++)
+				match = ids[b][i] == rowIds[i];
+			if (match)
+				return b;
+		}
+		return -1;
+	}
+}
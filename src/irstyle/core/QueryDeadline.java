@@ -0,0 +1,123 @@
+package irstyle.core;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time budget of one keyword query. The query enters its stages in turn
+ * and checks isExpired where it can stop early. When the budget runs out, the
+ * stage the query is in is recorded and the statement each attached
+ * connection is executing is cancelled, so a long SQL probe does not run to
+ * its end.
+ */
+public class QueryDeadline {
+
+	private static final ScheduledExecutorService timer = createTimer();
+
+	private static ScheduledExecutorService createTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, r -> {
+			Thread thread = new Thread(r, "query deadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
+	private final long deadline;
+	private final ScheduledFuture<?> expiry;
+	private final ArrayList<JDBCaccess> connections = new ArrayList<JDBCaccess>();
+	private volatile String stage = "start";
+	private volatile String expiredStage = null;
+
+	/**
+	 * @param budget
+	 *            the time the query may take from now on (ms)
+	 */
+	public QueryDeadline(long budget) {
+		deadline = System.currentTimeMillis() + budget;
+		expiry = timer.schedule(this::expire, Math.max(budget, 0), TimeUnit.MILLISECONDS);
+	}
+
+	private void expire() {
+		synchronized (this) {
+			if (expiredStage != null)
+				return;
+			expiredStage = stage;
+		}
+		// close waits for the cancellations, so they cannot hit the next query of a
+		// connection
+		synchronized (connections) {
+			for (JDBCaccess jdbcacc : connections) {
+				jdbcacc.cancelCursorReads();
+				Statement executing = jdbcacc.getExecuting();
+				if (executing == null)
+					continue;
+				try {
+					executing.cancel();
+				} catch (Exception e1) {
+					System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+							+ " exception in  QueryDeadline.expire");
+				}
+			}
+		}
+	}
+
+	// the query starts stage, e.g. "tuple sets" or "CNs"
+	public void enter(String stage) {
+		this.stage = stage;
+		if (System.currentTimeMillis() >= deadline)
+			expire();
+	}
+
+	public boolean isExpired() {
+		if (expiredStage == null && System.currentTimeMillis() >= deadline)
+			expire();
+		return expiredStage != null;
+	}
+
+	/**
+	 * @return the stage the query was in when the budget ran out, or null if it
+	 *         did not
+	 */
+	public String getExpiredStage() {
+		return expiredStage;
+	}
+
+	// the milliseconds left, 0 if none
+	public long getRemaining() {
+		return Math.max(deadline - System.currentTimeMillis(), 0);
+	}
+
+	// the statements jdbcacc executes for the query are cancelled on expiry
+	public void attach(JDBCaccess jdbcacc) {
+		synchronized (connections) {
+			connections.add(jdbcacc);
+		}
+		jdbcacc.setDeadline(this);
+	}
+
+	// the statements of jdbcacc are not cancelled anymore, e.g. before it is
+	// returned to its pool
+	public void detach(JDBCaccess jdbcacc) {
+		synchronized (connections) {
+			connections.remove(jdbcacc);
+		}
+		jdbcacc.setDeadline(null);
+	}
+
+	// stops the timer and detaches the connections
+	public void close() {
+		expiry.cancel(false);
+		synchronized (connections) {
+			for (JDBCaccess jdbcacc : connections)
+				jdbcacc.setDeadline(null);
+			connections.clear();
+		}
+	}
+
+}
@@ -61,6 +61,24 @@ public class Relation {
 		return null;
 	}
 
+	Vector getJoinAttributes() {// returns the distinct attribute names that reference other relations, in the
+								// order of the attributes
+		Vector v = new Vector(1);
+		for (int i = 0; i < attributes.size(); i++)
+			if (refRelAttr.contains(attributes.elementAt(i)))
+				v.addElement((String) attributes.elementAt(i));
+		for (int i = 0; i < refRelAttr.size(); i++)
+			if (!v.contains(refRelAttr.elementAt(i)))
+				v.addElement((String) refRelAttr.elementAt(i));
+		return v;
+	}
+
+	// the name and the attributes that reference other relations, which are all
+	// the join SQL depends on
+	String getJoinSignature() {
+		return name + refRelAttr + refRelations;
+	}
+
 	Vector getAttrVector4Rel(String relname) {// returns the attribute names String Vector that references relation
 												// relname
 		Vector v = new Vector(1);
@@ -0,0 +1,128 @@
+package irstyle.core;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+
+/**
+ * A joined row of a candidate network. INT columns are kept as ints and the
+ * others as the strings the driver returns; the display text of
+ * JDBCaccess.getResult is only built by toString, so rows that do not make the
+ * top-N are never rendered.
+ */
+public class ResultRow {
+
+	/**
+	 * Column types of the rows of one statement, read once from its metadata.
+	 */
+	static class Layout {
+		final int firstColumn;
+		final boolean[] isInt;
+
+		Layout(ResultSetMetaData rsmd, int firstColumn) throws SQLException {
+			this.firstColumn = firstColumn;
+			isInt = new boolean[Math.max(rsmd.getColumnCount() - firstColumn + 1, 0)];
+			for (int i = 0; i < isInt.length; i++)
+				isInt[i] = rsmd.getColumnTypeName(firstColumn + i).compareTo("INT") == 0;
+		}
+	}
+
+	private final boolean[] isInt; // shared by all rows of a statement
+	private final int[] ints;
+	private final String[] strings;
+
+	/**
+	 * @param strings
+	 *            values of the non int columns, may be null if all columns are int
+	 */
+	ResultRow(boolean[] isInt, int[] ints, String[] strings) {
+		this.isInt = isInt;
+		this.ints = ints;
+		this.strings = strings;
+	}
+
+	static ResultRow read(ResultSet rs, Layout layout) throws SQLException {
+		int numColumns = layout.isInt.length;
+		int[] ints = new int[numColumns];
+		String[] strings = new String[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			if (layout.isInt[i])
+				ints[i] = rs.getInt(layout.firstColumn + i);
+			else
+				strings[i] = rs.getString(layout.firstColumn + i);
+		}
+		return new ResultRow(layout.isInt, ints, strings);
+	}
+
+	public int getNumColumns() {
+		return ints.length;
+	}
+
+	public boolean isInt(int column) {
+		return isInt[column];
+	}
+
+	public int getInt(int column) {
+		return ints[column];
+	}
+
+	public String getString(int column) {
+		return isInt[column] ? Integer.toString(ints[column]) : strings[column];
+	}
+
+	/**
+	 * Same as JDBCaccess.containsAll on the display text, without building it:
+	 * true if every keyword equals, ignoring case, a whitespace separated token of
+	 * some column or the "-" separator.
+	 */
+	public boolean containsAll(ArrayList keywords) {
+		boolean[] found = new boolean[keywords.size()];
+		int numFound = 0;
+		for (int k = 0; k < keywords.size(); k++)
+			if (ints.length > 0 && ((String) keywords.get(k)).equals("-")) {
+				found[k] = true;
+				numFound++;
+			}
+		for (int c = 0; c < ints.length && numFound < found.length; c++) {
+			String str = isInt[c] ? Integer.toString(ints[c]) : String.valueOf(strings[c]);
+			int start = 0;
+			int length = str.length();
+			while (start < length && numFound < found.length) {
+				while (start < length && isDelimiter(str.charAt(start)))
+					start++;
+				int end = start;
+				while (end < length && !isDelimiter(str.charAt(end)))
+					end++;
+				for (int k = 0; k < found.length; k++) {
+					String keyword = (String) keywords.get(k);
+					if (!found[k] && end > start && keyword.length() == end - start
+							&& str.regionMatches(true, start, keyword, 0, end - start)) {
+						found[k] = true;
+						numFound++;
+					}
+				}
+				start = end;
+			}
+		}
+		return numFound == found.length;
+	}
+
+	// the default delimiters of StringTokenizer
+	private static boolean isDelimiter(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c < ints.length; c++) {
+			if (isInt[c])
+				sb.append(ints[c]);
+			else
+				sb.append(strings[c]);
+			sb.append(" - ");
+		}
+		return sb.toString();
+	}
+
+}
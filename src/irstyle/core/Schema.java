@@ -4,7 +4,6 @@ package irstyle.core;
 import java.util.StringTokenizer;
 import java.util.Vector;
 
-import irstyle.api.IRStyleKeywordSearch;
 import irstyle.api.Params;
 
 /**
@@ -23,11 +22,14 @@ public class Schema extends Instance {
 
 	Exception ShemaFormatException = new Exception("format error in schema_str");
 
+	private String description; // the schema_str this was created from
+
 	/**
 	 * format of schema_str: num_relations name_1 name_2 name_n (*name_1 is the name
 	 * of the this instance*) name_i name_j .... (*edge from name_i to name_j*)
 	 */
 	public Schema(String schema_str) {
+		description = schema_str;
 		try {
 			StringTokenizer strtok = new StringTokenizer(schema_str);
 			int numRelations = 0;
@@ -267,64 +269,27 @@ public class Schema extends Instance {
 		return count;
 	}
 
+	String getDescription() {
+		return description;
+	}
+
+	// CNs of keywords whose coverage was seen before are copied from CNPlanCache
 	public Vector getCNs(int maxsize, Vector allkeyw, Schema sch, MIndexAccess MI) {
 		MIndx = MI;
-		Vector CNs = new Vector(1);
+		String signature = CNPlanCache.getSignature(this, MI, allkeyw, maxsize);
+		if (signature == null)
+			return generateCNs(maxsize, allkeyw, sch);
+		Vector CNs = CNPlanCache.get(signature, allkeyw);
+		if (CNs == null)
+			CNs = CNPlanCache.put(signature, generateCNs(maxsize, allkeyw, sch), allkeyw);
+		return CNs;
+	}
+
+	private Vector generateCNs(int maxsize, Vector allkeyw, Schema sch) {
 		// check if all keywords are present in schema
 		if (!allkeywInSchema(allkeyw))
-			return CNs;
-
-		// find keyword in minimum # of relations
-		// String lfkeyw=findLeastFreqKeyw();//10/16/02
-		// add to Q all Instances(fresh copies with empty adjList) that contain lfkeyw
-		// Vector Q=getInstancesWithKeyw(lfkeyw); //queue of algorithm //10/16/02
-		Vector Q = getInstancesWithKeyw(); // queue of algorithm //10/16/02, ANY KEYWORD
-		// Q= allKeywComb4Instances(Q, lfkeyw);//adds all possible instances that
-		// contain lfkeyw //9/30/02
-		while (!Q.isEmpty()) {
-			// 6/8/2002. produce at most 50 CNs
-			if (CNs.size() > Params.MAX_GENERATED_CN)
-				break;
-			// end 6/8/2002
-			Instance JNTS = (Instance) Q.firstElement(); // I is current active instance(joining net. of tuple sets)
-			Q.removeElementAt(0);
-			if (pruningCondition(JNTS, sch)) // R->S<-R construct. //rejected
-			{
-			} else if (numFreeTSs(JNTS) > allkeyw.size()) // rejected
-			{
-			} else if (JNTS.getsize() > maxsize) // rejected
-			{
-			} else if (JNTS.getsize() == maxsize) // check if accepted but will not be expanded
-			{
-				if (acceptCondition(JNTS, allkeyw))
-					CNs.addElement(JNTS);
-			} else if (numFreeTSs(JNTS) == allkeyw.size()) // check if accepted but will not be expanded
-			{
-				if (acceptCondition(JNTS, allkeyw))
-					CNs.addElement(JNTS);
-			} else // check if accepted and also expand
-			{
-				if (acceptCondition(JNTS, allkeyw))
-					CNs.addElement(JNTS);
-				addVector(Q, pruneExpansions(getExpansions(JNTS, this), maxsize, allkeyw, sch));
-			}
-		}
-
-		// 8/10/2001, remove duplicate CN's from CNs
-		boolean moreIdenticalCNs = true;
-		while (moreIdenticalCNs) {
-			moreIdenticalCNs = false;
-			label1: for (int i = 0; i < CNs.size(); i++)
-				for (int j = 0; j < CNs.size(); j++)
-					if (i != j)
-						if (((Instance) CNs.elementAt(i)).identical((Instance) CNs.elementAt(j))) {
-							CNs.removeElementAt(i);
-							moreIdenticalCNs = true;
-							break label1;
-							// MessageBox.show("2 identical CNs","");//debug
-						}
-		}
-		return CNs;
+			return new Vector(1);
+		return CNGenerator.generate(this, MIndx, maxsize, allkeyw);
 	}
 
 	CNstats getCNsStats(int maxsize, Vector allkeyw, Schema sch) {// the same with getCNs, but keeps stats, instead of
@@ -0,0 +1,76 @@
+package irstyle.core;
+
+import java.util.Arrays;
+
+/**
+ * The tuples of a tuple set as parallel id and score arrays, in the order they
+ * were added.
+ */
+public class ScoredIds {
+
+	private int[] ids;
+	private float[] scores;
+	private int size = 0;
+
+	public ScoredIds() {
+		this(16);
+	}
+
+	public ScoredIds(int capacity) {
+		ids = new int[Math.max(capacity, 1)];
+		scores = new float[ids.length];
+	}
+
+	public void add(int id, float score) {
+		if (size == ids.length) {
+			ids = Arrays.copyOf(ids, 2 * size);
+			scores = Arrays.copyOf(scores, 2 * size);
+		}
+		ids[size] = id;
+		scores[size] = score;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getId(int i) {
+		return ids[i];
+	}
+
+	public float getScore(int i) {
+		return scores[i];
+	}
+
+	// the tuple in the "(id,score)" form of a VALUES list
+	public String getTuple(int i) {
+		return "(" + ids[i] + "," + scores[i] + ")";
+	}
+
+	/**
+	 * @return the tuples as consecutive id, score pairs in descending score order
+	 *         and ascending id order for equal scores, which is the order of
+	 *         "order by score desc, id" on the tuple set table. Scores are
+	 *         truncated to ints like ResultSet.getInt does on the score column.
+	 */
+	int[] getTuplesInScoreOrder() {
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) ~sortable(Float.floatToIntBits(scores[i])) << 32)
+					| ((ids[i] ^ Integer.MIN_VALUE) & 0xffffffffL);
+		Arrays.sort(keys);
+		int[] tuples = new int[2 * size];
+		for (int i = 0; i < size; i++) {
+			tuples[2 * i] = (int) keys[i] ^ Integer.MIN_VALUE;
+			tuples[2 * i + 1] = (int) Float.intBitsToFloat(sortable(~(int) (keys[i] >>> 32)));
+		}
+		return tuples;
+	}
+
+	// maps float bits to ints that compare like the floats do, and back
+	private static int sortable(int bits) {
+		return bits ^ ((bits >> 31) & 0x7fffffff);
+	}
+
+}
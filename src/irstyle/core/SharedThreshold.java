@@ -0,0 +1,28 @@
+package irstyle.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The best known lower bound of the N-th score of a top-N query whose
+ * candidate networks are evaluated by several workers. Each worker raises it
+ * to the N-th score of its own results, which is a lower bound of the N-th
+ * score of all results, and stops once none of its combinations can beat it.
+ */
+public class SharedThreshold {
+
+	private final AtomicLong bits = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+
+	public double get() {
+		return Double.longBitsToDouble(bits.get());
+	}
+
+	public void raise(double score) {
+		long current = bits.get();
+		while (score > Double.longBitsToDouble(current)) {
+			if (bits.compareAndSet(current, Double.doubleToLongBits(score)))
+				return;
+			current = bits.get();
+		}
+	}
+
+}
@@ -0,0 +1,132 @@
+package irstyle.core;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The prepared statements of one connection by SQL text, kept across queries so
+ * that the SQL of a CN is parsed and planned once. The least recently used
+ * statements are closed once there are more than capacity of them. A statement
+ * that was handed out since the last release is only closed on the next
+ * release, since the running query may still execute it. The column layout of
+ * the rows of a statement is kept with it and dropped when it is evicted.
+ */
+class StatementCache {
+
+	interface Preparer {
+		PreparedStatement prepare(String sql) throws SQLException;
+	}
+
+	private final Preparer preparer;
+	private final int capacity;
+	private final LinkedHashMap<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(
+			16, 0.75f, true);
+	private final Set<PreparedStatement> inUse = Collections
+			.newSetFromMap(new IdentityHashMap<PreparedStatement, Boolean>());
+	private final ArrayList<PreparedStatement> evicted = new ArrayList<PreparedStatement>();
+	// column types of the rows of the cached statements that were executed
+	private final Map<PreparedStatement, ResultRow.Layout> layouts;
+	private int numHits = 0;
+	private int numMisses = 0;
+	private int numEvictions = 0;
+
+	StatementCache(Preparer preparer, int capacity) {
+		this.preparer = preparer;
+		this.capacity = capacity;
+		layouts = new IdentityHashMap<PreparedStatement, ResultRow.Layout>();
+	}
+
+	// the statement of sql, prepared on the first request
+	synchronized PreparedStatement get(String sql) throws SQLException {
+		PreparedStatement prepared = statements.get(sql);
+		if (prepared != null) {
+			numHits++;
+			prepared.clearParameters();
+		} else {
+			numMisses++;
+			prepared = preparer.prepare(sql);
+			statements.put(sql, prepared);
+			evict();
+		}
+		inUse.add(prepared);
+		return prepared;
+	}
+
+	private void evict() {
+		Iterator<PreparedStatement> it = statements.values().iterator();
+		while (statements.size() > capacity && it.hasNext()) {
+			PreparedStatement eldest = it.next();
+			it.remove();
+			layouts.remove(eldest);
+			numEvictions++;
+			if (inUse.contains(eldest))
+				evicted.add(eldest);
+			else
+				close(eldest);
+		}
+	}
+
+	// the layout of the rows of prepared, null if it is not known or prepared is
+	// not cached
+	synchronized ResultRow.Layout getLayout(PreparedStatement prepared) {
+		return layouts.get(prepared);
+	}
+
+	// keeps the layout of the rows of prepared as long as prepared, returns false
+	// if prepared is not cached
+	synchronized boolean setLayout(PreparedStatement prepared, ResultRow.Layout layout) {
+		if (!layouts.containsKey(prepared) && !statements.containsValue(prepared))
+			return false;
+		layouts.put(prepared, layout);
+		return true;
+	}
+
+	// the statements handed out so far are not used anymore
+	synchronized void release() {
+		for (PreparedStatement prepared : evicted)
+			close(prepared);
+		evicted.clear();
+		inUse.clear();
+	}
+
+	synchronized void closeAll() {
+		release();
+		for (PreparedStatement prepared : statements.values())
+			close(prepared);
+		statements.clear();
+		layouts.clear();
+	}
+
+	private static void close(PreparedStatement prepared) {
+		try {
+			prepared.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+
+	synchronized int size() {
+		return statements.size();
+	}
+
+	synchronized int getNumHits() {
+		return numHits;
+	}
+
+	synchronized int getNumMisses() {
+		return numMisses;
+	}
+
+	synchronized String getStats() {
+		return "statement cache: " + statements.size() + " statements, " + numHits + " hits, " + numMisses
+				+ " misses, " + numEvictions + " evictions";
+	}
+
+}
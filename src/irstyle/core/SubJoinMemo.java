@@ -0,0 +1,127 @@
+package irstyle.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Partial join results of the sub-networks that the candidate networks of one
+ * query share, e.g. TS_article - article_link - article. A CN that starts its
+ * join order with the same nodes as another CN enumerates the joining rows of
+ * that prefix once per combination of its tuple ids and reuses them for the
+ * other CN and for its own later combinations. Prefixes without joining rows
+ * are memoized too, so such combinations are dropped after one lookup. The
+ * memo may be shared by the worker threads of a query.
+ */
+public class SubJoinMemo {
+
+	private static class Key {
+		final int signature;
+		final int[] ids;
+		final int hash;
+
+		Key(int signature, int[] ids) {
+			this.signature = signature;
+			this.ids = ids;
+			this.hash = 31 * signature + Arrays.hashCode(ids);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key key = (Key) o;
+			return signature == key.signature && Arrays.equals(ids, key.ids);
+		}
+	}
+
+	private static final int[] NO_ROWS = new int[0];
+
+	private final int capacity; // max number of memoized values
+	private final Map<String, Integer> signatures = new HashMap<String, Integer>();
+	private final ConcurrentHashMap<Key, int[]> joins = new ConcurrentHashMap<Key, int[]>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final AtomicLong numHits = new AtomicLong();
+	private final AtomicLong numMisses = new AtomicLong();
+	private final AtomicLong numEmpty = new AtomicLong();
+
+	public SubJoinMemo(int capacity) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Makes each CN memoize the longest prefix of its join order, of at least
+	 * two nodes, that another CN starts with too. CNs that share no such prefix
+	 * are verified as before.
+	 *
+	 * @return the number of CNs that use the memo
+	 */
+	public int share(InMemoryCN[] CNs) {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+		for (InMemoryCN cn : CNs)
+			if (cn != null)
+				for (int depth = 2; depth < cn.getNumNodes(); depth++)
+					counts.merge(cn.getSignature(depth), 1, Integer::sum);
+		int numShared = 0;
+		for (InMemoryCN cn : CNs) {
+			if (cn == null)
+				continue;
+			for (int depth = cn.getNumNodes() - 1; depth >= 2; depth--) {
+				String signature = cn.getSignature(depth);
+				if (counts.get(signature) > 1) {
+					cn.setMemo(this, depth, getSignatureId(signature));
+					numShared++;
+					break;
+				}
+			}
+		}
+		return numShared;
+	}
+
+	private synchronized int getSignatureId(String signature) {
+		Integer id = signatures.get(signature);
+		if (id == null)
+			signatures.put(signature, id = signatures.size());
+		return id;
+	}
+
+	// the rows of the prefix signature for the tuple ids of its non free tuple
+	// sets, null if they are not memoized
+	int[] get(int signature, int[] ids) {
+		int[] rows = joins.get(new Key(signature, ids));
+		if (rows == null)
+			numMisses.incrementAndGet();
+		else {
+			numHits.incrementAndGet();
+			if (rows.length == 0)
+				numEmpty.incrementAndGet();
+		}
+		return rows;
+	}
+
+	// rows are not kept once the memo holds capacity values
+	void put(int signature, int[] ids, int[] rows) {
+		if (size.addAndGet(rows.length + ids.length) > capacity) {
+			size.addAndGet(-rows.length - ids.length);
+			return;
+		}
+		if (joins.putIfAbsent(new Key(signature, ids), rows.length == 0 ? NO_ROWS : rows) != null)
+			size.addAndGet(-rows.length - ids.length); // memoized by another worker
+	}
+
+	public long getNumHits() {
+		return numHits.get();
+	}
+
+	public String getStats() {
+		return "sub-join memo: " + joins.size() + " partial joins of " + signatures.size() + " shared prefixes, "
+				+ numHits + " hits (" + numEmpty + " empty), " + numMisses + " misses";
+	}
+
+}
@@ -0,0 +1,185 @@
+package irstyle.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Bounded collector of the N best scored results of a query. Results are kept
+ * in a binary min-heap over primitive arrays, so inserting costs O(log N) and
+ * the current N-th score is available in O(1).
+ *
+ * Between equal scores the result that arrived first wins, the same tie rule
+ * the old sorted-list implementation of ExecPrepared.addResult had.
+ */
+public class TopNCollector<T> {
+
+	private final int capacity;
+	private final double[] scores;
+	private final long[] arrivals;
+	private final Object[] items;
+	private int size = 0;
+	private long arrivalCounter = 0;
+
+	public TopNCollector(int N) {
+		capacity = N;
+		scores = new double[N];
+		arrivals = new long[N];
+		items = new Object[N];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	public boolean isFull() {
+		return size == capacity;
+	}
+
+	/**
+	 * @return the score of the N-th result, or negative infinity if less than N
+	 *         results are collected so far
+	 */
+	public double nthScore() {
+		if (size < capacity)
+			return Double.NEGATIVE_INFINITY;
+		return scores[0];
+	}
+
+	/**
+	 * @return true if a result with the given score would be accepted
+	 */
+	public boolean accepts(double score) {
+		return capacity > 0 && (size < capacity || score > scores[0]);
+	}
+
+	/**
+	 * Adds the result if it is in the top-N results.
+	 *
+	 * @return true if the result is kept
+	 */
+	public boolean add(double score, T item) {
+		if (!accepts(score))
+			return false;
+		long arrival = arrivalCounter++;
+		if (size < capacity) {
+			siftUp(size++, score, arrival, item);
+		} else {
+			siftDown(0, score, arrival, item);
+		}
+		return true;
+	}
+
+	public void clear() {
+		for (int i = 0; i < size; i++)
+			items[i] = null;
+		size = 0;
+		arrivalCounter = 0;
+	}
+
+	// true if entry a is a worse result than entry b
+	private boolean worse(double scoreA, long arrivalA, double scoreB, long arrivalB) {
+		if (scoreA != scoreB)
+			return scoreA < scoreB;
+		return arrivalA > arrivalB;
+	}
+
+	private void siftUp(int pos, double score, long arrival, Object item) {
+		while (pos > 0) {
+			int parent = (pos - 1) >>> 1;
+			if (!worse(score, arrival, scores[parent], arrivals[parent]))
+				break;
+			move(parent, pos);
+			pos = parent;
+		}
+		set(pos, score, arrival, item);
+	}
+
+	private void siftDown(int pos, double score, long arrival, Object item) {
+		int half = size >>> 1;
+		while (pos < half) {
+			int child = 2 * pos + 1;
+			int right = child + 1;
+			if (right < size && worse(scores[right], arrivals[right], scores[child], arrivals[child]))
+				child = right;
+			if (!worse(scores[child], arrivals[child], score, arrival))
+				break;
+			move(child, pos);
+			pos = child;
+		}
+		set(pos, score, arrival, item);
+	}
+
+	private void move(int from, int to) {
+		scores[to] = scores[from];
+		arrivals[to] = arrivals[from];
+		items[to] = items[from];
+	}
+
+	private void set(int pos, double score, long arrival, Object item) {
+		scores[pos] = score;
+		arrivals[pos] = arrival;
+		items[pos] = item;
+	}
+
+	private int[] sortedPositions() {
+		// heap positions in descending result order; only called once the
+		// collection is over, so a boxed sort is fine here
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			if (worse(scores[a], arrivals[a], scores[b], arrivals[b]))
+				return 1;
+			if (worse(scores[b], arrivals[b], scores[a], arrivals[a]))
+				return -1;
+			return 0;
+		});
+		int[] positions = new int[size];
+		for (int i = 0; i < size; i++)
+			positions[i] = order[i];
+		return positions;
+	}
+
+	/**
+	 * @return the collected results, best first
+	 */
+	@SuppressWarnings("unchecked")
+	public ArrayList<T> itemsInOrder() {
+		int[] positions = sortedPositions();
+		ArrayList<T> list = new ArrayList<T>(size);
+		for (int pos : positions)
+			list.add((T) items[pos]);
+		return list;
+	}
+
+	/**
+	 * @return the collected scores, best first
+	 */
+	public double[] scoresInOrder() {
+		int[] positions = sortedPositions();
+		double[] sorted = new double[size];
+		for (int i = 0; i < size; i++)
+			sorted[i] = scores[positions[i]];
+		return sorted;
+	}
+
+	/**
+	 * Appends the collected results to results as Result objects, best first.
+	 */
+	public void addTo(ArrayList<Result> results) {
+		int[] positions = sortedPositions();
+		for (int pos : positions)
+			results.add(new Result(String.valueOf(items[pos]), scores[pos]));
+	}
+
+	void print() {
+		System.out.println("print results");
+		int[] positions = sortedPositions();
+		for (int pos : positions)
+			System.out.println(items[pos] + "------" + scores[pos]);
+	}
+}
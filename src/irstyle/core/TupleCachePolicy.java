@@ -0,0 +1,190 @@
+package irstyle.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Decides which tuples of a table are cached, by TinyLFU admission and
+ * sampled LFU eviction. The access frequencies of all ids are estimated by a
+ * count-min sketch of four rows of 4 * capacity 8 bit counters, halved every
+ * 10 * capacity increments so that the estimates follow shifting popularity.
+ * The counters go up to 255, since the tuples of a workload can be accessed
+ * far more often than 15 times between two halvings, and 4 bit counters would
+ * make all of them equally frequent.
+ * Once the cache is full, an accessed id that is not cached replaces the least
+ * frequent of a few randomly sampled cached ids only if it is estimated to be
+ * more frequent than it, so a burst of one-time accesses does not flush the
+ * cache.
+ *
+ * The ids admitted and evicted since the last drain are kept for the owner to
+ * apply to its cache table and index; an id admitted and evicted in between is
+ * in neither. Not thread safe.
+ */
+public class TupleCachePolicy {
+
+	private static final int SAMPLE_SIZE = 8;
+	private static final int[] SEEDS = { 0x97cb3127, 0x9e3779b9, 0x2545f491, 0x6a09e667 };
+	private static final long RESET_MASK = 0x7f7f7f7f7f7f7f7fL;
+	private static final int MAX_COUNT = 255;
+
+	private final int capacity;
+	private final long[] sketch; // SEEDS.length rows of 8 counters per long
+	private final int rowLongs;
+	private final int counterMask;
+	private final int resetPeriod;
+	private int additions = 0;
+
+	private final int[] cached;
+	private int size = 0;
+	private final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+	private final Set<Integer> admitted = new HashSet<Integer>();
+	private final Set<Integer> evicted = new HashSet<Integer>();
+	private final Random random = new Random(1);
+
+	public TupleCachePolicy(int capacity) {
+		this.capacity = Math.max(capacity, 0);
+		int counters = Integer.highestOneBit(Math.max(4 * this.capacity, 64) - 1) << 1;
+		counterMask = counters - 1;
+		rowLongs = counters / 8;
+		sketch = new long[SEEDS.length * rowLongs];
+		resetPeriod = 10 * Math.max(this.capacity, 64);
+		cached = new int[this.capacity];
+	}
+
+	/**
+	 * Adds id to the cache without recording an access or an admission, e.g. for
+	 * the tuples already in the cache table.
+	 *
+	 * @return false if the cache is full
+	 */
+	public boolean preload(int id) {
+		if (positions.containsKey(id))
+			return true;
+		if (size == capacity)
+			return false;
+		positions.put(id, size);
+		cached[size++] = id;
+		return true;
+	}
+
+	/**
+	 * Records an access to id, admitting it if it is not cached and the cache has
+	 * room or a less frequent victim.
+	 */
+	public void access(int id) {
+		increment(id);
+		if (positions.containsKey(id) || capacity == 0)
+			return;
+		if (size == capacity) {
+			int victim = sampleVictim();
+			if (frequency(id) <= frequency(victim))
+				return;
+			remove(victim);
+		}
+		add(id);
+	}
+
+	public boolean contains(int id) {
+		return positions.containsKey(id);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the ids admitted since the last call, in ascending order
+	 */
+	public int[] drainAdmitted() {
+		return drain(admitted);
+	}
+
+	/**
+	 * @return the ids evicted since the last call, in ascending order
+	 */
+	public int[] drainEvicted() {
+		return drain(evicted);
+	}
+
+	private static int[] drain(Set<Integer> ids) {
+		int[] result = ids.stream().mapToInt(Integer::intValue).toArray();
+		Arrays.sort(result);
+		ids.clear();
+		return result;
+	}
+
+	private void add(int id) {
+		positions.put(id, size);
+		cached[size++] = id;
+		if (!evicted.remove(id))
+			admitted.add(id);
+	}
+
+	// moves the last cached id into the position of id
+	private void remove(int id) {
+		int position = positions.remove(id);
+		int last = cached[--size];
+		if (position != size) {
+			cached[position] = last;
+			positions.put(last, position);
+		}
+		if (!admitted.remove(id))
+			evicted.add(id);
+	}
+
+	private int sampleVictim() {
+		int victim = cached[random.nextInt(size)];
+		int victimFrequency = frequency(victim);
+		for (int i = 1; i < SAMPLE_SIZE; i++) {
+			int id = cached[random.nextInt(size)];
+			int f = frequency(id);
+			if (f < victimFrequency) {
+				victim = id;
+				victimFrequency = f;
+			}
+		}
+		return victim;
+	}
+
+	private int index(int id, int row) {
+		int h = (id ^ SEEDS[row]) * 0x9e3779b9;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		return h & counterMask;
+	}
+
+	// the estimated number of accesses to id since the counters were last halved
+	int frequency(int id) {
+		int min = MAX_COUNT;
+		for (int row = 0; row < SEEDS.length; row++) {
+			int counter = index(id, row);
+			int shift = (counter & 7) << 3;
+			min = Math.min(min, (int) (sketch[row * rowLongs + (counter >>> 3)] >>> shift) & MAX_COUNT);
+		}
+		return min;
+	}
+
+	private void increment(int id) {
+		boolean incremented = false;
+		for (int row = 0; row < SEEDS.length; row++) {
+			int counter = index(id, row);
+			int i = row * rowLongs + (counter >>> 3);
+			int shift = (counter & 7) << 3;
+			if (((sketch[i] >>> shift) & MAX_COUNT) < MAX_COUNT) {
+				sketch[i] += 1L << shift;
+				incremented = true;
+			}
+		}
+		if (incremented && ++additions == resetPeriod) {
+			for (int i = 0; i < sketch.length; i++)
+				sketch[i] = (sketch[i] >>> 1) & RESET_MASK;
+			additions /= 2;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package irstyle.core;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import irstyle.api.Params;
+
+/**
+ * Reads the (id, score) tuples of a tuple set in descending score order, one
+ * page of tuples at a time, so that the threshold algorithms only fetch the
+ * tuples they consume. The tuple set is sorted once by a single query whose
+ * rows are fetched a page at a time. Optionally the next page is read in the
+ * background, on a connection of its own, while the current one is consumed.
+ * The first page is read by the caller, and the background reads of all
+ * cursors share Params.numThreads threads.
+ */
+class TupleSetCursor {
+
+	/**
+	 * Reads the tuples of the tuple set in descending score order, as
+	 * consecutive id, score pairs.
+	 */
+	interface PageReader {
+		// the next limit tuples, fewer at the end of the tuple set
+		int[] read(int limit) throws SQLException;
+
+		// stops a read that is in progress
+		default void cancel() throws SQLException {
+		}
+	}
+
+	// the threads of the background reads, replaced when Params.numThreads
+	// changes
+	private static ExecutorService prefetcher = null;
+	private static int numPrefetchers = 0;
+
+	private static synchronized ExecutorService prefetcher() {
+		int numThreads = Math.max(Params.numThreads, 1);
+		if (prefetcher == null || numPrefetchers != numThreads) {
+			if (prefetcher != null)
+				prefetcher.shutdown();
+			prefetcher = Executors.newFixedThreadPool(numThreads, r -> {
+				Thread thread = new Thread(r, "tuple set prefetch");
+				thread.setDaemon(true);
+				return thread;
+			});
+			numPrefetchers = numThreads;
+		}
+		return prefetcher;
+	}
+
+	private final PageReader reader;
+	private final int pageSize;
+	private final boolean prefetch;
+	private int[] page = new int[0]; // id, score pairs of the current page
+	private int position = -1; // current tuple in page
+	private boolean lastPage = false;
+	private Future<int[]> nextPage = null;
+	private int numPages = 0;
+	private volatile boolean reading = false;
+
+	TupleSetCursor(PageReader reader, int pageSize, boolean prefetch) {
+		this.reader = reader;
+		this.pageSize = Math.max(pageSize, 1);
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * Pages through the tuple set TSname with a statement that jdbcacc closes on
+	 * cleanup. The statement asks the driver for pageSize rows per fetch, which
+	 * MySQL serves from a server side cursor if the connection has
+	 * useCursorFetch=true. Prefetched tuple sets are read on the prefetch
+	 * connection of jdbcacc, so that they do not wait for the probes of the
+	 * query, and are read by the caller only if there is no prefetch connection.
+	 */
+	static TupleSetCursor create(JDBCaccess jdbcacc, String TSname, int pageSize, boolean prefetch) {
+		Connection prefetchConn = null;
+		if (prefetch) {
+			try {
+				prefetchConn = jdbcacc.getPrefetchConnection();
+			} catch (Exception e1) {
+				System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+						+ " exception in  TupleSetCursor.create");
+			}
+		}
+		Connection conn = prefetchConn != null ? prefetchConn : jdbcacc.conn;
+		return new TupleSetCursor(new PageReader() {
+			private volatile PreparedStatement prepared = null;
+			private ResultSet rs = null;
+
+			// the first read is on the thread of the query, which owns statementPool
+			public int[] read(int limit) throws SQLException {
+				if (rs == null) {
+					prepared = conn.prepareStatement("select id, score from " + TSname + " order by score desc, id");
+					jdbcacc.statementPool.add(prepared);
+					prepared.setFetchSize(Math.max(pageSize, 1));
+					rs = prepared.executeQuery();
+				}
+				int[] tuples = new int[2 * limit];
+				int num = 0;
+				while (num < tuples.length && rs.next()) {
+					tuples[num++] = rs.getInt(1);
+					tuples[num++] = rs.getInt(2);
+				}
+				return num == tuples.length ? tuples : Arrays.copyOf(tuples, num);
+			}
+
+			public void cancel() throws SQLException {
+				PreparedStatement prepared = this.prepared;
+				if (prepared != null)
+					prepared.cancel();
+			}
+		}, pageSize, prefetchConn != null);
+	}
+
+	// reads a tuple set that is held in memory, as a single page
+	static TupleSetCursor create(ScoredIds tuples) {
+		int[] sorted = tuples.getTuplesInScoreOrder();
+		return new TupleSetCursor(limit -> sorted, tuples.size() + 1, false);
+	}
+
+	/**
+	 * @return the id of the next tuple, -1 if there is none or -2 if it could not
+	 *         be read
+	 */
+	int getNextID() {
+		position++;
+		if (2 * position >= page.length) {
+			if (lastPage)
+				return -1;
+			try {
+				page = readPage();
+			} catch (Exception e1) {
+				System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+						+ " exception in  TupleSetCursor.getNextID");
+				lastPage = true;
+				page = new int[0];
+				return -2;
+			}
+			position = 0;
+			if (page.length == 0)
+				return -1;
+		}
+		return page[2 * position];
+	}
+
+	// score of the tuple returned by the last getNextID
+	int getCurrScore() {
+		return page[2 * position + 1];
+	}
+
+	private int[] readPage() throws Exception {
+		int[] result = nextPage != null ? nextPage.get() : read();
+		nextPage = null;
+		numPages++;
+		if (result.length < 2 * pageSize)
+			lastPage = true;
+		else if (prefetch)
+			nextPage = prefetcher().submit(this::read);
+		return result;
+	}
+
+	private int[] read() throws SQLException {
+		reading = true;
+		try {
+			return reader.read(pageSize);
+		} finally {
+			reading = false;
+		}
+	}
+
+	int getNumPages() {
+		return numPages;
+	}
+
+	// stops the page being read, e.g. when the query is out of time
+	void cancel() {
+		if (!reading)
+			return;
+		try {
+			reader.cancel();
+		} catch (Exception e1) {
+			System.out.println("exception class: " + e1.getClass() + "  with message: " + e1.getMessage()
+					+ " exception in  TupleSetCursor.cancel");
+		}
+	}
+
+	// waits for a pending prefetch, so that the statement can be closed
+	void close() {
+		if (nextPage != null) {
+			try {
+				nextPage.get();
+			} catch (Exception e1) {
+				// the page is not needed anymore
+			}
+			nextPage = null;
+		}
+		lastPage = true;
+	}
+
+}
@@ -30,6 +30,7 @@ import irstyle.core.ExecPrepared;
 import irstyle.core.JDBCaccess;
 import irstyle.core.Relation;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
 import query.ExperimentQuery;
 import stackoverflow.QuestionDAO;
 import stackoverflow.StackQueryingExperiment;
@@ -104,18 +105,18 @@ public class RunStackCacheSearch {
 					Vector<Relation> relations = new Stack_ExperimentHelper().createRelations(answersTable,
 							postTagsTable, tagsTable, postCommentsTable, commentsTable);
 					start = System.currentTimeMillis();
-					List<String> articleIds = IRStyleKeywordSearch.executeLuceneQuery(answersReader, query.getText(),
+					ScoredIds articleIds = IRStyleKeywordSearch.executeLuceneQuery(answersReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> imageIds = IRStyleKeywordSearch.executeLuceneQuery(tagsIndexReader, query.getText(),
+					ScoredIds imageIds = IRStyleKeywordSearch.executeLuceneQuery(tagsIndexReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> linkIds = IRStyleKeywordSearch.executeLuceneQuery(commentsIndexReader, query.getText(),
+					ScoredIds linkIds = IRStyleKeywordSearch.executeLuceneQuery(commentsIndexReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
 					luceneTime += (System.currentTimeMillis() - start);
 					if (Params.DEBUG) {
 						System.out.printf(" |TS_article| = %d |TS_images| = %d |TS_links| = %d", articleIds.size(),
 								imageIds.size(), linkIds.size());
 					}
-					Map<String, List<String>> relnamesValues = new HashMap<String, List<String>>();
+					Map<String, ScoredIds> relnamesValues = new HashMap<String, ScoredIds>();
 					relnamesValues.put(answersTable, articleIds);
 					relnamesValues.put(tagsTable, imageIds);
 					relnamesValues.put(commentsTable, linkIds);
@@ -29,6 +29,7 @@ import irstyle.core.ExecPrepared;
 import irstyle.core.JDBCaccess;
 import irstyle.core.Relation;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
 import query.ExperimentQuery;
 import query.QueryServices;
 
@@ -142,18 +143,18 @@ public class RunWikiCacheSearch {
 					Vector<Relation> relations = IRStyleWikiHelper.createRelations(articleTable, imageTable, linkTable,
 							articleImageTable, articleLinkTable, jdbcacc.conn);
 					start = System.currentTimeMillis();
-					List<String> articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader, query.getText(),
+					ScoredIds articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
+					ScoredIds imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-					List<String> linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
+					ScoredIds linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
 							Indexer.TEXT_FIELD, Indexer.ID_FIELD);
 					luceneTime += (System.currentTimeMillis() - start);
 					if (Params.DEBUG) {
 						System.out.printf(" |TS_article| = %d |TS_images| = %d |TS_links| = %d", articleIds.size(),
 								imageIds.size(), linkIds.size());
 					}
-					Map<String, List<String>> relnamesValues = new HashMap<String, List<String>>();
+					Map<String, ScoredIds> relnamesValues = new HashMap<String, ScoredIds>();
 					relnamesValues.put(articleTable, articleIds);
 					relnamesValues.put(imageTable, imageIds);
 					relnamesValues.put(linkTable, linkIds);
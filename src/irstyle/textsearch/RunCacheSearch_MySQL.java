@@ -14,7 +14,7 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.store.FSDirectory;
 
-import irstyle.CacheSelectionQL;
+import irstyle.CacheRouter;
 import irstyle.IRStyleQueryResult;
 import irstyle.IRStyleWikiHelper;
 import irstyle.api.IRStyleKeywordSearch;
@@ -22,6 +22,7 @@ import irstyle.api.Indexer;
 import irstyle.core.JDBCaccess;
 import irstyle.core.Relation;
 import irstyle.core.Schema;
+import irstyle.core.ScoredIds;
 import query.ExperimentQuery;
 import query.QueryServices;
 import wiki13.WikiFilesPaths;
@@ -57,6 +58,12 @@ public class RunCacheSearch_MySQL {
 						.open(FSDirectory.open(Paths.get(baseDir + "tbl_link_pop/6")));
 				IndexReader linkRestReader = DirectoryReader
 						.open(FSDirectory.open(Paths.get(baseDir + "tbl_link_pop/c6")))) {
+			// term statistics are read once, so that routing a query takes microseconds
+			CacheRouter articleRouter = new CacheRouter(articleCacheReader, articleReader, articleRestReader,
+					Indexer.TEXT_FIELD);
+			CacheRouter imageRouter = new CacheRouter(imageCacheReader, imageReader, imageRestReader,
+					Indexer.TEXT_FIELD);
+			CacheRouter linkRouter = new CacheRouter(linkCacheReader, linkReader, linkRestReader, Indexer.TEXT_FIELD);
 			int loop = 1;
 			for (ExperimentQuery query : queries) {
 				System.out.println("processing query " + loop++ + "/" + queries.size() + ": " + query.getText());
@@ -68,18 +75,18 @@ public class RunCacheSearch_MySQL {
 				String linkTable = "tbl_link_09";
 				String articleImageTable = "tbl_article_image_09";
 				String articleLinkTable = "tbl_article_link_09";
-				long time1 = System.currentTimeMillis();
-				if (CacheSelectionQL.useCache(query.getText(), articleCacheReader, articleReader, articleRestReader)) {
+				long time1 = System.nanoTime();
+				if (articleRouter.useCache(query.getText())) {
 					articleTable = "sub_article_3";
 				}
-				if (CacheSelectionQL.useCache(query.getText(), imageCacheReader, imageReader, imageRestReader)) {
+				if (imageRouter.useCache(query.getText())) {
 					imageTable = "sub_image_10";
 				}
-				if (CacheSelectionQL.useCache(query.getText(), linkCacheReader, linkReader, linkRestReader)) {
+				if (linkRouter.useCache(query.getText())) {
 					linkTable = "sub_link_6";
 				}
-				long time2 = System.currentTimeMillis();
-				System.out.println(" Time to select cache: " + (time2 - time1) + " (ms)");
+				long time2 = System.nanoTime();
+				System.out.println(" Time to select cache: " + (time2 - time1) / 1000 + " (us)");
 				String schemaDescription = "5 " + articleTable + " " + articleImageTable + " " + imageTable + " "
 						+ articleLinkTable + " " + linkTable + " " + articleTable + " " + articleImageTable + " "
 						+ articleImageTable + " " + imageTable + " " + articleTable + " " + articleLinkTable + " "
@@ -88,13 +95,13 @@ public class RunCacheSearch_MySQL {
 				Vector<Relation> relations = IRStyleWikiHelper.createRelations(articleTable, imageTable, linkTable,
 						articleImageTable, articleLinkTable, jdbcacc.conn);
 
-				List<String> articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader, query.getText(),
+				ScoredIds articleIds = IRStyleKeywordSearch.executeLuceneQuery(articleReader, query.getText(),
 						Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-				List<String> imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
+				ScoredIds imageIds = IRStyleKeywordSearch.executeLuceneQuery(imageReader, query.getText(),
 						Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-				List<String> linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
+				ScoredIds linkIds = IRStyleKeywordSearch.executeLuceneQuery(linkReader, query.getText(),
 						Indexer.TEXT_FIELD, Indexer.ID_FIELD);
-				Map<String, List<String>> relnamesValues = new HashMap<String, List<String>>();
+				Map<String, ScoredIds> relnamesValues = new HashMap<String, ScoredIds>();
 				relnamesValues.put(articleTable, articleIds);
 				relnamesValues.put(imageTable, imageIds);
 				relnamesValues.put(linkTable, linkIds);
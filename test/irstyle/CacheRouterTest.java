@@ -0,0 +1,95 @@
+package irstyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import irstyle.api.Indexer;
+
+public class CacheRouterTest {
+
+	private static final String[] CACHE_TEXTS = { "apple pear banana", "apple apple cherry", "the apple orchard" };
+
+	private static final String[] REST_TEXTS = { "pear pear plum", "banana plum grape", "cherry grape grape",
+			"o'neil pear" };
+
+	private static final String[] QUERIES = { "apple", "pear", "banana", "plum grape", "apple pear", "cherry",
+			"apple plum", "zebra", "apple zebra", "plum zebra", "", "the", "   ", "o'neil", "Apple PEAR!" };
+
+	private static RAMDirectory cacheDirectory = new RAMDirectory();
+
+	private static RAMDirectory restDirectory = new RAMDirectory();
+
+	private static RAMDirectory globalDirectory = new RAMDirectory();
+
+	private static IndexReader cacheReader;
+
+	private static IndexReader restReader;
+
+	private static IndexReader globalReader;
+
+	private static void index(RAMDirectory directory, String[]... texts) throws IOException {
+		try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+			for (String[] part : texts)
+				for (String text : part) {
+					Document doc = new Document();
+					doc.add(new TextField(Indexer.TEXT_FIELD, text, Store.NO));
+					writer.addDocument(doc);
+				}
+		}
+	}
+
+	@BeforeClass
+	public static void beforeClass() throws IOException {
+		index(cacheDirectory, CACHE_TEXTS);
+		index(restDirectory, REST_TEXTS);
+		index(globalDirectory, CACHE_TEXTS, REST_TEXTS);
+		cacheReader = DirectoryReader.open(cacheDirectory);
+		restReader = DirectoryReader.open(restDirectory);
+		globalReader = DirectoryReader.open(globalDirectory);
+	}
+
+	@AfterClass
+	public static void afterClass() throws IOException {
+		cacheReader.close();
+		restReader.close();
+		globalReader.close();
+	}
+
+	@Test
+	public void testSameAsCacheSelectionQL() throws IOException {
+		CacheRouter router = new CacheRouter(cacheReader, globalReader, restReader, Indexer.TEXT_FIELD);
+		for (String query : QUERIES)
+			assertEquals(query, CacheSelectionQL.useCache(query, cacheReader, globalReader, restReader),
+					router.useCache(query));
+	}
+
+	@Test
+	public void testUseCache() throws IOException {
+		CacheRouter router = new CacheRouter(cacheReader, globalReader, restReader, Indexer.TEXT_FIELD);
+		assertTrue(router.useCache("apple"));
+		assertFalse(router.useCache("plum grape"));
+		// a term unseen in every index makes both likelihoods 0
+		assertTrue(router.useCache("apple zebra"));
+		assertTrue(router.useCache("plum zebra"));
+		// without terms both likelihoods are 1
+		assertTrue(router.useCache(""));
+		assertTrue(router.useCache("the"));
+	}
+
+}
@@ -0,0 +1,124 @@
+package irstyle;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Test;
+
+import irstyle.api.Params;
+import query.ExperimentQuery;
+
+public class QueryResultCacheTest {
+
+	private static final String[] CACHE_TABLES = { "tbl_article_09", "tbl_image_09", "tbl_link_09" };
+
+	private static final String[] FULL_TABLES = { "tbl_article", "tbl_image", "tbl_link" };
+
+	private final int n = Params.N;
+
+	private final int numThreads = Params.numThreads;
+
+	@After
+	public void after() {
+		Params.N = n;
+		Params.numThreads = numThreads;
+	}
+
+	private static IRStyleQueryResult createResult(ExperimentQuery query, String... ids) {
+		IRStyleQueryResult result = new IRStyleQueryResult(query, 0);
+		result.resultIDs.addAll(Arrays.asList(ids));
+		return result;
+	}
+
+	// a miss followed by the put of its result, as RunCacheSearch does
+	private static void run(QueryResultCache cache, ExperimentQuery query, String[] tableNames, String... ids) {
+		assertNull(cache.get(query, tableNames));
+		cache.put(createResult(query, ids), tableNames);
+	}
+
+	@Test
+	public void testHit() {
+		QueryResultCache cache = new QueryResultCache(10);
+		run(cache, new ExperimentQuery(1, "Eiffel tower", 1), CACHE_TABLES, "12", "7");
+		// the keywords are normalized, and the result is given to the new query
+		ExperimentQuery query = new ExperimentQuery(2, "tower  eiffel", 1);
+		IRStyleQueryResult result = cache.get(query, CACHE_TABLES);
+		assertNotNull(result);
+		assertEquals(Arrays.asList("12", "7"), result.resultIDs);
+		assertEquals(query, result.getQuery());
+		// other tables
+		assertNull(cache.get(query, FULL_TABLES));
+		assertEquals(1.0 / 3, cache.getHitRate(), 1e-9);
+	}
+
+	@Test
+	public void testIncompleteResultsAreNotCached() {
+		QueryResultCache cache = new QueryResultCache(10);
+		ExperimentQuery query = new ExperimentQuery(1, "eiffel tower", 1);
+		assertNull(cache.get(query, CACHE_TABLES));
+		IRStyleQueryResult result = createResult(query, "12");
+		result.expiredStage = "CNs";
+		cache.put(result, CACHE_TABLES);
+		assertNull(cache.get(query, CACHE_TABLES));
+	}
+
+	@Test
+	public void testResultParameters() {
+		QueryResultCache cache = new QueryResultCache(10);
+		ExperimentQuery query = new ExperimentQuery(1, "eiffel tower", 1);
+		run(cache, query, CACHE_TABLES, "12");
+		// the number of threads does not change results
+		Params.numThreads = numThreads + 1;
+		assertNotNull(cache.get(query, CACHE_TABLES));
+		Params.N = n + 1;
+		assertNull(cache.get(query, CACHE_TABLES));
+	}
+
+	@Test
+	public void testAdmission() {
+		QueryResultCache cache = new QueryResultCache(1);
+		ExperimentQuery frequent = new ExperimentQuery(1, "eiffel tower", 1);
+		run(cache, frequent, CACHE_TABLES, "12");
+		for (int i = 0; i < 3; i++)
+			assertNotNull(cache.get(frequent, CACHE_TABLES));
+		// not more frequent than the cached query, so it is not cached
+		ExperimentQuery once = new ExperimentQuery(2, "louvre", 1);
+		run(cache, once, CACHE_TABLES, "3");
+		assertNull(cache.get(once, CACHE_TABLES));
+		assertNotNull(cache.get(frequent, CACHE_TABLES));
+	}
+
+	@Test
+	public void testCollision() {
+		// keys with the same hash
+		assertEquals(QueryResultCache.getKey("a~", CACHE_TABLES).hashCode(),
+				QueryResultCache.getKey("b_", CACHE_TABLES).hashCode());
+		QueryResultCache cache = new QueryResultCache(10);
+		ExperimentQuery first = new ExperimentQuery(1, "a~", 1);
+		ExperimentQuery second = new ExperimentQuery(2, "b_", 1);
+		run(cache, first, CACHE_TABLES, "1");
+		// the result of the first query is not given to the second one
+		run(cache, second, CACHE_TABLES, "2");
+		assertEquals(Arrays.asList("2"), cache.get(second, CACHE_TABLES).resultIDs);
+		assertNull(cache.get(first, CACHE_TABLES));
+	}
+
+	@Test
+	public void testInvalidate() {
+		QueryResultCache cache = new QueryResultCache(10);
+		ExperimentQuery query = new ExperimentQuery(1, "eiffel tower", 1);
+		run(cache, query, CACHE_TABLES, "12");
+		run(cache, query, FULL_TABLES, "12");
+		cache.invalidate("tbl_image_09");
+		assertNull(cache.get(query, CACHE_TABLES));
+		assertNotNull(cache.get(query, FULL_TABLES));
+		cache.invalidateAll();
+		assertNull(cache.get(query, FULL_TABLES));
+		assertEquals(1.0 / 5, cache.getHitRate(), 1e-9);
+	}
+
+}
@@ -0,0 +1,137 @@
+package irstyle.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field.Store;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import irstyle.core.ScoredIds;
+
+public class TupleSetCollectorTest {
+
+	// the long documents score less than half of the best one, and equal
+	// documents score the same
+	private static final String[] TEXTS = { "apple pear pear pear pear pear pear pear", "apple apple apple", "apple",
+			"apple apple apple", "pear", "apple pear", "apple apple apple apple", "apple",
+			"apple pear pear pear pear pear pear pear", "apple apple" };
+
+	private static RAMDirectory ramDirectory;
+
+	private static IndexReader reader;
+
+	private static IndexSearcher searcher;
+
+	private static Query query = new TermQuery(new Term("text", "apple"));
+
+	@BeforeClass
+	public static void beforeClass() throws IOException {
+		IndexWriterConfig indexWriterConfig = new IndexWriterConfig(new StandardAnalyzer());
+		indexWriterConfig.setMergePolicy(NoMergePolicy.INSTANCE);
+		indexWriterConfig.setSimilarity(new BM25Similarity());
+		ramDirectory = new RAMDirectory();
+		try (IndexWriter writer = new IndexWriter(ramDirectory, indexWriterConfig)) {
+			for (int i = 0; i < TEXTS.length; i++) {
+				Document doc = new Document();
+				doc.add(new TextField("text", TEXTS[i], Store.NO));
+				writer.addDocument(doc);
+				// several segments, so doc ids are offset by their docBase
+				if (i % 4 == 3)
+					writer.commit();
+			}
+		}
+		reader = DirectoryReader.open(ramDirectory);
+		searcher = new IndexSearcher(reader);
+		searcher.setSimilarity(new BM25Similarity());
+	}
+
+	@AfterClass
+	public static void afterClass() throws IOException {
+		reader.close();
+		ramDirectory.close();
+	}
+
+	private ScoredIds collect(int maxSize, float ratio) throws IOException {
+		TupleSetCollector collector = new TupleSetCollector(maxSize, ratio);
+		searcher.search(query, collector);
+		return collector.getHits();
+	}
+
+	private ScoreDoc[] topDocs(int maxSize) throws IOException {
+		TopScoreDocCollector collector = TopScoreDocCollector.create(maxSize);
+		searcher.search(query, collector);
+		return collector.topDocs().scoreDocs;
+	}
+
+	@Test
+	public void testSameAsTopScoreDocCollector() throws IOException {
+		assertTrue(reader.leaves().size() > 1);
+		for (int maxSize = 1; maxSize <= TEXTS.length + 1; maxSize++) {
+			ScoreDoc[] expected = topDocs(maxSize);
+			ScoredIds hits = collect(maxSize, 0);
+			assertEquals(expected.length, hits.size());
+			// equal scores are in doc order
+			for (int j = 0; j < expected.length; j++) {
+				assertEquals(expected[j].doc, hits.getId(j));
+				assertEquals(expected[j].score, hits.getScore(j), 0);
+			}
+		}
+	}
+
+	@Test
+	public void testCap() throws IOException {
+		assertEquals(3, collect(3, 0).size());
+		assertEquals(0, collect(0, 0).size());
+		assertEquals(0, collect(0, 0.5f).size());
+		// every document but the one without apple
+		assertEquals(TEXTS.length - 1, collect(100, 0).size());
+	}
+
+	@Test
+	public void testThreshold() throws IOException {
+		for (int maxSize = 1; maxSize <= TEXTS.length + 1; maxSize++) {
+			// the top hits up to and including the first one below half the best
+			// score, like executeLuceneQuery did with TopScoreDocCollector
+			ScoreDoc[] top = topDocs(maxSize);
+			int expected = 0;
+			for (ScoreDoc hit : top) {
+				expected++;
+				if (hit.score < top[0].score * 0.5)
+					break;
+			}
+			ScoredIds hits = collect(maxSize, 0.5f);
+			assertEquals(expected, hits.size());
+			for (int j = 0; j < expected; j++) {
+				assertEquals(top[j].doc, hits.getId(j));
+				assertEquals(top[j].score, hits.getScore(j), 0);
+			}
+		}
+		// the first of the two long documents is kept, the second one is dropped
+		// while collecting
+		ScoredIds hits = collect(100, 0.5f);
+		assertEquals(TEXTS.length - 2, hits.size());
+		assertEquals(0, hits.getId(hits.size() - 1));
+		assertTrue(hits.getScore(hits.size() - 1) < hits.getScore(0) * 0.5);
+	}
+
+}
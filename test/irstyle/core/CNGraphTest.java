@@ -0,0 +1,196 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Test;
+
+import irstyle.api.Params;
+
+public class CNGraphTest {
+
+	private final int cacheSize = Params.cnPlanCacheSize;
+	private final int numThreads = Params.numThreads;
+	private final int maxGeneratedCN = Params.MAX_GENERATED_CN;
+
+	@After
+	public void restore() {
+		Params.cnPlanCacheSize = cacheSize;
+		Params.numThreads = numThreads;
+		Params.MAX_GENERATED_CN = maxGeneratedCN;
+	}
+
+	private static final String WIKI = "5 article article_image image article_link link article article_image "
+			+ "article_image image article article_link article_link link";
+
+	private static final String DBLP = "9 C CY Y YP P1 P2 PP PA A C CY Y CY Y YP P1 YP P1 PP P1 PA A PA P2 YP P2 PP "
+			+ "P2 PA";
+
+	private static final String DBLP_PP = "8 C CY Y YP P1 PP PA A C CY CY YP Y CY Y YP P1 YP P1 PP YP PP YP PA PP PA "
+			+ "A PA PP P1";
+
+	private Schema createSchema(String description, MIndexAccess MIndx, Vector<String> allkeyw, String... TSs) {
+		Schema sch = new Schema(description);
+		for (String TS : TSs)
+			MIndx.addTupleSet(sch, TS, allkeyw);
+		return sch;
+	}
+
+	// the tuple set of inst followed by its sorted subtrees away from parent
+	private static String encode(Instance inst, Instance parent) {
+		List<String> subtrees = new ArrayList<String>();
+		for (int k = 0; k < inst.adjList.size(); k++)
+			if (inst.adjList.elementAt(k) != parent)
+				subtrees.add(("out".equals(inst.incoming.elementAt(k)) ? ">" : "<")
+						+ encode((Instance) inst.adjList.elementAt(k), inst));
+		Collections.sort(subtrees);
+		List<String> keywords = new ArrayList<String>(inst.keywords);
+		Collections.sort(keywords);
+		String name = inst.getRelationName().equals("P2") ? "P1" : inst.getRelationName();
+		return name + keywords + subtrees;
+	}
+
+	// equal for isomorphic Instance trees
+	private static String canonical(Instance CN) {
+		String min = null;
+		Vector v = CN.getAllInstances();
+		for (int i = 0; i < v.size(); i++) {
+			String s = encode((Instance) v.elementAt(i), null);
+			if (min == null || s.compareTo(min) < 0)
+				min = s;
+		}
+		return min;
+	}
+
+	private static boolean identical(Instance CN1, Instance CN2, boolean isomorphic) {
+		return isomorphic ? canonical(CN1).equals(canonical(CN2)) : CN1.identical(CN2);
+	}
+
+	// the CN generation of getCNs before CNGraph, on Instance trees, removing
+	// the isomorphic CNs or only the ones Instance.identical finds
+	private Vector getCNsWithInstances(Schema sch, MIndexAccess MIndx, int maxsize, Vector allkeyw,
+			boolean isomorphic) {
+		sch.MIndx = MIndx;
+		Vector CNs = new Vector(1);
+		Vector Q = new Vector(1);
+		Vector allinst = sch.getAllInstances();
+		for (int i = 0; i < allinst.size(); i++)
+			if (!((Instance) allinst.elementAt(i)).keywords.isEmpty())
+				Q.addElement(((Instance) allinst.elementAt(i)).getTupleSet());
+		while (!Q.isEmpty()) {
+			if (CNs.size() > Params.MAX_GENERATED_CN)
+				break;
+			Instance JNTS = (Instance) Q.firstElement();
+			Q.removeElementAt(0);
+			if (sch.pruningCondition(JNTS, sch)) {
+			} else if (sch.numFreeTSs(JNTS) > allkeyw.size()) {
+			} else if (JNTS.getsize() > maxsize) {
+			} else if (JNTS.getsize() == maxsize || sch.numFreeTSs(JNTS) == allkeyw.size()) {
+				if (sch.acceptCondition(JNTS, allkeyw))
+					CNs.addElement(JNTS);
+			} else {
+				if (sch.acceptCondition(JNTS, allkeyw))
+					CNs.addElement(JNTS);
+				sch.addVector(Q, sch.pruneExpansions(sch.getExpansions(JNTS, sch), maxsize, allkeyw, sch));
+			}
+		}
+		boolean moreIdenticalCNs = true;
+		while (moreIdenticalCNs) {
+			moreIdenticalCNs = false;
+			label1: for (int i = 0; i < CNs.size(); i++)
+				for (int j = 0; j < CNs.size(); j++)
+					if (i != j && identical((Instance) CNs.elementAt(i), (Instance) CNs.elementAt(j), isomorphic)) {
+						CNs.removeElementAt(i);
+						moreIdenticalCNs = true;
+						break label1;
+					}
+		}
+		return CNs;
+	}
+
+	private List<String> render(Vector CNs) {
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < CNs.size(); i++) {
+			StringBuilder sb = new StringBuilder();
+			Vector v = ((Instance) CNs.elementAt(i)).getAllInstances();
+			for (int j = 0; j < v.size(); j++) {
+				Instance inst = (Instance) v.elementAt(j);
+				sb.append(inst).append('[');
+				for (int k = 0; k < inst.adjList.size(); k++)
+					sb.append(inst.incoming.elementAt(k)).append(' ')
+							.append(v.indexOf(inst.adjList.elementAt(k))).append(' ');
+				sb.append("] ");
+			}
+			result.add(sb.toString());
+		}
+		return result;
+	}
+
+	private void assertSameCNs(String description, int maxsize, String[] keywords, String... TSs) {
+		Params.cnPlanCacheSize = 0;
+		Vector<String> allkeyw = new Vector<String>(Arrays.asList(keywords));
+		MIndexAccess MIndx = new MIndexAccess(new Vector());
+		Schema sch = createSchema(description, MIndx, allkeyw, TSs);
+		List<String> expected = render(getCNsWithInstances(sch, MIndx, maxsize, allkeyw, true));
+		for (int threads = 1; threads <= 4; threads += 3) {
+			Params.numThreads = threads;
+			MIndx = new MIndexAccess(new Vector());
+			sch = createSchema(description, MIndx, allkeyw, TSs);
+			assertEquals(expected, render(sch.getCNs(maxsize, allkeyw, sch, MIndx)));
+		}
+		assertTrue(!expected.isEmpty());
+	}
+
+	@Test
+	public void testWikiSchema() {
+		for (int maxsize = 1; maxsize <= 5; maxsize++) {
+			assertSameCNs(WIKI, maxsize, new String[] { "a", "b" }, "article", "image", "link");
+			assertSameCNs(WIKI, maxsize, new String[] { "a" }, "article", "link");
+			assertSameCNs(WIKI, maxsize, new String[] { "a", "b", "c" }, "image", "link");
+		}
+	}
+
+	@Test
+	public void testSchemasWithManyToMany() {
+		for (int maxsize = 1; maxsize <= 4; maxsize++) {
+			assertSameCNs(DBLP, maxsize, new String[] { "x", "y" }, "C", "P1", "P2", "A");
+			assertSameCNs(DBLP_PP, maxsize, new String[] { "x", "y", "z" }, "P1", "A");
+			assertSameCNs(DBLP_PP, maxsize, new String[] { "x", "x" }, "C", "P1", "A");
+		}
+	}
+
+	@Test
+	public void testRaisedCNLimit() {
+		Params.MAX_GENERATED_CN = 150;
+		assertSameCNs(DBLP_PP, 5, new String[] { "x", "y", "z" }, "C", "P1", "A");
+	}
+
+	@Test
+	public void testIsomorphicCNsAreRemoved() {
+		Params.cnPlanCacheSize = 0;
+		Params.numThreads = 1;
+		Vector<String> allkeyw = new Vector<String>(Arrays.asList("a", "b"));
+		MIndexAccess MIndx = new MIndexAccess(new Vector());
+		Schema sch = createSchema(WIKI, MIndx, allkeyw, "article", "image");
+		// article-image is generated from article and from image, and
+		// Instance.identical keeps both
+		int numIdentical = getCNsWithInstances(sch, MIndx, 2, allkeyw, false).size();
+		MIndx = new MIndexAccess(new Vector());
+		sch = createSchema(WIKI, MIndx, allkeyw, "article", "image");
+		Vector CNs = sch.getCNs(2, allkeyw, sch, MIndx);
+		assertTrue(CNs.size() < numIdentical);
+		List<String> signatures = new ArrayList<String>();
+		for (int i = 0; i < CNs.size(); i++)
+			signatures.add(canonical((Instance) CNs.elementAt(i)));
+		assertEquals(CNs.size(), new HashSet<String>(signatures).size());
+	}
+
+}
@@ -0,0 +1,97 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import org.junit.After;
+import org.junit.Test;
+
+import irstyle.api.Params;
+
+public class CNPlanCacheTest {
+
+	private final int cacheSize = Params.cnPlanCacheSize;
+
+	@After
+	public void restore() {
+		Params.cnPlanCacheSize = cacheSize;
+		CNPlanCache.clear();
+	}
+
+	private Vector<Relation> createRelations() {
+		Vector<Relation> relations = new Vector<Relation>();
+		Relation rel = new Relation("tbl_article");
+		rel.addAttribute("id", false, "INTEGER");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		rel = new Relation("tbl_article_image");
+		rel.addAttribute("article_id", false, "INTEGER");
+		rel.addAttribute("image_id", false, "INTEGER");
+		rel.addAttr4Rel("article_id", "tbl_article");
+		rel.addAttr4Rel("image_id", "tbl_image");
+		relations.add(rel);
+		rel = new Relation("tbl_image");
+		rel.addAttribute("id", false, "INTEGER");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		return relations;
+	}
+
+	// the CNs of keywords, with their SQL and non free tuple sets
+	private List<String> getCNs(String... keywords) {
+		Vector<Relation> relations = createRelations();
+		Schema sch = new Schema("3 tbl_article tbl_article_image tbl_image tbl_article_image tbl_article "
+				+ "tbl_article_image tbl_image");
+		Vector<String> allkeyw = new Vector<String>(Arrays.asList(keywords));
+		MIndexAccess MIndx = new MIndexAccess(relations);
+		MIndx.addTupleSet(sch, "tbl_article", allkeyw);
+		MIndx.addTupleSet(sch, "tbl_image", allkeyw);
+		Vector CNs = sch.getCNs(4, allkeyw, sch, MIndx);
+		List<String> result = new ArrayList<String>();
+		for (int i = 0; i < CNs.size(); i++) {
+			Instance CN = (Instance) CNs.elementAt(i);
+			ArrayList nfreeTSs = new ArrayList();
+			String sql = CN.getSQLstatementParameterized(relations, allkeyw, nfreeTSs);
+			result.add(CN.getAllInstances() + " " + sql + " " + nfreeTSs);
+		}
+		return result;
+	}
+
+	@Test
+	public void testSameCoverageGetsCachedCNs() {
+		Params.cnPlanCacheSize = 0;
+		List<String> expected = getCNs("mountain", "lake");
+		assertTrue(expected.size() > 1);
+		assertTrue(expected.get(0).contains("mountain lake"));
+		Params.cnPlanCacheSize = 10;
+		getCNs("paris", "louvre");
+		assertEquals(expected, getCNs("mountain", "lake"));
+		assertEquals(expected, getCNs("mountain", "lake"));
+		assertEquals("CN plan cache: 1 signatures, 2 hits, 1 misses", CNPlanCache.getStats());
+	}
+
+	@Test
+	public void testOtherCoverageIsGenerated() {
+		Params.cnPlanCacheSize = 0;
+		List<String> expected = getCNs("rome");
+		Params.cnPlanCacheSize = 10;
+		getCNs("paris", "louvre");
+		assertEquals(expected, getCNs("rome"));
+		assertEquals("CN plan cache: 2 signatures, 0 hits, 2 misses", CNPlanCache.getStats());
+	}
+
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		Params.cnPlanCacheSize = 1;
+		getCNs("a", "b");
+		getCNs("c");
+		getCNs("d", "e");
+		assertEquals("CN plan cache: 1 signatures, 0 hits, 3 misses", CNPlanCache.getStats());
+	}
+
+}
@@ -0,0 +1,93 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class CombinationIteratorTest {
+
+	private ArrayList[] createScores(int[]... scores) {
+		ArrayList[] scoresS = new ArrayList[scores.length];
+		for (int i = 0; i < scores.length; i++) {
+			scoresS[i] = new ArrayList();
+			for (int score : scores[i])
+				scoresS[i].add(new Integer(score));
+		}
+		return scoresS;
+	}
+
+	private double getScore(ArrayList[] scoresS, int[] combination, int CNsize) {
+		double score = 0;
+		for (int i = 0; i < combination.length; i++)
+			score += ((Integer) scoresS[i].get(combination[i])).intValue();
+		return score / CNsize;
+	}
+
+	@Test
+	public void testEnumeratesAllInDescendingOrder() {
+		Random random = new Random(3);
+		int[][] scores = new int[3][];
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = new int[1 + random.nextInt(6)];
+			for (int j = 0; j < scores[i].length; j++)
+				scores[i][j] = random.nextInt(20);
+		}
+		ArrayList[] scoresS = createScores(scores);
+		CombinationIterator combinations = new CombinationIterator(scoresS, 3, 4);
+		Set<String> seen = new HashSet<String>();
+		double last = Double.POSITIVE_INFINITY;
+		int[] combination;
+		while ((combination = combinations.next(Double.NEGATIVE_INFINITY)) != null) {
+			double score = getScore(scoresS, combination, 4);
+			assertTrue(score <= last);
+			last = score;
+			assertTrue(seen.add(combination[0] + " " + combination[1] + " " + combination[2]));
+		}
+		assertEquals(combinations.getNumCombinations(), seen.size());
+		assertEquals(0, combinations.getNumPruned());
+	}
+
+	@Test
+	public void testPrunesCombinationsBelowMinScore() {
+		ArrayList[] scoresS = createScores(new int[] { 1, 5, 3 }, new int[] { 4, 2 });
+		CombinationIterator combinations = new CombinationIterator(scoresS, 2, 2);
+		int[] combination = combinations.next(3);
+		assertEquals(1, combination[0]);
+		assertEquals(0, combination[1]);
+		combination = combinations.next(3);
+		assertEquals(2, combination[0]);
+		assertEquals(0, combination[1]);
+		// 5+2 scores 3.5, the rest at most 3
+		combination = combinations.next(3);
+		assertEquals(1, combination[0]);
+		assertEquals(1, combination[1]);
+		assertNull(combinations.next(3));
+		assertEquals(3, combinations.getNumPruned());
+	}
+
+	@Test
+	public void testStoppingEarlyIsNotPruning() {
+		ArrayList[] scoresS = createScores(new int[] { 1, 5, 3 }, new int[] { 4, 2 });
+		CombinationIterator combinations = new CombinationIterator(scoresS, 2, 2);
+		combinations.next(0);
+		combinations.next(0);
+		// the caller found its top-N
+		assertEquals(0, combinations.getNumPruned());
+	}
+
+	@Test
+	public void testOnlyFirstDimensionsAreUsed() {
+		ArrayList[] scoresS = createScores(new int[] { 2, 1 }, new int[] { 7 }, new int[] { 9, 9 });
+		CombinationIterator combinations = new CombinationIterator(scoresS, 2, 1);
+		assertEquals(2, combinations.getNumCombinations());
+		assertEquals(2, combinations.next(0).length);
+	}
+
+}
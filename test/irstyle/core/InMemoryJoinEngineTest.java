@@ -0,0 +1,121 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Vector;
+
+import org.junit.Test;
+
+public class InMemoryJoinEngineTest {
+
+	private InMemoryJoinEngine createEngine() {
+		Vector<Relation> relations = new Vector<Relation>();
+		Relation rel = new Relation("tbl_article");
+		rel.addAttribute("id", false, "INTEGER");
+		rel.addAttribute("text", true, "VARCHAR(32000)");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		rel = new Relation("tbl_article_image");
+		rel.addAttribute("article_id", false, "INTEGER");
+		rel.addAttribute("image_id", false, "INTEGER");
+		rel.addAttr4Rel("article_id", "tbl_article");
+		rel.addAttr4Rel("image_id", "tbl_image");
+		relations.add(rel);
+		rel = new Relation("tbl_image");
+		rel.addAttribute("id", false, "INTEGER");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		assertEquals(Arrays.asList("id"), relations.get(0).getJoinAttributes());
+		assertEquals(Arrays.asList("article_id", "image_id"), relations.get(1).getJoinAttributes());
+		Map<String, AdjacencyIndex> tables = new HashMap<String, AdjacencyIndex>();
+		tables.put("tbl_article",
+				new CSRAdjacencyIndex("tbl_article", new String[] { "id" }, new int[][] { { 1, 2, 3 } }));
+		tables.put("tbl_article_image", new CSRAdjacencyIndex("tbl_article_image",
+				new String[] { "article_id", "image_id" }, new int[][] { { 1, 1, 2, 3 }, { 10, 11, 10, 12 } }));
+		tables.put("tbl_image",
+				new CSRAdjacencyIndex("tbl_image", new String[] { "id" }, new int[][] { { 10, 11, 12 } }));
+		return new InMemoryJoinEngine(relations, tables);
+	}
+
+	private Instance addNode(Instance parent, String relname, boolean nonFree) {
+		Instance inst = new Instance();
+		inst.setRelationName(relname);
+		if (nonFree)
+			inst.addKeyword("k");
+		if (parent != null) {
+			parent.addAdjInstance(inst, "inc");
+			inst.addAdjInstance(parent, "out");
+		}
+		return inst;
+	}
+
+	@Test
+	public void testIndex() {
+		AdjacencyIndex index = createEngine().getTable("tbl_article_image");
+		assertEquals(0, index.getColumnIndex("article_id"));
+		assertEquals(-1, index.getColumnIndex("text"));
+		int column = index.getColumnIndex("image_id");
+		assertEquals(2, index.end(column, 10) - index.begin(column, 10));
+		assertEquals(0, index.end(column, 13) - index.begin(column, 13));
+		int row = index.getRow(column, index.begin(column, 12));
+		assertEquals(3, index.getValue(row, 0));
+	}
+
+	@Test
+	public void testNonFreeLeaves() {
+		// TS_tbl_article <- tbl_article_image -> TS_tbl_image
+		Instance article = addNode(null, "tbl_article", true);
+		Instance articleImage = addNode(article, "tbl_article_image", false);
+		addNode(articleImage, "tbl_image", true);
+		ArrayList<String> nfreeTSs = new ArrayList<String>();
+		InMemoryCN cn = createEngine().compile(article, nfreeTSs);
+		assertEquals(Arrays.asList("TS_tbl_article", "TS_tbl_image"), nfreeTSs);
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		assertEquals(1, cn.check4Results(new int[] { 1, 11 }, new int[] { 3, 4 }, 2.5, R));
+		assertEquals(0, cn.check4Results(new int[] { 2, 11 }, new int[] { 3, 4 }, 2.5, R));
+		assertEquals(Arrays.asList("1 - 3 - 1 - 11 - 11 - 4 - ").toString(), R.itemsInOrder().toString());
+	}
+
+	@Test
+	public void testFreeLeaf() {
+		// TS_tbl_image <- tbl_article_image -> tbl_article
+		Instance image = addNode(null, "tbl_image", true);
+		Instance articleImage = addNode(image, "tbl_article_image", false);
+		addNode(articleImage, "tbl_article", false);
+		InMemoryCN cn = createEngine().compile(image, new ArrayList<String>());
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		assertEquals(2, cn.check4Results(new int[] { 10 }, new int[] { 5 }, 1, R));
+		assertEquals(Arrays.asList("10 - 5 - 1 - 10 - 1 - ", "10 - 5 - 2 - 10 - 2 - ").toString(), R.itemsInOrder().toString());
+	}
+
+	@Test
+	public void testSharedPrefix() {
+		// TS_tbl_image <- tbl_article_image -> tbl_article and
+		// TS_tbl_image <- tbl_article_image -> TS_tbl_article
+		InMemoryJoinEngine engine = createEngine();
+		Instance image = addNode(null, "tbl_image", true);
+		addNode(addNode(image, "tbl_article_image", false), "tbl_article", false);
+		InMemoryCN freeLeaf = engine.compile(image, new ArrayList<String>());
+		image = addNode(null, "tbl_image", true);
+		addNode(addNode(image, "tbl_article_image", false), "tbl_article", true);
+		InMemoryCN nonFreeLeaf = engine.compile(image, new ArrayList<String>());
+		SubJoinMemo memo = new SubJoinMemo(100);
+		assertEquals(2, memo.share(new InMemoryCN[] { freeLeaf, nonFreeLeaf, null }));
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		assertEquals(2, freeLeaf.check4Results(new int[] { 10 }, new int[] { 5 }, 1, R));
+		assertEquals(Arrays.asList("10 - 5 - 1 - 10 - 1 - ", "10 - 5 - 2 - 10 - 2 - ").toString(),
+				R.itemsInOrder().toString());
+		// the rows of tbl_article_image joining image 10 are read from the memo
+		assertEquals(1, nonFreeLeaf.check4Results(new int[] { 10, 2 }, new int[] { 5, 3 }, 1, R));
+		assertEquals(0, nonFreeLeaf.check4Results(new int[] { 10, 3 }, new int[] { 5, 3 }, 1, R));
+		assertEquals(0, freeLeaf.check4Results(new int[] { 13 }, new int[] { 5 }, 1, R));
+		assertEquals(0, nonFreeLeaf.check4Results(new int[] { 13, 1 }, new int[] { 5, 3 }, 1, R));
+		assertEquals(3, memo.getNumHits());
+		assertEquals(3, R.size());
+	}
+
+}
@@ -0,0 +1,94 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Vector;
+
+import org.junit.Test;
+
+public class InstanceTest {
+
+	// article <- article_image -> image, with keywords in article and image
+	private Instance createCN() {
+		Instance article = new Instance();
+		article.setRelationName("tbl_article");
+		article.addKeyword("a");
+		Instance articleImage = new Instance();
+		articleImage.setRelationName("tbl_article_image");
+		Instance image = new Instance();
+		image.setRelationName("tbl_image");
+		image.addKeyword("b");
+		article.addAdjInstance(articleImage, "inc");
+		articleImage.addAdjInstance(article, "out");
+		articleImage.addAdjInstance(image, "out");
+		image.addAdjInstance(articleImage, "inc");
+		return article;
+	}
+
+	private Vector<Relation> createRelations() {
+		Vector<Relation> relations = new Vector<Relation>();
+		Relation rel = new Relation("tbl_article");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		rel = new Relation("tbl_article_image");
+		rel.addAttr4Rel("article_id", "tbl_article");
+		rel.addAttr4Rel("image_id", "tbl_image");
+		relations.add(rel);
+		rel = new Relation("tbl_image");
+		rel.addAttr4Rel("id", "tbl_article_image");
+		relations.add(rel);
+		return relations;
+	}
+
+	@Test
+	public void testBatchedStatementKeepsJoinAndParameterOrder() {
+		Instance cn = createCN();
+		Vector<Relation> relations = createRelations();
+		Vector<String> keywords = new Vector<String>();
+		keywords.add("a");
+		keywords.add("b");
+		ArrayList<String> nfreeTSs = new ArrayList<String>();
+		String sql = cn.getSQLstatementParameterized(relations, keywords, nfreeTSs);
+		assertEquals("select * from TS_tbl_article r0 ,tbl_article_image r1 ,TS_tbl_image r2  WHERE "
+				+ " r1.article_id=r0.id AND  r1.image_id=r2.id  AND r0.id = ?  AND r2.id = ? ", sql);
+		assertEquals("TS_tbl_article", nfreeTSs.get(0));
+		assertEquals("TS_tbl_image", nfreeTSs.get(1));
+		String batched = cn.getSQLstatementBatched(relations, keywords, 2);
+		assertEquals("select r0.id, r2.id, r0.*, r1.*, r2.* from TS_tbl_article r0 ,tbl_article_image r1 ,"
+				+ "TS_tbl_image r2  WHERE  r1.article_id=r0.id AND  r1.image_id=r2.id AND "
+				+ "((r0.id = ? AND r2.id = ?) OR (r0.id = ? AND r2.id = ?))", batched);
+	}
+
+	@Test
+	public void testBatchedStatementOfSingleTupleSet() {
+		Instance cn = new Instance();
+		cn.setRelationName("tbl_article");
+		cn.addKeyword("a");
+		Vector<String> keywords = new Vector<String>();
+		keywords.add("a");
+		assertEquals("select r0.id, r0.* from TS_tbl_article r0  WHERE ((r0.id = ?) OR (r0.id = ?) OR (r0.id = ?))",
+				cn.getSQLstatementBatched(createRelations(), keywords, 3));
+		cn.removeAllKeywords();
+		assertNull(cn.getSQLstatementBatched(createRelations(), keywords, 3));
+	}
+
+	@Test
+	public void testTupleSetPrefix() {
+		Instance cn = createCN();
+		Vector<String> keywords = new Vector<String>();
+		keywords.add("a");
+		keywords.add("b");
+		ArrayList<String> nfreeTSs = new ArrayList<String>();
+		String sql = cn.getSQLstatementParameterized(createRelations(), keywords, nfreeTSs, "TS3_");
+		assertEquals("select * from TS3_tbl_article r0 ,tbl_article_image r1 ,TS3_tbl_image r2  WHERE "
+				+ " r1.article_id=r0.id AND  r1.image_id=r2.id  AND r0.id = ?  AND r2.id = ? ", sql);
+		assertEquals("TS3_tbl_article", nfreeTSs.get(0));
+		assertEquals("TS3_tbl_image", nfreeTSs.get(1));
+		assertEquals("select r0.id, r2.id, r0.*, r1.*, r2.* from TS3_tbl_article r0 ,tbl_article_image r1 ,"
+				+ "TS3_tbl_image r2  WHERE  r1.article_id=r0.id AND  r1.image_id=r2.id AND ((r0.id = ? AND r2.id = ?))",
+				cn.getSQLstatementBatched(createRelations(), keywords, 1, "TS3_"));
+	}
+
+}
@@ -0,0 +1,224 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class JDBCaccessPoolTest {
+
+	// connections opened so far, and whether they are valid
+	private Map<Connection, Boolean> valid = new HashMap<Connection, Boolean>();
+	private int numClosed = 0;
+
+	private Connection connect() {
+		Connection[] self = new Connection[1];
+		self[0] = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Connection.class },
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+					case "createStatement":
+						return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { Statement.class },
+								(p, m, a) -> null);
+					case "isValid":
+						return valid.get(self[0]);
+					case "close":
+						numClosed++;
+						return null;
+					case "hashCode":
+						return System.identityHashCode(proxy);
+					case "equals":
+						return proxy == args[0];
+					default:
+						return null;
+					}
+				});
+		valid.put(self[0], true);
+		return self[0];
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 2, 60 * 1000);
+		JDBCaccess first;
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			first = lease.get();
+			assertEquals("db", first.getDatabaseName());
+		}
+		try (JDBCaccessPool.Lease lease = pool.lease(); JDBCaccessPool.Lease lease2 = pool.lease()) {
+			assertSame(first, lease.get());
+			assertNotSame(first, lease2.get());
+			// both connections are leased
+			assertNull(pool.tryLease());
+		}
+		assertEquals(2, pool.getNumIdle());
+		assertEquals(2, valid.size());
+		pool.close();
+		assertEquals(2, numClosed);
+		assertEquals(0, pool.getNumOpen());
+	}
+
+	@Test
+	public void testWaitForLease() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 1, 60 * 1000);
+		JDBCaccessPool.Lease lease = pool.lease();
+		JDBCaccess first = lease.get();
+		Thread thread = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			lease.close();
+		});
+		thread.start();
+		try (JDBCaccessPool.Lease lease2 = pool.lease()) {
+			assertSame(first, lease2.get());
+		}
+		thread.join();
+		assertEquals(1, valid.size());
+	}
+
+	@Test
+	public void testIdleEviction() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 2, 0);
+		pool.lease().close();
+		Thread.sleep(5);
+		pool.evictIdle();
+		assertEquals(1, numClosed);
+		assertEquals(0, pool.getNumOpen());
+	}
+
+	@Test
+	public void testValidation() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 2, 60 * 1000);
+		JDBCaccess first;
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			first = lease.get();
+		}
+		valid.put(first.conn, false);
+		// checked only after the validation interval
+		pool.validationInterval = 20;
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			assertSame(first, lease.get());
+		}
+		Thread.sleep(50);
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			assertNotSame(first, lease.get());
+		}
+		assertEquals(1, numClosed);
+		assertTrue(pool.getStats().contains("1 invalid"));
+	}
+
+	@Test
+	public void testSlowConnectDoesNotBlockPool() throws Exception {
+		CountDownLatch connecting = new CountDownLatch(1);
+		CountDownLatch connected = new CountDownLatch(1);
+		boolean[] slow = { false };
+		JDBCaccessPool pool = new JDBCaccessPool(() -> {
+			if (slow[0]) {
+				connecting.countDown();
+				try {
+					connected.await();
+				} catch (InterruptedException e) {
+					throw new SQLException(e);
+				}
+			}
+			return connect();
+		}, "db", 2, 60 * 1000);
+		JDBCaccessPool.Lease lease = pool.lease();
+		slow[0] = true;
+		Thread thread = new Thread(() -> {
+			try {
+				pool.lease().close();
+			} catch (SQLException e) {
+			}
+		});
+		thread.start();
+		connecting.await();
+		// the other slot is being opened, so there is nothing to lease, but the
+		// pool is not locked
+		assertNull(pool.tryLease());
+		lease.close();
+		assertEquals(1, pool.getNumIdle());
+		connected.countDown();
+		thread.join();
+		assertEquals(2, pool.getNumIdle());
+		assertEquals(2, pool.getNumOpen());
+	}
+
+	@Test
+	public void testFailedConnectFreesSlot() throws Exception {
+		boolean[] fail = { true };
+		JDBCaccessPool pool = new JDBCaccessPool(() -> {
+			if (fail[0])
+				throw new SQLException("server is down");
+			return connect();
+		}, "db", 1, 60 * 1000);
+		try {
+			pool.lease();
+			fail();
+		} catch (SQLException e) {
+		}
+		assertEquals(0, pool.getNumOpen());
+		fail[0] = false;
+		pool.lease().close();
+		assertEquals(1, pool.getNumOpen());
+	}
+
+	@Test
+	public void testPrefetchConnectionTakesSlot() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 2, 60 * 1000);
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			assertNotSame(lease.get().conn, lease.get().getPrefetchConnection());
+			assertEquals(2, pool.getNumOpen());
+			// the prefetch connection took the last slot
+			assertNull(pool.tryLease());
+		}
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			// the idle connection keeps its prefetch connection
+			assertEquals(2, pool.getNumOpen());
+		}
+		pool.close();
+		assertEquals(2, numClosed);
+		assertEquals(0, pool.getNumOpen());
+		pool = new JDBCaccessPool(this::connect, "db", 1, 60 * 1000);
+		try (JDBCaccessPool.Lease lease = pool.lease()) {
+			// no slot, so the tuple sets are not prefetched
+			assertNull(lease.get().getPrefetchConnection());
+			assertEquals(1, pool.getNumOpen());
+		}
+		pool.close();
+	}
+
+	@Test
+	public void testTupleSetSessions() throws Exception {
+		JDBCaccessPool pool = new JDBCaccessPool(this::connect, "db", 2, 60 * 1000);
+		try (JDBCaccessPool.Lease lease = pool.lease(); JDBCaccessPool.Lease lease2 = pool.lease()) {
+			String prefix = lease.get().getTupleSetPrefix();
+			assertTrue(prefix.matches("TS[0-9]+_[0-9]+_"));
+			assertTrue(prefix.startsWith(JDBCaccess.getProcessTupleSetPrefix()));
+			assertFalse(prefix.equals(lease2.get().getTupleSetPrefix()));
+			// the slot of a closed session is taken by the next one
+			lease.get().closeTupleSetSession();
+			assertEquals("TS_", lease.get().getTupleSetPrefix());
+			JDBCaccess jdbcacc = new JDBCaccess(connect(), "db");
+			jdbcacc.openTupleSetSession();
+			assertEquals(prefix, jdbcacc.getTupleSetPrefix());
+			jdbcacc.closeall();
+		}
+		pool.close();
+	}
+
+}
@@ -0,0 +1,77 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedAdjacencyIndexTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CSRAdjacencyIndex createIndex() {
+		return new CSRAdjacencyIndex("tbl_article_link", new String[] { "article_id", "link_id" },
+				new int[][] { { 3, 1, 1, 2, 1 }, { 7, 9, 5, 7, 8 } });
+	}
+
+	private MappedAdjacencyIndex writeAndOpen() throws Exception {
+		CSRAdjacencyIndex index = createIndex();
+		Path file = folder.getRoot().toPath().resolve("tbl_article_link.adj");
+		MappedAdjacencyIndex.write(index, file);
+		return MappedAdjacencyIndex.open(file);
+	}
+
+	@Test
+	public void testNeighbors() throws Exception {
+		MappedAdjacencyIndex index = writeAndOpen();
+		assertEquals("tbl_article_link", index.getName());
+		assertEquals(5, index.getNumRows());
+		assertEquals(1, index.getColumnIndex("link_id"));
+		assertArrayEquals(new int[] { 5, 8, 9 }, index.neighbors(0, 1, 1));
+		assertArrayEquals(new int[] { 2, 3 }, index.neighbors(1, 7, 0));
+		assertArrayEquals(new int[0], index.neighbors(0, 4, 1));
+		// rows are sorted by article_id, then link_id
+		assertEquals(1, index.getValue(0, 0));
+		assertEquals(5, index.getValue(0, 1));
+		assertEquals(2, index.end(1, 7) - index.begin(1, 7));
+		assertEquals(0, index.end(1, 6) - index.begin(1, 6));
+	}
+
+	@Test
+	public void testChecksum() throws Exception {
+		MappedAdjacencyIndex index = writeAndOpen();
+		// sum of crc32(concat_ws(',', article_id, link_id)) of the rows
+		long expected = 0;
+		for (String row : new String[] { "3,7", "1,9", "1,5", "2,7", "1,8" }) {
+			CRC32 crc = new CRC32();
+			crc.update(row.getBytes("US-ASCII"));
+			expected += crc.getValue();
+		}
+		assertEquals(expected, index.getChecksum());
+		// the rows were reordered
+		assertEquals(expected, MappedAdjacencyIndex.checksum(index));
+		CSRAdjacencyIndex changed = new CSRAdjacencyIndex("tbl_article_link",
+				new String[] { "article_id", "link_id" }, new int[][] { { 3, 1, 1, 2, 1 }, { 7, 9, 5, 7, 9 } });
+		assertNotEquals(expected, MappedAdjacencyIndex.checksum(changed));
+		assertEquals(expected, MappedAdjacencyIndex.checksum(createIndex()));
+	}
+
+	@Test
+	public void testHasEdge() throws Exception {
+		MappedAdjacencyIndex index = writeAndOpen();
+		assertTrue(index.hasEdge(0, 1, 1, 8));
+		assertTrue(index.hasEdge(1, 7, 0, 3));
+		assertFalse(index.hasEdge(0, 1, 1, 7));
+		assertFalse(index.hasEdge(0, 4, 1, 7));
+	}
+
+}
@@ -0,0 +1,176 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ProbeBatchTest {
+
+	// rows returned by the next execution: the ids of the combination, then an
+	// INT and a VARCHAR column of the joined tuples
+	private List<Object[]> rows = new ArrayList<Object[]>();
+	// parameters set by the last execution, in order
+	private List<Integer> params = new ArrayList<Integer>();
+	private int numExecutions = 0;
+
+	private Object proxy(Class<?> type, java.lang.reflect.InvocationHandler handler) {
+		return Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] { type }, handler);
+	}
+
+	private ResultSet createResultSet(List<Object[]> rows) {
+		ResultSetMetaData rsmd = (ResultSetMetaData) proxy(ResultSetMetaData.class, (p, m, a) -> {
+			switch (m.getName()) {
+			case "getColumnCount":
+				return 4;
+			case "getColumnTypeName":
+				return ((Integer) a[0]) == 4 ? "VARCHAR" : "INT";
+			default:
+				return null;
+			}
+		});
+		int[] current = { -1 };
+		return (ResultSet) proxy(ResultSet.class, (p, m, a) -> {
+			switch (m.getName()) {
+			case "next":
+				return ++current[0] < rows.size();
+			case "getInt":
+				return (Integer) rows.get(current[0])[(Integer) a[0] - 1];
+			case "getString":
+				return String.valueOf(rows.get(current[0])[(Integer) a[0] - 1]);
+			case "getMetaData":
+				return rsmd;
+			default:
+				return null;
+			}
+		});
+	}
+
+	private PreparedStatement createStatement() {
+		return (PreparedStatement) proxy(PreparedStatement.class, (p, m, a) -> {
+			switch (m.getName()) {
+			case "setInt":
+				params.add((Integer) a[1]);
+				return null;
+			case "executeQuery":
+				numExecutions++;
+				return createResultSet(new ArrayList<Object[]>(rows));
+			case "toString":
+				return "fake";
+			default:
+				return null;
+			}
+		});
+	}
+
+	private JDBCaccess createAccess() {
+		Connection conn = (Connection) proxy(Connection.class, (p, m, a) -> {
+			if (m.getName().equals("createStatement"))
+				return proxy(Statement.class, (p2, m2, a2) -> null);
+			return null;
+		});
+		return new JDBCaccess(conn);
+	}
+
+	// tuple sets of two tables, with the ids of the tuples
+	private ArrayList[] createTupleSets() {
+		ArrayList first = new ArrayList(Arrays.asList(1, 2, 3, 4));
+		ArrayList second = new ArrayList(Arrays.asList(10, 20, 30, 40));
+		return new ArrayList[] { first, second };
+	}
+
+	private List<String> render(TopNCollector<ResultRow> R) {
+		List<String> items = new ArrayList<String>();
+		for (ResultRow row : R.itemsInOrder())
+			items.add(row.toString());
+		return items;
+	}
+
+	@Test
+	public void testScattersRowsToCombinations() {
+		ProbeBatch batch = new ProbeBatch(createStatement(), 2, 3);
+		ArrayList[] S = createTupleSets();
+		batch.add(S, new int[] { 0, 0 }, 5);
+		batch.add(S, new int[] { 1, 1 }, 3);
+		batch.add(S, new int[] { 2, 2 }, 4);
+		assertTrue(batch.isFull());
+		// rows of the combinations interleaved, and one of no combination
+		rows.add(new Object[] { 2, 20, 200, "b" });
+		rows.add(new Object[] { 1, 10, 100, "a" });
+		rows.add(new Object[] { 9, 90, 900, "x" });
+		rows.add(new Object[] { 3, 30, 300, "c" });
+		rows.add(new Object[] { 1, 10, 101, "a2" });
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		assertEquals(4, batch.flush(createAccess(), R, new ArrayList(), false));
+		assertEquals(Arrays.asList(1, 10, 2, 20, 3, 30), params);
+		assertEquals(1, numExecutions);
+		assertEquals(1, batch.getNumRoundTrips());
+		assertTrue(batch.isEmpty());
+		assertEquals(Arrays.asList("100 - a - ", "101 - a2 - ", "300 - c - ", "200 - b - "), render(R));
+		assertArrayEquals(new double[] { 5, 5, 4, 3 }, R.scoresInOrder(), 0);
+	}
+
+	@Test
+	public void testPartialBatchRepeatsLastCombination() {
+		ProbeBatch batch = new ProbeBatch(createStatement(), 2, 3);
+		ArrayList[] S = createTupleSets();
+		batch.add(S, new int[] { 3, 3 }, 6);
+		batch.add(S, new int[] { 0, 1 }, 2);
+		rows.add(new Object[] { 1, 20, 120, "e" });
+		rows.add(new Object[] { 4, 40, 400, "d" });
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		JDBCaccess jdbcacc = createAccess();
+		assertEquals(2, batch.flush(jdbcacc, R, new ArrayList(), false));
+		assertEquals(Arrays.asList(4, 40, 1, 20, 1, 20), params);
+		assertEquals(Arrays.asList("400 - d - ", "120 - e - "), render(R));
+		// the batch is reused for the next combinations
+		params.clear();
+		rows.clear();
+		batch.add(S, new int[] { 2, 0 }, 1);
+		rows.add(new Object[] { 3, 10, 310, "f" });
+		assertEquals(3, batch.flush(jdbcacc, R, new ArrayList(), false));
+		assertEquals(Arrays.asList(3, 10, 3, 10, 3, 10), params);
+		assertEquals(2, batch.getNumRoundTrips());
+		assertArrayEquals(new double[] { 6, 2, 1 }, R.scoresInOrder(), 0);
+	}
+
+	@Test
+	public void testSkipsRowsTheCollectorRejects() {
+		ProbeBatch batch = new ProbeBatch(createStatement(), 2, 2);
+		ArrayList[] S = createTupleSets();
+		batch.add(S, new int[] { 0, 0 }, 1);
+		batch.add(S, new int[] { 1, 1 }, 7);
+		rows.add(new Object[] { 1, 10, 100, "a" });
+		rows.add(new Object[] { 2, 20, 200, "b" });
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(1);
+		R.add(5, null);
+		assertEquals(1, batch.flush(createAccess(), R, new ArrayList(), false));
+		assertEquals(Arrays.asList("200 - b - "), render(R));
+	}
+
+	@Test
+	public void testAllKeywordsInResults() {
+		ProbeBatch batch = new ProbeBatch(createStatement(), 2, 2);
+		ArrayList[] S = createTupleSets();
+		batch.add(S, new int[] { 0, 0 }, 2);
+		batch.add(S, new int[] { 1, 1 }, 1);
+		rows.add(new Object[] { 1, 10, 100, "foo bar" });
+		rows.add(new Object[] { 2, 20, 200, "foo" });
+		TopNCollector<ResultRow> R = new TopNCollector<ResultRow>(10);
+		ArrayList keywords = new ArrayList(Arrays.asList("foo", "bar"));
+		assertEquals(1, batch.flush(createAccess(), R, keywords, true));
+		assertEquals(Arrays.asList("100 - foo bar - "), render(R));
+	}
+
+}
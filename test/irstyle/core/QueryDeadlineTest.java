@@ -0,0 +1,71 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class QueryDeadlineTest {
+
+	@Test
+	public void testExpiredStage() throws Exception {
+		QueryDeadline deadline = new QueryDeadline(60 * 1000);
+		deadline.enter("tuple sets");
+		assertFalse(deadline.isExpired());
+		assertNull(deadline.getExpiredStage());
+		deadline.close();
+		// the timer may expire the deadline before enter, so it is given some time
+		deadline = new QueryDeadline(200);
+		deadline.enter("CNs");
+		Thread.sleep(400);
+		assertTrue(deadline.isExpired());
+		// the first stage that ran out of time is kept
+		deadline.enter("execution");
+		assertEquals("CNs", deadline.getExpiredStage());
+		assertEquals(0, deadline.getRemaining());
+		deadline.close();
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		CountDownLatch executing = new CountDownLatch(1);
+		CountDownLatch cancelled = new CountDownLatch(1);
+		PreparedStatement prepared = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[] { PreparedStatement.class }, (proxy, method, args) -> {
+					switch (method.getName()) {
+					case "executeQuery":
+						executing.countDown();
+						cancelled.await();
+						throw new SQLException("Statement cancelled");
+					case "cancel":
+						cancelled.countDown();
+						return null;
+					default:
+						return null;
+					}
+				});
+		Connection conn = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[] { Connection.class }, (proxy, method, args) -> null);
+		JDBCaccess jdbcacc = new JDBCaccess(conn, "db");
+		QueryDeadline deadline = new QueryDeadline(50);
+		deadline.attach(jdbcacc);
+		ResultSet rs = jdbcacc.executePrepared(prepared);
+		executing.await();
+		assertNull(rs);
+		assertTrue(jdbcacc.isOutOfTime());
+		// an expired query does not run more statements
+		assertNull(jdbcacc.executePrepared(prepared));
+		deadline.close();
+		assertFalse(jdbcacc.isOutOfTime());
+	}
+
+}
@@ -0,0 +1,41 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ResultRowTest {
+
+	private ResultRow createRow() {
+		return new ResultRow(new boolean[] { true, false, true, false }, new int[] { 7, 0, 3, 0 },
+				new String[] { null, "Hello  World\tfoo", null, null });
+	}
+
+	@Test
+	public void testToStringMatchesGetResult() {
+		assertEquals("7 - Hello  World\tfoo - 3 - null - ", createRow().toString());
+	}
+
+	@Test
+	public void testContainsAllMatchesTokens() {
+		// same answers as JDBCaccess.containsAll on the rendered row
+		ResultRow row = createRow();
+		assertTrue(row.containsAll(keywords("hello", "world")));
+		assertTrue(row.containsAll(keywords("HELLO", "7")));
+		assertFalse(row.containsAll(keywords("hell")));
+		assertTrue(row.containsAll(keywords("-", "foo")));
+		assertTrue(row.containsAll(keywords("null")));
+		assertFalse(row.containsAll(keywords("3", "bar")));
+		assertTrue(row.containsAll(keywords()));
+	}
+
+	private ArrayList keywords(String... keywords) {
+		return new ArrayList(Arrays.asList(keywords));
+	}
+
+}
@@ -0,0 +1,48 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ScoredIdsTest {
+
+	@Test
+	public void testAddGrows() {
+		ScoredIds tuples = new ScoredIds(1);
+		for (int i = 0; i < 10; i++)
+			tuples.add(i, i / 2f);
+		assertEquals(10, tuples.size());
+		assertEquals(7, tuples.getId(7));
+		assertEquals(3.5f, tuples.getScore(7), 0);
+		assertEquals("(7,3.5)", tuples.getTuple(7));
+	}
+
+	@Test
+	public void testTuplesInScoreOrder() {
+		ScoredIds tuples = new ScoredIds();
+		tuples.add(5, 2.5f);
+		tuples.add(9, 7.25f);
+		tuples.add(-3, 0.5f);
+		tuples.add(2, 2.5f);
+		tuples.add(4, 2.75f);
+		// descending score, ascending id, scores truncated
+		assertArrayEquals(new int[] { 9, 7, 4, 2, 2, 2, 5, 2, -3, 0 }, tuples.getTuplesInScoreOrder());
+	}
+
+	@Test
+	public void testCursor() {
+		ScoredIds tuples = new ScoredIds();
+		tuples.add(1, 1.5f);
+		tuples.add(2, 3.5f);
+		TupleSetCursor cursor = TupleSetCursor.create(tuples);
+		assertEquals(2, cursor.getNextID());
+		assertEquals(3, cursor.getCurrScore());
+		assertEquals(1, cursor.getNextID());
+		assertEquals(1, cursor.getCurrScore());
+		assertEquals(-1, cursor.getNextID());
+		assertEquals(1, cursor.getNumPages());
+		assertEquals(-1, TupleSetCursor.create(new ScoredIds()).getNextID());
+	}
+
+}
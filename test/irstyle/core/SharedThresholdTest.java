@@ -0,0 +1,40 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SharedThresholdTest {
+
+	@Test
+	public void testRaiseKeepsMaximum() {
+		SharedThreshold threshold = new SharedThreshold();
+		assertEquals(Double.NEGATIVE_INFINITY, threshold.get(), 0);
+		threshold.raise(2.5);
+		threshold.raise(1);
+		threshold.raise(Double.NEGATIVE_INFINITY);
+		assertEquals(2.5, threshold.get(), 0);
+	}
+
+	@Test
+	public void testConcurrentRaise() throws InterruptedException {
+		SharedThreshold threshold = new SharedThreshold();
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			int offset = t;
+			Thread thread = new Thread(() -> {
+				for (int i = 0; i < 10000; i++)
+					threshold.raise(i * 4 + offset);
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		assertEquals(9999 * 4 + 3, threshold.get(), 0);
+	}
+
+}
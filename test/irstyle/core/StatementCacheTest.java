@@ -0,0 +1,107 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSetMetaData;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+	// closed state of the statements prepared so far
+	private Map<PreparedStatement, Boolean> closed = new HashMap<PreparedStatement, Boolean>();
+
+	private PreparedStatement prepare(String sql) {
+		PreparedStatement[] self = new PreparedStatement[1];
+		self[0] = (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[] { PreparedStatement.class }, (proxy, method, args) -> {
+					if (method.getName().equals("close"))
+						closed.put(self[0], true);
+					else if (method.getName().equals("hashCode"))
+						return System.identityHashCode(proxy);
+					else if (method.getName().equals("equals"))
+						return proxy == args[0];
+					return null;
+				});
+		closed.put(self[0], false);
+		return self[0];
+	}
+
+	@Test
+	public void testReuse() throws Exception {
+		StatementCache cache = new StatementCache(this::prepare, 4);
+		PreparedStatement first = cache.get("select 1");
+		cache.release();
+		assertSame(first, cache.get("select 1"));
+		assertNotSame(first, cache.get("select 2"));
+		assertEquals(1, cache.getNumHits());
+		assertEquals(2, cache.getNumMisses());
+		assertEquals(2, cache.size());
+		assertFalse(closed.get(first));
+		cache.closeAll();
+		assertTrue(closed.get(first));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void testEviction() throws Exception {
+		StatementCache cache = new StatementCache(this::prepare, 2);
+		PreparedStatement s1 = cache.get("select 1");
+		PreparedStatement s2 = cache.get("select 2");
+		cache.release();
+		cache.get("select 1");
+		cache.get("select 3"); // evicts the least recently used select 2
+		assertEquals(2, cache.size());
+		assertTrue(closed.get(s2));
+		assertFalse(closed.get(s1));
+		assertNotSame(s2, cache.get("select 2"));
+	}
+
+	@Test
+	public void testEvictionInUse() throws Exception {
+		StatementCache cache = new StatementCache(this::prepare, 1);
+		PreparedStatement s1 = cache.get("select 1");
+		cache.get("select 2");
+		// the running query may still execute select 1
+		assertFalse(closed.get(s1));
+		cache.release();
+		assertTrue(closed.get(s1));
+	}
+
+	@Test
+	public void testLayoutKeptWithStatement() throws Exception {
+		StatementCache cache = new StatementCache(this::prepare, 1);
+		PreparedStatement s1 = cache.get("select 1");
+		ResultRow.Layout layout = createLayout();
+		assertTrue(cache.setLayout(s1, layout));
+		cache.release();
+		// the next query of the connection reuses the layout
+		assertSame(s1, cache.get("select 1"));
+		assertSame(layout, cache.getLayout(s1));
+		// statements that are not cached keep no layout
+		assertFalse(cache.setLayout(prepare("select 3"), layout));
+		cache.get("select 2");
+		assertNull(cache.getLayout(s1));
+		assertFalse(cache.setLayout(s1, layout));
+	}
+
+	private ResultRow.Layout createLayout() throws Exception {
+		ResultSetMetaData rsmd = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class[] { ResultSetMetaData.class }, (proxy, method, args) -> {
+					if (method.getName().equals("getColumnCount"))
+						return 2;
+					return "INT";
+				});
+		return new ResultRow.Layout(rsmd, 1);
+	}
+
+}
@@ -0,0 +1,73 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopNCollectorTest {
+
+	@Test
+	public void testKeepsTopN() {
+		TopNCollector<String> collector = new TopNCollector<String>(3);
+		assertEquals(Double.NEGATIVE_INFINITY, collector.nthScore(), 0);
+		collector.add(1, "a");
+		collector.add(5, "b");
+		collector.add(3, "c");
+		assertTrue(collector.isFull());
+		assertEquals(1, collector.nthScore(), 0);
+		assertTrue(collector.add(4, "d"));
+		assertFalse(collector.add(2, "e"));
+		assertEquals(3, collector.nthScore(), 0);
+		assertEquals(Arrays.asList("b", "d", "c"), collector.itemsInOrder());
+		assertArrayEquals(new double[] { 5, 4, 3 }, collector.scoresInOrder(), 0);
+	}
+
+	@Test
+	public void testTiesKeepFirstArrival() {
+		TopNCollector<String> collector = new TopNCollector<String>(2);
+		collector.add(2, "a");
+		collector.add(2, "b");
+		assertFalse(collector.add(2, "c"));
+		collector.add(3, "d");
+		assertEquals(Arrays.asList("d", "a"), collector.itemsInOrder());
+	}
+
+	@Test
+	public void testMatchesSortedList() {
+		Random random = new Random(7);
+		int N = 20;
+		TopNCollector<Integer> collector = new TopNCollector<Integer>(N);
+		List<Integer> all = new ArrayList<Integer>();
+		final double[] scores = new double[1000];
+		for (int i = 0; i < scores.length; i++) {
+			scores[i] = random.nextInt(100);
+			collector.add(scores[i], i);
+			all.add(i);
+		}
+		// stable sort keeps arrival order between equal scores
+		all.sort((a, b) -> Double.compare(scores[b], scores[a]));
+		assertEquals(all.subList(0, N), collector.itemsInOrder());
+		assertEquals(scores[all.get(N - 1)], collector.nthScore(), 0);
+	}
+
+	@Test
+	public void testAddTo() {
+		TopNCollector<String> collector = new TopNCollector<String>(5);
+		collector.add(1.5, "x");
+		collector.add(2.5, "y");
+		ArrayList<Result> results = new ArrayList<Result>();
+		collector.addTo(results);
+		assertEquals(2, results.size());
+		assertEquals("y", results.get(0).getStr());
+		assertEquals(1.5, results.get(1).score, 0);
+	}
+
+}
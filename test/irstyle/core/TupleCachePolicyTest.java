@@ -0,0 +1,87 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TupleCachePolicyTest {
+
+	@Test
+	public void testAdmitsUntilFull() {
+		TupleCachePolicy policy = new TupleCachePolicy(3);
+		assertTrue(policy.preload(7));
+		policy.access(3);
+		policy.access(1);
+		policy.access(7);
+		assertEquals(3, policy.size());
+		assertArrayEquals(new int[] { 1, 3 }, policy.drainAdmitted());
+		assertArrayEquals(new int[0], policy.drainEvicted());
+		assertFalse(policy.preload(9));
+	}
+
+	@Test
+	public void testFrequentTuplesSurviveScan() {
+		TupleCachePolicy policy = new TupleCachePolicy(100);
+		for (int round = 0; round < 8; round++)
+			for (int id = 0; id < 100; id++)
+				policy.access(id);
+		policy.drainAdmitted();
+		// accessed once each, so never more frequent than a cached tuple
+		for (int id = 1000; id < 1500; id++)
+			policy.access(id);
+		for (int id = 0; id < 100; id++)
+			assertTrue(policy.contains(id));
+		assertArrayEquals(new int[0], policy.drainAdmitted());
+		assertArrayEquals(new int[0], policy.drainEvicted());
+	}
+
+	@Test
+	public void testPopularityShift() {
+		TupleCachePolicy policy = new TupleCachePolicy(10);
+		for (int id = 0; id < 10; id++)
+			policy.access(id);
+		assertEquals(10, policy.drainAdmitted().length);
+		for (int round = 0; round < 5; round++)
+			for (int id = 100; id < 110; id++)
+				policy.access(id);
+		int numNew = 0;
+		for (int id = 100; id < 110; id++)
+			numNew += policy.contains(id) ? 1 : 0;
+		assertTrue(numNew >= 8);
+		int[] admitted = policy.drainAdmitted();
+		int[] evicted = policy.drainEvicted();
+		assertEquals(numNew, admitted.length);
+		assertEquals(numNew, evicted.length);
+		for (int id : evicted)
+			assertFalse(policy.contains(id));
+		for (int id : admitted)
+			assertTrue(policy.contains(id));
+	}
+
+	@Test
+	public void testCountersAreHalved() {
+		TupleCachePolicy policy = new TupleCachePolicy(10000);
+		for (int i = 0; i < 20; i++)
+			policy.access(5);
+		assertEquals(20, policy.frequency(5));
+		// 20 increments of id 5 and these make 10 * capacity
+		for (int id = 1000; id < 1000 + 10 * 10000 - 20; id++)
+			policy.access(id);
+		assertEquals(10, policy.frequency(5));
+	}
+
+	@Test
+	public void testCountersSaturateAt255() {
+		TupleCachePolicy policy = new TupleCachePolicy(10000);
+		for (int i = 0; i < 300; i++)
+			policy.access(5);
+		for (int i = 0; i < 40; i++)
+			policy.access(6);
+		assertEquals(255, policy.frequency(5));
+		assertEquals(40, policy.frequency(6));
+	}
+
+}
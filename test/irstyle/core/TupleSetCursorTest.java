@@ -0,0 +1,110 @@
+package irstyle.core;
+
+import static org.junit.Assert.assertEquals;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class TupleSetCursorTest {
+
+	// tuples of a tuple set already in descending score order
+	private static final int[] TUPLES = { 4, 9, 1, 7, 3, 7, 8, 2, 5, 1 };
+
+	// offsets of the pages read, in order
+	private List<Integer> reads = new ArrayList<Integer>();
+
+	private TupleSetCursor createCursor(int pageSize, boolean prefetch) {
+		int[] offset = { 0 };
+		return new TupleSetCursor(limit -> {
+			synchronized (reads) {
+				reads.add(offset[0]);
+			}
+			int from = Math.min(2 * offset[0], TUPLES.length);
+			int to = Math.min(2 * (offset[0] + limit), TUPLES.length);
+			offset[0] += limit;
+			return Arrays.copyOfRange(TUPLES, from, to);
+		}, pageSize, prefetch);
+	}
+
+	private void assertReadsAll(TupleSetCursor cursor) {
+		for (int i = 0; i < TUPLES.length; i += 2) {
+			assertEquals(TUPLES[i], cursor.getNextID());
+			assertEquals(TUPLES[i + 1], cursor.getCurrScore());
+		}
+		assertEquals(-1, cursor.getNextID());
+		assertEquals(-1, cursor.getNextID());
+	}
+
+	@Test
+	public void testPages() {
+		TupleSetCursor cursor = createCursor(2, false);
+		assertEquals(4, cursor.getNextID());
+		assertEquals(1, cursor.getNextID());
+		// only the consumed page was read
+		assertEquals(Arrays.asList(0), reads);
+		assertEquals(3, cursor.getNextID());
+		assertEquals(Arrays.asList(0, 2), reads);
+		cursor = createCursor(2, false);
+		assertReadsAll(cursor);
+		assertEquals(3, cursor.getNumPages());
+	}
+
+	@Test
+	public void testFullLastPage() {
+		TupleSetCursor cursor = createCursor(5, false);
+		assertReadsAll(cursor);
+		// the empty page after the full one ends the tuple set
+		assertEquals(2, cursor.getNumPages());
+	}
+
+	@Test
+	public void testPrefetch() {
+		TupleSetCursor cursor = createCursor(2, true);
+		// the first page is read by the caller when it is needed
+		assertEquals(Arrays.asList(), reads);
+		assertReadsAll(cursor);
+		cursor.close();
+		assertEquals(Arrays.asList(0, 2, 4), reads);
+	}
+
+	@Test
+	public void testCancelStopsPrefetch() throws Exception {
+		CountDownLatch reading = new CountDownLatch(1);
+		CountDownLatch cancelled = new CountDownLatch(1);
+		TupleSetCursor cursor = new TupleSetCursor(new TupleSetCursor.PageReader() {
+			private boolean first = true;
+
+			public int[] read(int limit) throws SQLException {
+				if (first) {
+					first = false;
+					return Arrays.copyOf(TUPLES, 2 * limit);
+				}
+				reading.countDown();
+				try {
+					cancelled.await();
+				} catch (InterruptedException e) {
+				}
+				throw new SQLException("cancelled");
+			}
+
+			public void cancel() {
+				cancelled.countDown();
+			}
+		}, 2, true);
+		assertEquals(4, cursor.getNextID());
+		assertEquals(1, cursor.getNextID());
+		// the second page is being prefetched
+		reading.await();
+		cursor.cancel();
+		assertEquals(-2, cursor.getNextID());
+		assertEquals(-1, cursor.getNextID());
+		// nothing is read anymore, so there is nothing to cancel
+		cursor.cancel();
+	}
+
+}